@@ -170,13 +170,15 @@ public class Andie {
         ColourActions colourActions = new ColourActions();
         menuBar.add(colourActions.createMenu());
 
-        // Settings menu which contains the menus for theme and language
+        // Settings menu which contains the menus for theme, language and export speed
         JMenu settingsMenu = new JMenu(bundle.getString("settings"));
 
         LanguageActions languageActions = new LanguageActions();
         ThemeActions themeActions = new ThemeActions();
+        ExportSpeedActions exportSpeedActions = new ExportSpeedActions();
         settingsMenu.add(themeActions.createMenu());
         settingsMenu.add(languageActions.createMenu());
+        settingsMenu.add(exportSpeedActions.createMenu());
         menuBar.add(settingsMenu);
 
         ActionListener menuItemListener = new ActionListener() {
@@ -333,7 +335,8 @@ public class Andie {
 
         JButton button6 = new JButton();
         button6.setIcon(exitIcon);
-        button6.addActionListener(fileActions.createMenu().getItem(5).getAction());
+        JMenu fileMenu = fileActions.createMenu();
+        button6.addActionListener(fileMenu.getItem(fileMenu.getItemCount() - 1).getAction());
         button6.setToolTipText(bundle.getString("exit"));
         toolBar.add(button6);
 
@@ -429,11 +432,30 @@ public class Andie {
      * As a result, this is essentially a wrapper around {@code createAndShowGUI()}.
      * </p>
      * 
-     * @param args Command line arguments, not currently used
+     * <p>
+     * With <code>--serve [port]</code>, no windows are shown and a
+     * {@link RenderServer} is run instead, for other programs to apply
+     * operations to images. With
+     * <code>--watch input macro.ops output [format]</code>, a
+     * {@link FolderWatcher} applies a macro to each image put in a folder
+     * instead.
+     * </p>
+     * 
+     * @param args Command line arguments, <code>--serve</code> or
+     *             <code>--watch</code> and their arguments, or nothing to show
+     *             the GUI
      * @throws Exception If something goes awry
      * @see #createAndShowGUI()
      */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            RenderServer.serve(args.length > 1 ? Integer.parseInt(args[1]) : RenderServer.DEFAULT_PORT);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--watch")) {
+            FolderWatcher.watch(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 try {
@@ -0,0 +1,458 @@
+package cosc202.andie;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import javax.imageio.*;
+import javax.imageio.metadata.*;
+import javax.imageio.stream.*;
+import org.w3c.dom.*;
+
+/**
+ * <p>
+ * The frames of an animated GIF, with their timing.
+ * </p>
+ *
+ * <p>
+ * {@link ImageIO#read(File)} only decodes the first frame of a GIF. This reads
+ * every frame, along with how long each is shown, how it is cleared away
+ * before the next, and how many times the animation loops. GIF frames usually
+ * only cover the part of the picture that changed, so each is drawn over the
+ * ones before it as a viewer would, and kept as a whole picture the size of
+ * the animation. That way every frame can be edited like a still image.
+ * </p>
+ *
+ * <p>
+ * Only the first frame is shown and edited. When the animation is written out,
+ * the same operations are applied to every other frame, several frames at once
+ * on a pool of threads. Frames are encoded in order as they are finished, and
+ * only a few are worked on at a time, so the edited frames are never all in
+ * memory together.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#open(String)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class AnimatedGif {
+
+    /** The name of the GIF plugin's stream metadata format. */
+    private static final String STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+    /** The name of the GIF plugin's frame metadata format. */
+    private static final String IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+
+    /** The frames, each the whole picture, as ARGB images. */
+    private final List<BufferedImage> frames;
+    /** How long each frame is shown, in hundredths of a second. */
+    private final int[] delays;
+    /** How each frame is cleared away before the next, as named by the GIF plugin. */
+    private final String[] disposals;
+    /** How many times to repeat the animation, 0 for forever, or -1 to play it once. */
+    private final int loops;
+
+    /**
+     * <p>
+     * Create an animation from its frames.
+     * </p>
+     *
+     * @param frames    The frames, each the whole picture, as ARGB images.
+     * @param delays    How long each frame is shown, in hundredths of a second.
+     * @param disposals How each frame is cleared away before the next.
+     * @param loops     How many times to repeat the animation, 0 for forever, or
+     *                  -1 to play it once.
+     */
+    AnimatedGif(List<BufferedImage> frames, int[] delays, String[] disposals, int loops) {
+        this.frames = frames;
+        this.delays = delays;
+        this.disposals = disposals;
+        this.loops = loops;
+    }
+
+    /**
+     * <p>
+     * Read every frame of an animated GIF.
+     * </p>
+     *
+     * @param file The file to read.
+     * @return The animation, or null if the file is not a GIF or has only one
+     *         frame.
+     * @throws IOException If the file cannot be read.
+     */
+    static AnimatedGif read(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                if (!reader.getFormatName().equalsIgnoreCase("gif")) {
+                    return null;
+                }
+                reader.setInput(in, false);
+                int count = reader.getNumImages(true);
+                if (count <= 1) {
+                    return null;
+                }
+                return decode(reader, count);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Decode and composite every frame.
+     * </p>
+     *
+     * @param reader A GIF reader with its input set.
+     * @param count  The number of frames.
+     * @return The animation.
+     * @throws IOException If a frame cannot be decoded.
+     */
+    private static AnimatedGif decode(ImageReader reader, int count) throws IOException {
+        int width = 0;
+        int height = 0;
+        IIOMetadata stream = reader.getStreamMetadata();
+        if (stream != null) {
+            Element screen = child(stream.getAsTree(STREAM_FORMAT), "LogicalScreenDescriptor");
+            if (screen != null) {
+                width = parse(screen.getAttribute("logicalScreenWidth"), 0);
+                height = parse(screen.getAttribute("logicalScreenHeight"), 0);
+            }
+        }
+        if (width <= 0 || height <= 0) {
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        }
+
+        List<BufferedImage> frames = new ArrayList<BufferedImage>(count);
+        int[] delays = new int[count];
+        String[] disposals = new String[count];
+        int loops = -1;
+
+        BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < count; i++) {
+            BufferedImage raw = reader.read(i);
+            Node tree = reader.getImageMetadata(i).getAsTree(IMAGE_FORMAT);
+            Element descriptor = child(tree, "ImageDescriptor");
+            int x = descriptor == null ? 0 : parse(descriptor.getAttribute("imageLeftPosition"), 0);
+            int y = descriptor == null ? 0 : parse(descriptor.getAttribute("imageTopPosition"), 0);
+            Element control = child(tree, "GraphicControlExtension");
+            delays[i] = control == null ? 0 : parse(control.getAttribute("delayTime"), 0);
+            disposals[i] = control == null ? "none" : control.getAttribute("disposalMethod");
+            int frameLoops = loops(tree);
+            if (frameLoops >= 0 && loops < 0) {
+                loops = frameLoops;
+            }
+
+            int[] previous = disposals[i].equals("restoreToPrevious") ? ImagePixels.getPixels(canvas) : null;
+            Graphics2D g = canvas.createGraphics();
+            g.drawImage(raw, x, y, null);
+            g.dispose();
+
+            BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            ImagePixels.setPixels(frame, ImagePixels.getPixels(canvas));
+            frames.add(frame);
+
+            if (previous != null) {
+                ImagePixels.setPixels(canvas, previous);
+            } else if (disposals[i].equals("restoreToBackgroundColor")) {
+                // Viewers clear to transparent rather than the background colour
+                Graphics2D clear = canvas.createGraphics();
+                clear.setComposite(AlphaComposite.Clear);
+                clear.fillRect(x, y, raw.getWidth(), raw.getHeight());
+                clear.dispose();
+            }
+        }
+        return new AnimatedGif(frames, delays, disposals, loops);
+    }
+
+    /**
+     * <p>
+     * Get the number of frames.
+     * </p>
+     *
+     * @return The number of frames, at least two.
+     */
+    int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * <p>
+     * Get a frame as it was read.
+     * </p>
+     *
+     * @param index The index of the frame.
+     * @return The whole picture for the frame. It should not be changed.
+     */
+    BufferedImage getFrame(int index) {
+        return frames.get(index);
+    }
+
+    /**
+     * <p>
+     * Apply operations to every frame and write the animation to a file.
+     * </p>
+     *
+     * <p>
+     * Frames after the first are worked out on a pool of threads, a few ahead of
+     * the one being encoded, and each is encoded and forgotten as soon as it is
+     * its turn.
+     * </p>
+     *
+     * @param file  The file to write to.
+     * @param first The first frame with the operations already applied, as it
+     *              is shown to the user.
+     * @param ops   The operations to apply to the other frames, in order.
+     * @throws IOException If the file cannot be written or an operation fails.
+     */
+    void write(File file, BufferedImage first, List<ImageOperation> ops) throws IOException {
+        write(file, first, ops, percent -> {
+        });
+    }
+
+    /**
+     * <p>
+     * Apply operations to every frame and write the animation to a file,
+     * reporting how far through it is.
+     * </p>
+     *
+     * @param file     The file to write to.
+     * @param first    The first frame with the operations already applied, as it
+     *                 is shown to the user.
+     * @param ops      The operations to apply to the other frames, in order.
+     * @param progress Told the percentage of frames written after each one.
+     * @throws IOException If the file cannot be written or an operation fails.
+     */
+    void write(File file, BufferedImage first, List<ImageOperation> ops, IntConsumer progress) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("gif");
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for format gif");
+        }
+        ImageWriter writer = writers.next();
+        List<ImageOperation> sequence = new ArrayList<ImageOperation>(ops);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<BufferedImage>> pending = new ArrayDeque<Future<BufferedImage>>();
+
+        file.delete();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            int next = 1;
+            for (int i = 0; i < frames.size(); i++) {
+                // Keep a few frames ahead in progress, but no more
+                while (next < frames.size() && pending.size() < 2 * threads) {
+                    BufferedImage original = frames.get(next++);
+                    pending.addLast(pool.submit(() -> edit(original, sequence)));
+                }
+                BufferedImage frame = binaryAlpha(i == 0 ? first : pending.removeFirst().get());
+                writer.writeToSequence(new IIOImage(frame, null, metadata(writer, frame, i)), null);
+                progress.accept(100 * (i + 1) / frames.size());
+            }
+            writer.endWriteSequence();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + file);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not apply operations to a frame", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            writer.dispose();
+        }
+    }
+
+    /**
+     * <p>
+     * Apply operations to a copy of a frame.
+     * </p>
+     *
+     * @param original The frame as it was read. This is not changed.
+     * @param ops      The operations to apply, in order.
+     * @return The edited frame.
+     */
+    private static BufferedImage edit(BufferedImage original, List<ImageOperation> ops) {
+        BufferedImage frame = new BufferedImage(original.getWidth(), original.getHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(frame, ImagePixels.getPixels(original));
+        for (ImageOperation op : ops) {
+            frame = op.apply(frame);
+        }
+        return frame;
+    }
+
+    /**
+     * <p>
+     * Make every pixel of a frame either opaque or fully transparent.
+     * </p>
+     *
+     * <p>
+     * GIF has no partial transparency, and the writer treats any pixel that is
+     * not fully opaque as transparent. Pixels at least half opaque are made
+     * opaque instead, so a frame that has been blurred slightly does not vanish.
+     * </p>
+     *
+     * @param frame The frame to write.
+     * @return The frame itself if it has no partly transparent pixels, otherwise
+     *         a new ARGB copy with them made opaque or transparent.
+     */
+    private static BufferedImage binaryAlpha(BufferedImage frame) {
+        int[] pixels = ImagePixels.getPixels(frame);
+        boolean changed = false;
+        for (int i = 0; i < pixels.length; i++) {
+            int alpha = pixels[i] >>> 24;
+            if (alpha != 0 && alpha != 0xFF) {
+                pixels[i] = alpha >= 0x80 ? pixels[i] | 0xFF000000 : 0;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return frame;
+        }
+        BufferedImage output = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(output, pixels);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Build the metadata to write a frame with.
+     * </p>
+     *
+     * <p>
+     * Every frame is written whole, so a frame with transparent pixels is cleared
+     * away before the next rather than left for it to show through. Otherwise the
+     * frame's original disposal method is kept.
+     * </p>
+     *
+     * @param writer The GIF writer.
+     * @param frame  The frame to write.
+     * @param index  The index of the frame.
+     * @return The metadata.
+     * @throws IIOInvalidTreeException If the GIF plugin rejects the metadata.
+     */
+    private IIOMetadata metadata(ImageWriter writer, BufferedImage frame, int index)
+            throws IIOInvalidTreeException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(frame),
+                null);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(IMAGE_FORMAT);
+
+        boolean transparent = false;
+        for (int argb : ImagePixels.getPixels(frame)) {
+            if ((argb >>> 24) != 0xFF) {
+                transparent = true;
+                break;
+            }
+        }
+        IIOMetadataNode control = node(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", transparent ? "restoreToBackgroundColor" : disposals[index]);
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("delayTime", Integer.toString(delays[index]));
+
+        if (index == 0 && loops >= 0) {
+            IIOMetadataNode extension = new IIOMetadataNode("ApplicationExtension");
+            extension.setAttribute("applicationID", "NETSCAPE");
+            extension.setAttribute("authenticationCode", "2.0");
+            extension.setUserObject(new byte[] { 1, (byte) (loops & 0xFF), (byte) ((loops >> 8) & 0xFF) });
+            node(root, "ApplicationExtensions").appendChild(extension);
+        }
+
+        metadata.setFromTree(IMAGE_FORMAT, root);
+        return metadata;
+    }
+
+    /**
+     * <p>
+     * Find the loop count in a frame's metadata.
+     * </p>
+     *
+     * @param tree The frame's metadata.
+     * @return The number of times to repeat, 0 for forever, or -1 if the frame
+     *         does not say.
+     */
+    private static int loops(Node tree) {
+        Element extensions = child(tree, "ApplicationExtensions");
+        if (extensions == null) {
+            return -1;
+        }
+        for (Node node = extensions.getFirstChild(); node != null; node = node.getNextSibling()) {
+            Element extension = (Element) node;
+            Object data = ((IIOMetadataNode) extension).getUserObject();
+            if ("NETSCAPE".equals(extension.getAttribute("applicationID")) && data instanceof byte[]
+                    && ((byte[]) data).length >= 3 && ((byte[]) data)[0] == 1) {
+                byte[] bytes = (byte[]) data;
+                return (bytes[1] & 0xFF) | ((bytes[2] & 0xFF) << 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>
+     * Find a child element by name.
+     * </p>
+     *
+     * @param parent The node to look in.
+     * @param name   The name of the child.
+     * @return The first child with that name, or null if there is none.
+     */
+    private static Element child(Node parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeName().equals(name)) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Find a child metadata node by name, adding it if there is none.
+     * </p>
+     *
+     * @param parent The node to look in.
+     * @param name   The name of the child.
+     * @return The child with that name.
+     */
+    private static IIOMetadataNode node(IIOMetadataNode parent, String name) {
+        Element existing = child(parent, name);
+        if (existing != null) {
+            return (IIOMetadataNode) existing;
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        parent.appendChild(node);
+        return node;
+    }
+
+    /**
+     * <p>
+     * Parse a whole number attribute.
+     * </p>
+     *
+     * @param value    The attribute's value.
+     * @param fallback The number to use if it is missing or not a number.
+     * @return The number.
+     */
+    private static int parse(String value, int fallback) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
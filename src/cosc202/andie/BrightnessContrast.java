@@ -1,7 +1,7 @@
 package cosc202.andie;
 
 import java.awt.image.*;
-import java.awt.Color;
+import java.io.*;
 
 /**
  * <p>
@@ -21,7 +21,13 @@ import java.awt.Color;
  * @author Shayna Ludwig
  * @version 1.0
  */
-public class BrightnessContrast implements ImageOperation, java.io.Serializable {
+public class BrightnessContrast implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version of the adjustment before it used a lookup table,
+     * so brightness and contrast saved in older .ops files still load.
+     */
+    private static final long serialVersionUID = -8906663180306429554L;
 
     /**
      * The size of brightness adjustment. The value is a percentage required for brightness
@@ -33,6 +39,17 @@ public class BrightnessContrast implements ImageOperation, java.io.Serializable
      * adjustment.
      */
     private int contrast;
+    /**
+     * The adjusted value of each possible channel value. It is built when the
+     * adjustment is made or loaded, never on first use, because one adjustment
+     * can be applied to several animation frames at once.
+     */
+    private transient volatile int[] table;
+    /**
+     * The adjusted value of each possible 16 bit channel value, built with
+     * {@link #table}.
+     */
+    private transient volatile int[] deepTable;
 
     /**
      * <p>
@@ -53,6 +70,8 @@ public class BrightnessContrast implements ImageOperation, java.io.Serializable
     BrightnessContrast(int brightness, int contrast) {
         this.brightness = brightness;
         this.contrast = contrast;
+        this.table = createTable(brightness, contrast);
+        this.deepTable = createDeepTable(brightness, contrast);
     }
 
     /**
@@ -76,62 +95,100 @@ public class BrightnessContrast implements ImageOperation, java.io.Serializable
      * </p>
      * 
      * <p>
-     * Brightness and contrast adjustment to each pixel within the range [0,255]
+     * Brightness and contrast adjustment to each pixel within the range [0,255].
+     * The adjustment only depends on each channel value, so it is worked out once
+     * for all 256 possible values and applied with a {@link ColourLookup}.
      * </p>
      * 
      * @param input The image to apply the brightness and contrast filter to.
      * @return The resulting adjusted image.
      */
     public BufferedImage apply(BufferedImage input) {
+        return ColourLookup.apply(input, table);
+    }
 
-        int a;
-        int r;
-        int g;
-        int b;
-
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null),
-                input.isAlphaPremultiplied(), null);
-
-        // Iterate through each pixel
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
-
-                int argb = input.getRGB(x, y);
-                a = (argb >> 24) & 0xff;
-                r = (argb >> 16) & 0xff;
-                g = (argb >> 8) & 0xff;
-                b = argb & 0xff;
+    /**
+     * <p>
+     * Build the lookup table for a brightness and contrast adjustment.
+     * </p>
+     * 
+     * @param brightness The percentage to adjust brightness by
+     * @param contrast   The percentage to adjust contrast by
+     * @return The adjusted value of each channel value in the range [0,255].
+     */
+    static int[] createTable(int brightness, int contrast) {
+        int[] table = new int[256];
+        for (int c = 0; c < 256; c++) {
+            int value = (int) ((1 + ((contrast / 100.0))) * (c - 127.5) + (127.5 * (1 + (brightness / 100.0))));
+            if (value < 0) {
+                value = 0;
+            } else if (value > 255) {
+                value = 255;
+            }
+            table[c] = value;
+        }
+        return table;
+    }
 
-                // Apply brightness and contrast adjustment to each color channel
-                r = (int) ((1 + ((contrast / 100.0))) * (r - 127.5) + (127.5 * (1 + (brightness / 100.0))));
-                if(r<0){
-                    r=0;
-                }else if(r>255){
-                    r=255;
-                }
-                g = (int) ((1 + ((contrast / 100.0))) * (g - 127.5) + (127.5 * (1 + (brightness / 100.0))));
-                if(g<0){
-                    g=0;
-                }else if(g>255){
-                    g=255;
-                }
-                b = (int) ((1 + ((contrast / 100.0))) * (b - 127.5) + (127.5 * (1 + (brightness / 100.0))));
-                if(b<0){
-                    b=0;
-                }else if(b>255){
-                    b=255;
-                }
-                if(a<0){
-                    a=0;
-                }else if (a>255){
-                    a=255;
-                }
+    /**
+     * <p>
+     * Apply a brightness and contrast adjustment to a 16 bit image.
+     * </p>
+     * 
+     * <p>
+     * The same adjustment is worked out for all 65536 possible values, rounding
+     * to the nearest rather than down to an 8 bit value.
+     * </p>
+     * 
+     * @param input The image to apply the brightness and contrast filter to.
+     * @return The resulting adjusted image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        return input.map(deepTable);
+    }
 
-                // Set the adjusted color value to the output image
-                output.setRGB(x, y, new Color(r, g, b, a).getRGB());
-            }
+    /**
+     * <p>
+     * Build the lookup table for a brightness and contrast adjustment to a 16 bit
+     * image.
+     * </p>
+     * 
+     * @param brightness The percentage to adjust brightness by
+     * @param contrast   The percentage to adjust contrast by
+     * @return The adjusted value of each channel value in the range [0,65535].
+     */
+    static int[] createDeepTable(int brightness, int contrast) {
+        int[] table = new int[HighPrecisionImage.MAX + 1];
+        for (int c = 0; c <= HighPrecisionImage.MAX; c++) {
+            double value = (1 + ((contrast / 100.0))) * (c / 257.0 - 127.5) + (127.5 * (1 + (brightness / 100.0)));
+            table[c] = HighPrecisionImage.clamp(value * 257) & HighPrecisionImage.MAX;
         }
-        return output;
+        return table;
     }
 
+    /**
+     * <p>
+     * Load a saved adjustment and build its lookup tables.
+     * </p>
+     * 
+     * @param in The stream to read from.
+     * @throws IOException            If the adjustment cannot be read.
+     * @throws ClassNotFoundException If a class in the stream cannot be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        table = createTable(brightness, contrast);
+        deepTable = createDeepTable(brightness, contrast);
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 0, as each channel value is adjusted on its own.
+     */
+    public int getNeighbourhoodRadius() {
+        return 0;
+    }
 }
@@ -0,0 +1,116 @@
+package cosc202.andie;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BrightnessContrastTest {
+    // Enough frames that several threads start on a fresh adjustment together,
+    // as AnimatedGif.write and FolderWatcher do
+    private static final int FRAMES = 64;
+
+    private static List<BufferedImage> frames() {
+        List<BufferedImage> frames = new ArrayList<BufferedImage>();
+        Random random = new Random(FRAMES);
+        for (int f = 0; f < FRAMES; f++) {
+            BufferedImage frame = new BufferedImage(48, 32, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < 32; y++) {
+                for (int x = 0; x < 48; x++) {
+                    frame.setRGB(x, y, random.nextInt());
+                }
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static <T> List<T> applyAtOnce(List<Callable<T>> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<T> results = new ArrayList<T>();
+            for (Future<T> result : pool.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void assertSameFrames(List<BufferedImage> expected, List<BufferedImage> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int f = 0; f < expected.size(); f++) {
+            Assertions.assertArrayEquals(pixels(expected.get(f)), pixels(actual.get(f)), "Frame " + f);
+        }
+    }
+
+    @Test
+    void framesAtOnceMatchSerial() throws Exception {
+        List<BufferedImage> frames = frames();
+        List<BufferedImage> serial = new ArrayList<BufferedImage>();
+        BrightnessContrast serialOp = new BrightnessContrast(30, -20);
+        for (BufferedImage frame : frames) {
+            serial.add(serialOp.apply(frame));
+        }
+
+        BrightnessContrast op = new BrightnessContrast(30, -20);
+        List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>();
+        for (BufferedImage frame : frames) {
+            tasks.add(() -> op.apply(frame));
+        }
+        assertSameFrames(serial, applyAtOnce(tasks));
+    }
+
+    @Test
+    void deepFramesAtOnceMatchSerial() throws Exception {
+        List<HighPrecisionImage> frames = new ArrayList<HighPrecisionImage>();
+        for (BufferedImage frame : frames()) {
+            frames.add(HighPrecisionImage.fromImage(frame));
+        }
+        List<BufferedImage> serial = new ArrayList<BufferedImage>();
+        BrightnessContrast serialOp = new BrightnessContrast(-15, 40);
+        for (HighPrecisionImage frame : frames) {
+            serial.add(serialOp.apply(frame).toImage());
+        }
+
+        BrightnessContrast op = new BrightnessContrast(-15, 40);
+        List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>();
+        for (HighPrecisionImage frame : frames) {
+            tasks.add(() -> op.apply(frame).toImage());
+        }
+        assertSameFrames(serial, applyAtOnce(tasks));
+    }
+
+    @Test
+    void loadedFramesAtOnceMatchSerial() throws Exception {
+        List<BufferedImage> frames = frames();
+        BrightnessContrast original = new BrightnessContrast(10, 25);
+        List<BufferedImage> serial = new ArrayList<BufferedImage>();
+        for (BufferedImage frame : frames) {
+            serial.add(original.apply(frame));
+        }
+
+        // A loaded adjustment has no tables until readObject builds them
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(original);
+        }
+        BrightnessContrast op;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            op = (BrightnessContrast) in.readObject();
+        }
+        List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>();
+        for (BufferedImage frame : frames) {
+            tasks.add(() -> op.apply(frame));
+        }
+        assertSameFrames(serial, applyAtOnce(tasks));
+    }
+}
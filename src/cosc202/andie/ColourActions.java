@@ -116,7 +116,7 @@ public class ColourActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new ConvertToGrey());
+            target.getImage().apply(inSelection(new ConvertToGrey()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -159,7 +159,7 @@ public class ColourActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new InvertColour());
+            target.getImage().apply(inSelection(new InvertColour()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -242,7 +242,7 @@ public class ColourActions {
                     contrast = sliderContrast.getValue();
                     // Update the image with the brightness value
                     try {
-                        target.getImage().tempApply(new BrightnessContrast(brightness, contrast));
+                        target.getImage().tempApply(inSelection(new BrightnessContrast(brightness, contrast)));
                     } catch (Exception ex) {
                         Tools.errorMessage(ex, "fileApplyError");
                         Andie.frame.setCursor(Cursor.getDefaultCursor());
@@ -310,7 +310,7 @@ public class ColourActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new RemoveBackground());
+            target.getImage().apply(inSelection(new RemoveBackground()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -353,7 +353,7 @@ public class ColourActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new RemoveTransparency());
+            target.getImage().apply(inSelection(new RemoveTransparency()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -0,0 +1,113 @@
+package cosc202.andie;
+
+import java.awt.image.*;
+
+/**
+ * <p>
+ * ImageOperation to remap colour values through a lookup table.
+ * </p>
+ *
+ * <p>
+ * Many colour adjustments, such as brightness, contrast, levels and curves,
+ * change each colour channel value independently of the others and of the
+ * pixel's position. Any such adjustment can be described by a table of 256
+ * entries giving the new value for each possible old value. The table is built
+ * once and then applied to every pixel with integer lookups, instead of
+ * recalculating the adjustment for every channel of every pixel.
+ * </p>
+ *
+ * <p>
+ * The same table is applied to the red, green and blue channels. Alpha is left
+ * unchanged.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see BrightnessContrast
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class ColourLookup implements ImageOperation, java.io.Serializable {
+
+    /** The new value for each of the 256 possible channel values. */
+    private int[] table;
+
+    /**
+     * <p>
+     * Construct a lookup table colour adjustment.
+     * </p>
+     *
+     * <p>
+     * Entries outside the range [0, 255] are clamped to that range.
+     * </p>
+     *
+     * @param table The new value for each of the 256 possible channel values.
+     * @throws IllegalArgumentException If the table does not have 256 entries.
+     */
+    ColourLookup(int[] table) {
+        if (table.length != 256) {
+            throw new IllegalArgumentException("Colour lookup table must have 256 entries");
+        }
+        this.table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            this.table[i] = Math.min(Math.max(table[i], 0), 255);
+        }
+    }
+
+    /**
+     * <p>
+     * Apply the lookup table to an image.
+     * </p>
+     *
+     * @param input The image to adjust.
+     * @return The resulting adjusted image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        return apply(input, table);
+    }
+
+    /**
+     * <p>
+     * Apply a lookup table to the colour channels of an image.
+     * </p>
+     *
+     * <p>
+     * The table is not checked, so every entry must already be in the range
+     * [0, 255].
+     * </p>
+     *
+     * @param input The image to adjust.
+     * @param table The new value for each of the 256 possible channel values.
+     * @return A new image with the adjustment applied.
+     */
+    static BufferedImage apply(BufferedImage input, int[] table) {
+        BufferedImage output = new BufferedImage(input.getColorModel(),
+                input.getRaster().createCompatibleWritableRaster(), input.isAlphaPremultiplied(), null);
+        int[] pixels = ImagePixels.getPixels(input);
+
+        for (int i = 0; i < pixels.length; ++i) {
+            int argb = pixels[i];
+            pixels[i] = (argb & 0xff000000)
+                    | (table[(argb >> 16) & 0xff] << 16)
+                    | (table[(argb >> 8) & 0xff] << 8)
+                    | table[argb & 0xff];
+        }
+
+        ImagePixels.setPixels(output, pixels);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 0, as each channel value is looked up on its own.
+     */
+    public int getNeighbourhoodRadius() {
+        return 0;
+    }
+}
@@ -20,7 +20,13 @@ import java.awt.image.*;
  * @author Steven Mills
  * @version 1.0
  */
-public class ConvertToGrey implements ImageOperation, java.io.Serializable {
+public class ConvertToGrey implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version from before the conversion could be limited to a
+     * selection, kept so older .ops files still load.
+     */
+    private static final long serialVersionUID = -6551968746842527704L;
 
     /**
      * <p>
@@ -47,23 +53,51 @@ public class ConvertToGrey implements ImageOperation, java.io.Serializable {
      * @return The resulting greyscale image.
      */
     public BufferedImage apply(BufferedImage input) {
-  
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
-                int argb = input.getRGB(x, y);
-                int a = (argb & 0xFF000000) >> 24;
-                int r = (argb & 0x00FF0000) >> 16;
-                int g = (argb & 0x0000FF00) >> 8;
-                int b = (argb & 0x000000FF);
+        int[] pixels = ImagePixels.getPixels(input);
 
-                int grey = (int) Math.round(0.3*r + 0.6*g + 0.1*b);
+        for (int i = 0; i < pixels.length; ++i) {
+            int argb = pixels[i];
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
 
-                argb = (a << 24) | (grey << 16) | (grey << 8) | grey;
-                input.setRGB(x, y, argb);
-            }
+            int grey = (int) Math.round(0.3*r + 0.6*g + 0.1*b);
+
+            pixels[i] = (argb & 0xFF000000) | (grey << 16) | (grey << 8) | grey;
         }
-        
+
+        ImagePixels.setPixels(input, pixels);
         return input;
     }
-    
+
+    /**
+     * <p>
+     * Apply greyscale conversion to a 16 bit image.
+     * </p>
+     * 
+     * @param input The image to be converted to greyscale.
+     * @return The resulting greyscale image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        HighPrecisionImage output = input.copy();
+        for (int i = 0; i < output.red.length; ++i) {
+            short grey = HighPrecisionImage.clamp(0.3 * (input.red[i] & HighPrecisionImage.MAX)
+                    + 0.6 * (input.green[i] & HighPrecisionImage.MAX) + 0.1 * (input.blue[i] & HighPrecisionImage.MAX));
+            output.red[i] = grey;
+            output.green[i] = grey;
+            output.blue[i] = grey;
+        }
+        return output;
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 0, as each pixel is converted on its own.
+     */
+    public int getNeighbourhoodRadius() {
+        return 0;
+    }
 }
@@ -0,0 +1,326 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Helper methods to convolve an image with an arbitrary kernel.
+ * </p>
+ *
+ * <p>
+ * The kernel is applied the same way as {@link java.awt.image.ConvolveOp}: as a
+ * true convolution, so the kernel's top left value weights the pixel down and
+ * to the right of the one being calculated. Pixels beyond the edge of the image are treated as
+ * copies of the nearest edge pixel. The red, green and blue channels are
+ * convolved and alpha is left unchanged.
+ * </p>
+ *
+ * <p>
+ * Small kernels are applied directly, which costs one multiply per non-zero
+ * kernel value per pixel. Large kernels are applied by multiplication in the
+ * frequency domain with an {@link FFT}, which costs the same whatever the size
+ * of the kernel. {@link #convolve} picks whichever is faster.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see CustomKernelFilter
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class Convolution {
+
+    /**
+     * The number of non-zero kernel values above which the FFT is faster than
+     * direct convolution. Measured on a 2000x1500 image with square kernels, where
+     * the two break even at about a 5x5 kernel.
+     */
+    static final int FFT_THRESHOLD = 24;
+
+    /** The largest FFT tile size to use. */
+    private static final int MAX_TILE = 1024;
+
+    /**
+     * <p>
+     * Convolve an image with a kernel, using whichever method is faster.
+     * </p>
+     *
+     * @param input        The image to convolve.
+     * @param kernel       The kernel values, in rows of {@code kernelWidth}.
+     * @param kernelWidth  The width of the kernel, an odd number.
+     * @param kernelHeight The height of the kernel, an odd number.
+     * @return A new ARGB image with the result.
+     */
+    static BufferedImage convolve(BufferedImage input, float[] kernel, int kernelWidth, int kernelHeight) {
+        int taps = 0;
+        for (float value : kernel) {
+            if (value != 0) {
+                taps++;
+            }
+        }
+        if (taps > FFT_THRESHOLD) {
+            return fft(input, kernel, kernelWidth, kernelHeight);
+        }
+        return direct(input, kernel, kernelWidth, kernelHeight);
+    }
+
+    /**
+     * <p>
+     * Convolve an image with a kernel directly.
+     * </p>
+     *
+     * <p>
+     * Zero kernel values are skipped, so sparse kernels are cheap however large
+     * they are. Rows are processed in parallel.
+     * </p>
+     *
+     * @param input        The image to convolve.
+     * @param kernel       The kernel values, in rows of {@code kernelWidth}.
+     * @param kernelWidth  The width of the kernel, an odd number.
+     * @param kernelHeight The height of the kernel, an odd number.
+     * @return A new ARGB image with the result.
+     */
+    static BufferedImage direct(BufferedImage input, float[] kernel, int kernelWidth, int kernelHeight) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] pixels = ImagePixels.getPixels(input);
+        int[] output = new int[pixels.length];
+
+        // Only the non-zero kernel values, with the offset of the pixel each one
+        // weights. The kernel is flipped, as this is a convolution.
+        int taps = 0;
+        for (float value : kernel) {
+            if (value != 0) {
+                taps++;
+            }
+        }
+        int[] tapX = new int[taps];
+        int[] tapY = new int[taps];
+        float[] weights = new float[taps];
+        for (int i = 0, t = 0; i < kernel.length; i++) {
+            if (kernel[i] != 0) {
+                tapX[t] = kernelWidth - 1 - i % kernelWidth;
+                tapY[t] = kernelHeight - 1 - i / kernelWidth;
+                weights[t++] = kernel[i];
+            }
+        }
+
+        // Clamped source column and row for every position the kernel can reach
+        int[] columns = new int[width + kernelWidth - 1];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = clamp(i - kernelWidth / 2, width);
+        }
+        int[] rows = new int[height + kernelHeight - 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = clamp(i - kernelHeight / 2, height) * width;
+        }
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; x++) {
+                float r = 0, g = 0, b = 0;
+                for (int t = 0; t < weights.length; t++) {
+                    int p = pixels[rows[y + tapY[t]] + columns[x + tapX[t]]];
+                    float w = weights[t];
+                    r += ((p >> 16) & 0xFF) * w;
+                    g += ((p >> 8) & 0xFF) * w;
+                    b += (p & 0xFF) * w;
+                }
+                int i = y * width + x;
+                output[i] = pack(pixels[i], r, g, b);
+            }
+        });
+
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(result, output);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Convolve an image with a kernel by multiplication in the frequency domain.
+     * </p>
+     *
+     * <p>
+     * The image is split into square tiles that are processed in parallel with
+     * the overlap-save method. Each tile is read along with a border as wide as
+     * the kernel, transformed, multiplied by the kernel's spectrum and
+     * transformed back. The border pixels of the result are corrupted by the
+     * transform wrapping around and are thrown away, leaving an exact result for
+     * the inside of the tile. Tiles never need to be added together, so they can
+     * be written straight to the output. The red and green channels share one
+     * complex transform, as the real and imaginary parts, and blue uses another.
+     * </p>
+     *
+     * <p>
+     * The tile size is chosen to minimise the total work, trading the cost of
+     * larger transforms against the wasted border of smaller ones.
+     * </p>
+     *
+     * @param input        The image to convolve.
+     * @param kernel       The kernel values, in rows of {@code kernelWidth}.
+     * @param kernelWidth  The width of the kernel, an odd number.
+     * @param kernelHeight The height of the kernel, an odd number.
+     * @return A new ARGB image with the result.
+     */
+    static BufferedImage fft(BufferedImage input, float[] kernel, int kernelWidth, int kernelHeight) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] pixels = ImagePixels.getPixels(input);
+        int[] output = new int[pixels.length];
+
+        int size = tileSize(width, height, kernelWidth, kernelHeight);
+        FFT fft = new FFT(size);
+        int validWidth = size - kernelWidth + 1;
+        int validHeight = size - kernelHeight + 1;
+        int tilesX = (width + validWidth - 1) / validWidth;
+        int tilesY = (height + validHeight - 1) / validHeight;
+
+        // The kernel is placed so that circular convolution with it gives the
+        // result for the top left pixel of the tile at the top left of the
+        // transform. Scaling for the inverse transform is folded into the
+        // spectrum.
+        double[] kernelRe = new double[size * size];
+        double[] kernelIm = new double[size * size];
+        double scale = 1.0 / ((double) size * size);
+        for (int j = 0; j < kernelHeight; j++) {
+            for (int i = 0; i < kernelWidth; i++) {
+                int u = (size - (kernelWidth - 1 - i)) % size;
+                int v = (size - (kernelHeight - 1 - j)) % size;
+                kernelRe[v * size + u] = kernel[j * kernelWidth + i] * scale;
+            }
+        }
+        fft.transform2D(kernelRe, kernelIm, false);
+
+        IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+            int originX = (tile % tilesX) * validWidth;
+            int originY = (tile / tilesX) * validHeight;
+            int endX = Math.min(originX + validWidth, width);
+            int endY = Math.min(originY + validHeight, height);
+
+            double[] re = new double[size * size];
+            double[] im = new double[size * size];
+            int[] red = new int[validWidth * validHeight];
+            int[] green = new int[validWidth * validHeight];
+
+            for (int pass = 0; pass < 2; pass++) {
+                for (int v = 0; v < size; v++) {
+                    int row = clamp(originY - kernelHeight / 2 + v, height) * width;
+                    for (int u = 0; u < size; u++) {
+                        int p = pixels[row + clamp(originX - kernelWidth / 2 + u, width)];
+                        if (pass == 0) {
+                            re[v * size + u] = (p >> 16) & 0xFF;
+                            im[v * size + u] = (p >> 8) & 0xFF;
+                        } else {
+                            re[v * size + u] = p & 0xFF;
+                            im[v * size + u] = 0;
+                        }
+                    }
+                }
+
+                fft.transform2D(re, im, false);
+                for (int i = 0; i < re.length; i++) {
+                    double r = re[i] * kernelRe[i] - im[i] * kernelIm[i];
+                    im[i] = re[i] * kernelIm[i] + im[i] * kernelRe[i];
+                    re[i] = r;
+                }
+                fft.transform2D(re, im, true);
+
+                for (int y = originY; y < endY; y++) {
+                    for (int x = originX; x < endX; x++) {
+                        int t = (y - originY) * size + (x - originX);
+                        int v = (y - originY) * validWidth + (x - originX);
+                        if (pass == 0) {
+                            red[v] = clampChannel(re[t]);
+                            green[v] = clampChannel(im[t]);
+                        } else {
+                            int i = y * width + x;
+                            output[i] = (pixels[i] & 0xFF000000) | (red[v] << 16) | (green[v] << 8)
+                                    | clampChannel(re[t]);
+                        }
+                    }
+                }
+            }
+        });
+
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(result, output);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Choose the FFT tile size with the least total work.
+     * </p>
+     *
+     * @param width        The width of the image.
+     * @param height       The height of the image.
+     * @param kernelWidth  The width of the kernel.
+     * @param kernelHeight The height of the kernel.
+     * @return The tile size, a power of two.
+     */
+    private static int tileSize(int width, int height, int kernelWidth, int kernelHeight) {
+        int kernelSize = Math.max(kernelWidth, kernelHeight);
+        int smallest = Math.max(8, Integer.highestOneBit(kernelSize) * 4);
+        // No point in a tile bigger than the whole image with its border
+        int largest = Math.max(smallest, Math.min(MAX_TILE,
+                Integer.highestOneBit(Math.max(width, height) + kernelSize - 2) * 2));
+
+        int best = smallest;
+        double bestCost = Double.MAX_VALUE;
+        for (int size = smallest; size <= largest; size *= 2) {
+            long tiles = (long) ((width + size - kernelWidth) / (size - kernelWidth + 1))
+                    * ((height + size - kernelHeight) / (size - kernelHeight + 1));
+            double cost = tiles * (double) size * size * Integer.numberOfTrailingZeros(size);
+            if (cost < bestCost) {
+                best = size;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * <p>
+     * Clamp a coordinate to the bounds of the image.
+     * </p>
+     *
+     * @param i    The coordinate.
+     * @param size The size of the image along that axis.
+     * @return The nearest coordinate inside the image.
+     */
+    private static int clamp(int i, int size) {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+
+    /**
+     * <p>
+     * Round a channel value and clamp it to [0, 255].
+     * </p>
+     *
+     * @param value The channel value.
+     * @return The rounded and clamped value.
+     */
+    private static int clampChannel(double value) {
+        long rounded = Math.round(value);
+        return rounded < 0 ? 0 : (rounded > 255 ? 255 : (int) rounded);
+    }
+
+    /**
+     * <p>
+     * Pack convolved channels into a pixel, keeping the original alpha.
+     * </p>
+     *
+     * @param original The original pixel.
+     * @param r        The convolved red channel.
+     * @param g        The convolved green channel.
+     * @param b        The convolved blue channel.
+     * @return The packed ARGB result.
+     */
+    private static int pack(int original, float r, float g, float b) {
+        return (original & 0xFF000000) | (clampChannel(r) << 16) | (clampChannel(g) << 8) | clampChannel(b);
+    }
+}
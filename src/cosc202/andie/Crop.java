@@ -1,7 +1,7 @@
 package cosc202.andie;
 
-import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.image.*;
+import java.io.*;
 
 /**
  * <p>
@@ -18,26 +18,91 @@ import java.awt.image.BufferedImage;
  */
 public class Crop implements ImageOperation, java.io.Serializable {
 
-    private int startX;
-    private int startY;
-    private int endX;
-    private int endY;
+    /** The serialization version from before the crop region was normalised. */
+    private static final long serialVersionUID = -4402938823992175691L;
+
+    /**
+     * The fields saved in .ops files. These are the corners as they were given,
+     * as older files have them, rather than the edges.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("startX", int.class), new ObjectStreamField("startY", int.class),
+            new ObjectStreamField("endX", int.class), new ObjectStreamField("endY", int.class) };
+
+    /** The left edge of the crop region, inclusive. */
+    private int left;
+    /** The top edge of the crop region, inclusive. */
+    private int top;
+    /** The right edge of the crop region, exclusive. */
+    private int right;
+    /** The bottom edge of the crop region, exclusive. */
+    private int bottom;
 
     /**
      * <p>
      * Create a new crop operation.
      * </p>
      * 
+     * <p>
+     * The start and end points may be given in either order, so a region dragged
+     * from right to left or bottom to top crops the same area.
+     * </p>
+     * 
      * @param startX Starting pixel for the crop on the x axis
      * @param startY Starting pixel for the crop on the y axis
      * @param endX   Ending pixel for the crop on the x axis
      * @param endY   Ending pixel for the crop on the y axis
      */
     Crop(int startX, int startY, int endX, int endY) {
-        this.startX = startX;
-        this.startY = startY;
-        this.endX = endX;
-        this.endY = endY;
+        setCorners(startX, startY, endX, endY);
+    }
+
+    /**
+     * <p>
+     * Set the crop region from two opposite corners, in either order.
+     * </p>
+     * 
+     * @param startX Starting pixel for the crop on the x axis
+     * @param startY Starting pixel for the crop on the y axis
+     * @param endX   Ending pixel for the crop on the x axis
+     * @param endY   Ending pixel for the crop on the y axis
+     */
+    private void setCorners(int startX, int startY, int endX, int endY) {
+        this.left = Math.min(startX, endX);
+        this.top = Math.min(startY, endY);
+        this.right = Math.max(startX, endX);
+        this.bottom = Math.max(startY, endY);
+    }
+
+    /**
+     * <p>
+     * Save the crop region as its corners.
+     * </p>
+     * 
+     * @param out The stream to save to.
+     * @throws IOException If the stream cannot be written.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("startX", left);
+        fields.put("startY", top);
+        fields.put("endX", right);
+        fields.put("endY", bottom);
+        out.writeFields();
+    }
+
+    /**
+     * <p>
+     * Load a crop region saved as its corners, which may be in either order.
+     * </p>
+     * 
+     * @param in The stream to load from.
+     * @throws IOException            If the stream cannot be read.
+     * @throws ClassNotFoundException If a saved class cannot be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        setCorners(fields.get("startX", 0), fields.get("startY", 0), fields.get("endX", 0), fields.get("endY", 0));
     }
 
     /**
@@ -46,27 +111,44 @@ public class Crop implements ImageOperation, java.io.Serializable {
      * </p>
      * 
      * <p>
-     * The crop takes a starting point and ending point on an image and returns a
-     * subimage corresponding to that start and end point.
+     * The crop region is clamped to the bounds of the image. If nothing of the
+     * region lies within the image the input is returned unchanged. The operation
+     * does not modify its own parameters, so applying it again to the same image
+     * always gives the same result.
+     * </p>
+     * 
+     * <p>
+     * When the crop keeps most of the image, the result is a view that shares its
+     * pixel data with the input rather than a copy. This is safe because the
+     * operation history is always replayed from a fresh copy of the original
+     * image, so the input to a crop is never kept elsewhere. Small crops are
+     * copied, so that the whole of a large input is not kept in memory just to
+     * hold a small part of it.
      * </p>
      * 
      * @param input The image to be cropped.
      * @return The resulting cropped subimage.
      */
     public BufferedImage apply(BufferedImage input) {
-        endX = Math.min(endX, input.getWidth());
-        endY = Math.min(endY, input.getHeight());
-        startX = Math.min(startX, input.getWidth());
-        startY = Math.min(startY, input.getHeight());
-        int croppedWidth = Math.abs(endX - startX);
-        int croppedHeight = Math.abs(endY - startY);
-        startX = Math.min(startX, endX);
-        startY = Math.min(startY, endY);
-        Image croppedImage = input.getSubimage(startX, startY, croppedWidth, croppedHeight);
-        BufferedImage output = new BufferedImage(croppedWidth, croppedHeight, input.getType());
-        Graphics2D g2d = output.createGraphics();
-        g2d.drawImage(croppedImage, 0, 0, null);
-        g2d.dispose();
-        return output;
+        int x0 = Math.max(0, Math.min(left, input.getWidth()));
+        int y0 = Math.max(0, Math.min(top, input.getHeight()));
+        int x1 = Math.max(0, Math.min(right, input.getWidth()));
+        int y1 = Math.max(0, Math.min(bottom, input.getHeight()));
+        int croppedWidth = x1 - x0;
+        int croppedHeight = y1 - y0;
+        if (croppedWidth == 0 || croppedHeight == 0) {
+            return input;
+        }
+
+        BufferedImage view = input.getSubimage(x0, y0, croppedWidth, croppedHeight);
+        long croppedArea = (long) croppedWidth * croppedHeight;
+        long inputArea = (long) input.getWidth() * input.getHeight();
+        if (croppedArea * 4 >= inputArea) {
+            return view;
+        }
+
+        WritableRaster raster = view.getRaster().createCompatibleWritableRaster();
+        raster.setRect(view.getRaster());
+        return new BufferedImage(input.getColorModel(), raster, input.isAlphaPremultiplied(), null);
     }
 }
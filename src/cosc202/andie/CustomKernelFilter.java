@@ -0,0 +1,148 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+/**
+ * <p>
+ * ImageOperation to apply a convolution kernel supplied by the user.
+ * </p>
+ *
+ * <p>
+ * The kernel can be any odd width and height. Small kernels are applied
+ * directly and large ones with an FFT, see {@link Convolution}. Pixels beyond
+ * the edge of the image are treated as copies of the nearest edge pixel, and
+ * alpha is left unchanged.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see Convolution
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class CustomKernelFilter implements ImageOperation, java.io.Serializable {
+
+    /**
+     * The serialization version the filter was added with, kept so custom kernels
+     * saved before it could be limited to a selection still load.
+     */
+    private static final long serialVersionUID = 3138106970135581671L;
+
+    /** The kernel values, in rows of {@link width}. */
+    private float[] kernel;
+    /** The width of the kernel. */
+    private int width;
+    /** The height of the kernel. */
+    private int height;
+
+    /**
+     * <p>
+     * Construct a custom kernel filter.
+     * </p>
+     *
+     * @param kernel    The kernel values, in rows of {@code width}.
+     * @param width     The width of the kernel, an odd number.
+     * @param height    The height of the kernel, an odd number.
+     * @param normalise True to scale the kernel so its values sum to one. A
+     *                  kernel that sums to zero, such as an edge detector, is
+     *                  left as it is.
+     * @throws IllegalArgumentException If the width or height is not odd and
+     *                                  positive, or does not match the number
+     *                                  of values, or a value is not finite.
+     */
+    CustomKernelFilter(float[] kernel, int width, int height, boolean normalise) {
+        if (width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0 || kernel.length != width * height) {
+            throw new IllegalArgumentException("Kernel must have an odd width and height");
+        }
+        for (float value : kernel) {
+            // NaN or infinity would spread to every pixel the kernel reaches
+            if (!Float.isFinite(value)) {
+                throw new IllegalArgumentException("Kernel values must be finite numbers");
+            }
+        }
+        this.kernel = kernel.clone();
+        this.width = width;
+        this.height = height;
+
+        if (normalise) {
+            double sum = 0;
+            for (float value : kernel) {
+                sum += value;
+            }
+            if (sum != 0) {
+                for (int i = 0; i < this.kernel.length; i++) {
+                    this.kernel[i] /= sum;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Create a custom kernel filter from text.
+     * </p>
+     *
+     * <p>
+     * Each line of the text is one row of the kernel, with values separated by
+     * spaces or commas. Blank lines are ignored. Every row must have the same
+     * number of values.
+     * </p>
+     *
+     * @param text      The kernel as text.
+     * @param normalise True to scale the kernel so its values sum to one.
+     * @return The filter.
+     * @throws IllegalArgumentException If the text is not a valid kernel.
+     */
+    static CustomKernelFilter parse(String text, boolean normalise) {
+        List<String[]> rows = new ArrayList<String[]>();
+        for (String line : text.split("\\R")) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                rows.add(line.split("[\\s,]+"));
+            }
+        }
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("Kernel is empty");
+        }
+
+        int width = rows.get(0).length;
+        float[] kernel = new float[width * rows.size()];
+        for (int y = 0; y < rows.size(); y++) {
+            String[] row = rows.get(y);
+            if (row.length != width) {
+                throw new IllegalArgumentException("Kernel rows must all be the same length");
+            }
+            for (int x = 0; x < width; x++) {
+                kernel[y * width + x] = Float.parseFloat(row[x]);
+            }
+        }
+        return new CustomKernelFilter(kernel, width, rows.size(), normalise);
+    }
+
+    /**
+     * <p>
+     * Apply the custom kernel to an image.
+     * </p>
+     *
+     * @param input The image to apply the kernel to.
+     * @return The resulting filtered image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        return Convolution.convolve(input, kernel, width, height);
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return Half the larger of the kernel's width and height.
+     */
+    public int getNeighbourhoodRadius() {
+        return Math.max(width, height) / 2;
+    }
+}
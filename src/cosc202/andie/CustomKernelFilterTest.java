@@ -0,0 +1,89 @@
+package cosc202.andie;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class CustomKernelFilterTest {
+
+    private static BufferedImage randomImage(int width, int height) {
+        Random random = new Random(width * height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static float[] randomKernel(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        float[] kernel = new float[width * height];
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] = random.nextFloat() - 0.3f;
+        }
+        return kernel;
+    }
+
+    // The FFT is worked in doubles and the direct sum in floats, so the two may
+    // round a channel differently, but never by more than one level
+    private static void assertSameAsDirect(int imageWidth, int imageHeight, int kernelWidth, int kernelHeight) {
+        BufferedImage image = randomImage(imageWidth, imageHeight);
+        float[] kernel = randomKernel(kernelWidth, kernelHeight);
+        Assertions.assertTrue(kernel.length > Convolution.FFT_THRESHOLD);
+
+        CustomKernelFilter filter = new CustomKernelFilter(kernel, kernelWidth, kernelHeight, true);
+        BufferedImage fft = filter.apply(image);
+        double sum = 0;
+        for (float value : kernel) {
+            sum += value;
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+        BufferedImage direct = Convolution.direct(image, kernel, kernelWidth, kernelHeight);
+
+        for (int y = 0; y < imageHeight; y++) {
+            for (int x = 0; x < imageWidth; x++) {
+                int a = fft.getRGB(x, y);
+                int b = direct.getRGB(x, y);
+                Assertions.assertEquals(a >>> 24, b >>> 24);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int difference = Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                    Assertions.assertTrue(difference <= 1, "Pixel " + x + "," + y + " differs by " + difference);
+                }
+            }
+        }
+    }
+
+    @Test
+    void fftMatchesDirectSquare() {
+        assertSameAsDirect(257, 131, 7, 7);
+    }
+
+    @Test
+    void fftMatchesDirectWide() {
+        assertSameAsDirect(200, 300, 15, 3);
+    }
+
+    @Test
+    void fftMatchesDirectTall() {
+        assertSameAsDirect(97, 61, 5, 21);
+    }
+
+    @Test
+    void rejectsNonFiniteValues() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> CustomKernelFilter.parse("0 0 0\n0 NaN 0\n0 0 0", false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> CustomKernelFilter.parse("Infinity 0 0\n0 1 0\n0 0 -Infinity", true));
+    }
+
+    @Test
+    void rejectsEvenSizes() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CustomKernelFilter.parse("1 1\n1 1", true));
+    }
+}
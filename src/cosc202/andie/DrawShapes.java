@@ -1,6 +1,7 @@
 package cosc202.andie;
 
 import java.awt.*;
+import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 
 /**
@@ -18,6 +19,12 @@ import java.awt.image.BufferedImage;
  */
 public class DrawShapes implements ImageOperation, java.io.Serializable {
 
+    /**
+     * The serialization version from before shapes reported the area they
+     * change. Their saved fields are the same, so older shapes still load.
+     */
+    private static final long serialVersionUID = 3635308800099067061L;
+
     private int startX;
     private int startY;
     private int endX;
@@ -70,33 +77,77 @@ public class DrawShapes implements ImageOperation, java.io.Serializable {
         g2d.setStroke(strokeSize);
         int width = Math.abs(endX - startX);
         int height = Math.abs(endY - startY);
-        int startXOriginal = startX;
-        int startYOriginal = startY;
-        startX = Math.min(startX, endX);
-        startY = Math.min(startY, endY);
+        // Locals rather than fields, so the same operation can draw on several
+        // images at once
+        int x = Math.min(startX, endX);
+        int y = Math.min(startY, endY);
 
         switch (shape) {
             case "filledRectangle":
-                g2d.fillRect(startX, startY, width, height);
+                g2d.fillRect(x, y, width, height);
                 break;
             case "filledOval":
-                g2d.fillOval(startX, startY, width, height);
+                g2d.fillOval(x, y, width, height);
                 break;
             case "Line":
-                g2d.drawLine(startXOriginal, startYOriginal, endX, endY);
+                g2d.drawLine(startX, startY, endX, endY);
                 break;
             case "Rectangle":
-                g2d.drawRect(startX, startY, width, height);
+                g2d.drawRect(x, y, width, height);
                 break;
             case "Oval":
-                g2d.drawOval(startX, startY, width, height);
+                g2d.drawOval(x, y, width, height);
                 break;
         }
 
         g2d.dispose();
 
-        startX = startXOriginal;
-        startY = startYOriginal;
         return input;
     }
+
+    /**
+     * <p>
+     * Get the part of an image the shape covers.
+     * </p>
+     * 
+     * <p>
+     * Outlines are widened by the stroke, including the corners of a
+     * rectangle, which stick out further than the sides.
+     * </p>
+     * 
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The bounds of the shape, clipped to the image.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        int x = Math.min(startX, endX);
+        int y = Math.min(startY, endY);
+        int shapeWidth = Math.abs(endX - startX);
+        int shapeHeight = Math.abs(endY - startY);
+
+        Shape drawn;
+        switch (shape) {
+            case "filledRectangle":
+            case "filledOval":
+                drawn = new Rectangle(x, y, shapeWidth, shapeHeight);
+                break;
+            case "Line":
+                drawn = strokeSize.createStrokedShape(new Line2D.Float(startX, startY, endX, endY));
+                break;
+            case "Rectangle":
+                drawn = strokeSize.createStrokedShape(new Rectangle(x, y, shapeWidth, shapeHeight));
+                break;
+            case "Oval":
+                drawn = strokeSize.createStrokedShape(new Ellipse2D.Float(x, y, shapeWidth, shapeHeight));
+                break;
+            default:
+                // Nothing is drawn
+                return new Rectangle();
+        }
+
+        Rectangle region = drawn.getBounds();
+        // Allow for the stroke being moved to the nearest pixel
+        region.grow(1, 1);
+        return region.intersection(new Rectangle(0, 0, width, height));
+    }
 }
@@ -1,6 +1,7 @@
 package cosc202.andie;
 
 import java.util.*;
+import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 
@@ -43,6 +44,12 @@ public class EditActions {
                 Integer.valueOf(KeyEvent.VK_Z)));
         actions.add(new RedoAction(bundle.getString("redo"), null, bundle.getString("redo"),
                 Integer.valueOf(KeyEvent.VK_Y)));
+        actions.add(new SelectAction(bundle.getString("select"), null, bundle.getString("selectMessage"),
+                Integer.valueOf(KeyEvent.VK_L)));
+        actions.add(new ClearSelectionAction(bundle.getString("clearSelection"), null,
+                bundle.getString("clearSelection"), Integer.valueOf(KeyEvent.VK_A)));
+        actions.add(new HighPrecisionAction(bundle.getString("highPrecision"), null,
+                bundle.getString("highPrecisionMessage"), Integer.valueOf(KeyEvent.VK_H)));
     }
 
     /**
@@ -56,7 +63,17 @@ public class EditActions {
         JMenu editMenu = new JMenu(bundle.getString("edit"));
 
         for (Action action : actions) {
-            JMenuItem item = Tools.createMenuItem(action, false, false);
+            JMenuItem item;
+            if (action instanceof HighPrecisionAction) {
+                // A tick shows whether the mode is on
+                item = new JCheckBoxMenuItem(action);
+                item.setSelected(EditableImage.isHighPrecision());
+                editMenu.addSeparator();
+            } else if (action instanceof ClearSelectionAction) {
+                item = Tools.createMenuItem(action, true, false);
+            } else {
+                item = Tools.createMenuItem(action, false, false);
+            }
             editMenu.add(item);
         }
 
@@ -146,4 +163,213 @@ public class EditActions {
             target.getParent().revalidate();
         }
     }
+
+    /**
+     * <p>
+     * Action to select a rectangular area of the image.
+     * </p>
+     * 
+     * <p>
+     * Filters, colour changes and emboss effects applied while an area is
+     * selected only change that area.
+     * </p>
+     * 
+     * @see ImagePanel#setSelection(Rectangle)
+     * @see RegionOperation
+     */
+    public class SelectAction extends ImageAction {
+
+        static int startX = 0;
+        static int startY = 0;
+        static boolean isSelecting = false;
+        static MouseListener mouseListener;
+        static MouseMotionListener mouseMotionListener;
+
+        /**
+         * <p>
+         * Create a new select action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        SelectAction(String name, ImageIcon icon, String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the select action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the SelectAction is triggered.
+         * The user drags out the area to select. Pressing escape clears the
+         * selection instead.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            if (isSelecting || !target.getImage().hasImage()) {
+                return;
+            }
+            isSelecting = true;
+            double scale = target.getZoom() / 100;
+
+            target.setCursor(new Cursor(Cursor.CROSSHAIR_CURSOR));
+            mouseListener = new MouseAdapter() {
+                public void mousePressed(MouseEvent e) {
+                    startX = (int) (e.getX() / scale);
+                    startY = (int) (e.getY() / scale);
+                    target.setSelection(null);
+                }
+
+                public void mouseReleased(MouseEvent e) {
+                    select(e, scale);
+                    stopSelecting();
+                }
+            };
+
+            target.addMouseListener(mouseListener);
+
+            mouseMotionListener = new MouseMotionAdapter() {
+                public void mouseDragged(MouseEvent e) {
+                    select(e, scale);
+                }
+            };
+
+            target.addMouseMotionListener(mouseMotionListener);
+
+            Action keyAction = new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    target.setSelection(null);
+                    stopSelecting();
+                }
+            };
+            KeyStroke keyStroke = KeyStroke.getKeyStroke("ESCAPE");
+            Andie.imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(keyStroke, "keyAction");
+            Andie.imagePanel.getActionMap().put("keyAction", keyAction);
+        }
+
+        /**
+         * <p>
+         * Select the area between where the drag started and the mouse.
+         * </p>
+         * 
+         * @param e     The mouse event.
+         * @param scale The zoom level as a multiplier.
+         */
+        private static void select(MouseEvent e, double scale) {
+            int x = (int) (e.getX() / scale);
+            int y = (int) (e.getY() / scale);
+            Rectangle selection = new Rectangle(Math.min(startX, x), Math.min(startY, y),
+                    Math.abs(x - startX), Math.abs(y - startY));
+            target.setSelection(selection.isEmpty() ? null : selection);
+            target.repaint();
+        }
+
+        /**
+         * <p>
+         * Stop listening for the mouse and go back to normal.
+         * </p>
+         */
+        public static void stopSelecting() {
+            target.repaint();
+            target.removeMouseListener(mouseListener);
+            target.removeMouseMotionListener(mouseMotionListener);
+            target.setCursor(Cursor.getDefaultCursor());
+            isSelecting = false;
+        }
+    }
+
+    /**
+     * <p>
+     * Action to clear the selection, so that operations change the whole image
+     * again.
+     * </p>
+     * 
+     * @see ImagePanel#setSelection(Rectangle)
+     */
+    public class ClearSelectionAction extends ImageAction {
+
+        /**
+         * <p>
+         * Create a new clear selection action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        ClearSelectionAction(String name, ImageIcon icon, String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the clear selection action is triggered.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            target.setSelection(null);
+            target.repaint();
+        }
+    }
+
+    /**
+     * <p>
+     * Action to turn high precision mode on or off.
+     * </p>
+     * 
+     * <p>
+     * In high precision mode images are worked on at 16 bits per channel, so
+     * applying several filters in a row does not band smooth gradients.
+     * </p>
+     * 
+     * @see EditableImage#setHighPrecision(boolean)
+     */
+    public class HighPrecisionAction extends ImageAction {
+
+        /**
+         * <p>
+         * Create a new high precision action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        HighPrecisionAction(String name, ImageIcon icon, String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the high precision action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the HighPrecisionAction is triggered.
+         * It switches the mode and works out the image again in the new one.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            try {
+                target.getImage().setHighPrecision(!EditableImage.isHighPrecision());
+            } catch (Exception ex) {
+                Tools.errorMessage(ex, "fileApplyError");
+            }
+            target.repaint();
+        }
+    }
 }
@@ -1,9 +1,12 @@
 package cosc202.andie;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.io.*;
 import java.awt.Cursor;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.nio.file.*;
 import javax.imageio.*;
 
 import javax.swing.*;
@@ -24,6 +27,13 @@ import javax.swing.*;
  * </p>
  * 
  * <p>
+ * Images are converted to packed ARGB integers ({@code TYPE_INT_ARGB}) when
+ * they are opened, whatever format the file decodes to, so every operation
+ * works on the same pixel format. They are only converted to another format
+ * when exported, if the file type needs it.
+ * </p>
+ * 
+ * <p>
  * Internally the EditableImage has two {@link BufferedImage}s - the original
  * image
  * and the result of applying the current set of operations to it.
@@ -42,20 +52,93 @@ import javax.swing.*;
  */
 class EditableImage {
 
+    /** The most changes to remember in {@link recentChanges}. */
+    private static final int MAX_RECENT_CHANGES = 64;
+
+    /**
+     * A change that affected only part of the current image.
+     */
+    private static class Change {
+        /** The revision before the change. */
+        final long previous;
+        /** The area that changed. */
+        final Rectangle region;
+
+        Change(long previous, Rectangle region) {
+            this.previous = previous;
+            this.region = region;
+        }
+    }
+
     /** The original image. This should never be altered by ANDIE. */
     private BufferedImage original;
     /**
      * The current image, the result of applying {@link ops} to {@link original}.
      */
     private BufferedImage current;
+    /**
+     * The original image at 16 bits per channel, kept if it was decoded with
+     * more than 8, otherwise built from {@link original} when it is needed.
+     */
+    private HighPrecisionImage preciseOriginal;
+    /**
+     * The current image at 16 bits per channel in high precision mode, or null.
+     * {@link current} is this rounded to 8 bits.
+     */
+    private HighPrecisionImage precise;
+    /** Whether images are worked on at 16 bits per channel. */
+    private static boolean highPrecision = false;
     /** The sequence of operations currently applied to the image. */
     private Stack<ImageOperation> ops;
     /** A memory of 'undone' operations to support 'redo'. */
     private Stack<ImageOperation> redoOps;
+    /**
+     * The pixels operations in {@link ops} changed, from before they were
+     * applied, so that they can be undone without a {@link refresh}.
+     */
+    private PatchCache patches;
+    /** The number of changes made to any image, so each one has its own {@link revision}. */
+    private static long changes = 0;
+    /**
+     * Identifies the contents of {@link current}. This changes whenever it does,
+     * including when an operation draws on it in place.
+     */
+    private long revision;
+    /**
+     * The most recent changes that affected only part of {@link current}, oldest
+     * first, back to the last change that may have affected all of it.
+     */
+    private ArrayDeque<Change> recentChanges;
+    /**
+     * Copies of {@link current} halved in size again and again, built as they are
+     * needed. Element {@code k} is level {@code k + 1} of the pyramid.
+     */
+    private ArrayList<BufferedImage> mipmaps;
+    /** The {@link revision} that {@link mipmaps} were built from. */
+    private long mipmapRevision;
+    /**
+     * Whether {@link mipmaps} are shared with a copy of this image, so must not
+     * be changed in place.
+     */
+    private boolean mipmapsShared;
     /** The file where the original image is stored/ */
     private String imageFilename;
     /** The file where the operation sequence is stored. */
     private String opsFilename;
+    /** The file the original image was opened from. */
+    private String sourceFilename;
+    /**
+     * The {@link BufferedImage} type the original image was decoded as, before it
+     * was converted to the working format.
+     */
+    private int sourceType = BufferedImage.TYPE_INT_ARGB;
+    /**
+     * Every frame of the original image if it is an animated GIF, or null. The
+     * first frame is {@link original}.
+     */
+    private AnimatedGif animation;
+    /** The {@link ProjectFile} the image was opened from or saved to, or null. */
+    private String projectFilename;
     /** ResourceBundle for multilingual support */
     ResourceBundle bundle = ResourceBundle.getBundle("cosc202.andie.LanguageResources.LanguageBundle");
     /** String to store the extension of the image file, e.g. jpg, png, gif */
@@ -75,6 +158,8 @@ class EditableImage {
     private static JLabel recordLabel;
     /** The last performed operation */
     private static ImageOperation lastOp;
+    /** The result of {@link tempApplyProgressive} still being worked out, if any. */
+    private static ProgressiveRender progressive;
     /** Boolean to check if an apply is because of the redo operation */
     Boolean redo = false;
 
@@ -93,6 +178,9 @@ class EditableImage {
         current = null;
         ops = new Stack<ImageOperation>();
         redoOps = new Stack<ImageOperation>();
+        patches = new PatchCache(PatchCache.DEFAULT_BUDGET);
+        mipmaps = new ArrayList<BufferedImage>();
+        recentChanges = new ArrayDeque<Change>();
         imageFilename = null;
         opsFilename = null;
     }
@@ -102,6 +190,19 @@ class EditableImage {
      * Creates a copy of an EditableImage object.
      * </p>
      * 
+     * <p>
+     * Copies are used to preview operations. The copy has its own
+     * {@link PatchCache}, starting with the same patches, so a preview that is
+     * thrown away takes the patch it saved with it instead of leaving it in the
+     * original's cache.
+     * </p>
+     * 
+     * <p>
+     * The copy starts with the original's {@link mipmaps}, so a preview can use
+     * them for its rough version without building them again from the full
+     * image. Neither image changes the shared levels in place.
+     * </p>
+     * 
      * @param image The original input image.
      * @return The copy of the input image.
      */
@@ -109,10 +210,22 @@ class EditableImage {
         EditableImage imageCopy = new EditableImage();
         imageCopy.original = image.original;
         imageCopy.current = image.current;
+        imageCopy.preciseOriginal = image.preciseOriginal;
+        imageCopy.precise = image.precise;
         imageCopy.imageFilename = image.imageFilename;
         imageCopy.opsFilename = image.opsFilename;
+        imageCopy.sourceFilename = image.sourceFilename;
+        imageCopy.sourceType = image.sourceType;
+        imageCopy.animation = image.animation;
+        imageCopy.projectFilename = image.projectFilename;
         imageCopy.ops = image.ops;
         imageCopy.redoOps = image.redoOps;
+        imageCopy.patches = new PatchCache(image.patches);
+        imageCopy.revision = image.revision;
+        imageCopy.mipmaps = new ArrayList<BufferedImage>(image.mipmaps);
+        imageCopy.mipmapRevision = image.mipmapRevision;
+        imageCopy.mipmapsShared = true;
+        image.mipmapsShared = true;
 
         return imageCopy;
     }
@@ -191,15 +304,40 @@ class EditableImage {
      * read the operations from <code>some/path/to/image.png.ops</code>.
      * </p>
      * 
+     * <p>
+     * The image is converted to the {@code TYPE_INT_ARGB} working format.
+     * </p>
+     * 
+     * <p>
+     * A <code>.andie</code> file is opened as a {@link ProjectFile} instead.
+     * </p>
+     * 
      * @param filePath The file to open the image from.
      * @throws Exception If something goes wrong.
      */
     public void open(String filePath) throws Exception {
+        if (ProjectFile.isProject(filePath)) {
+            openProject(filePath);
+            return;
+        }
         imageFilename = filePath;
         opsFilename = imageFilename + ".ops";
+        projectFilename = null;
         File imageFile = new File(imageFilename);
 
-        original = ImageIO.read(imageFile);
+        BufferedImage decoded = PnmFile.isPnm(imageFilename) ? PnmFile.read(imageFile) : ImageIO.read(imageFile);
+        if (decoded == null) {
+            throw new IOException("No image reader for " + imageFilename);
+        }
+        sourceFilename = imageFilename;
+        sourceType = decoded.getType();
+        animation = AnimatedGif.read(imageFile);
+        // The frames of an animation may be smaller than the whole picture
+        original = animation == null ? ImagePixels.toArgb(decoded) : animation.getFrame(0);
+        preciseOriginal = animation == null && HighPrecisionImage.isHighPrecision(decoded)
+                ? HighPrecisionImage.fromImage(decoded)
+                : null;
+        precise = null;
         current = deepCopy(original);
 
         try {
@@ -217,15 +355,55 @@ class EditableImage {
             Stack<ImageOperation> opsFromFile = (Stack<ImageOperation>) objIn.readObject();
             ops = opsFromFile;
             redoOps.clear();
+            patches.clear();
             objIn.close();
             fileIn.close();
-        } catch (Exception ex) {
+        } catch (FileNotFoundException ex) {
             // do nothing, image just has no .ops file
+        } catch (Exception ex) {
+            // Open the image without its history, but say so rather than losing it quietly
+            Tools.errorMessage(ex, "opsOpenError");
         }
-        this.refresh();
+        this.refreshFromCache();
         extension = Andie.imageFilepath.substring(1 + Andie.imageFilepath.lastIndexOf(".")).toLowerCase();
     }
 
+    /**
+     * <p>
+     * Open a {@link ProjectFile}.
+     * </p>
+     * 
+     * <p>
+     * The original image, its operations and their result are all read from the
+     * project, so nothing needs to be decoded or applied. Saving the image
+     * afterwards saves the project again.
+     * </p>
+     * 
+     * @param filePath The project file.
+     * @throws IOException If the project cannot be read.
+     */
+    private void openProject(String filePath) throws IOException {
+        ProjectFile project = ProjectFile.read(new File(filePath));
+        imageFilename = filePath;
+        opsFilename = null;
+        projectFilename = filePath;
+        sourceFilename = null;
+        sourceType = project.getSourceType();
+        animation = null;
+        extension = project.getFormat();
+        original = project.getOriginal();
+        preciseOriginal = null;
+        ops = project.getOps();
+        redoOps.clear();
+        patches.clear();
+        if (project.getRender() != null && !highPrecision) {
+            current = project.getRender();
+            changed();
+        } else {
+            refresh();
+        }
+    }
+
     /**
      * <p>
      * Save an image to file.
@@ -240,21 +418,36 @@ class EditableImage {
      * the current operations to <code>some/path/to/image.png.ops</code>.
      * </p>
      * 
+     * <p>
+     * Since the original image is never altered, its file is copied byte for byte
+     * rather than encoded again, and is not written at all when saving over it.
+     * </p>
+     * 
+     * <p>
+     * An image opened from or saved to a {@link ProjectFile} is saved to that
+     * project instead.
+     * </p>
+     * 
      * @throws Exception If something goes wrong.
      */
     public void save() throws Exception {
+        if (projectFilename != null && !saveAs) {
+            saveProject(projectFilename);
+            return;
+        }
         try {
             if (this.opsFilename == null) {
                 this.opsFilename = Andie.imageFilepath + ".ops";
             }
             // Write image file based on file extension
-            ImageIO.write(original, extension, new File(imageFilename + (saveAs ? ("." + extension) : "")));
+            writeOriginal(new File(imageFilename + (saveAs ? ("." + extension) : "")));
             // Write operations file
             FileOutputStream fileOut = new FileOutputStream(this.opsFilename);
             ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
             objOut.writeObject(ops);
             objOut.close();
             fileOut.close();
+            cacheCurrent();
             Andie.saved = true;
         } catch (NullPointerException e) {
             Tools.errorMessage(e, "fileUnopenedError");
@@ -272,7 +465,8 @@ class EditableImage {
      * <p>
      * Exports an image to the file location of the user's choosing. This method
      * will save the file to the same file type as the extension inputted by the
-     * user when exporting the file.
+     * user when exporting the file. The image is written in the background, with
+     * a progress bar, so this returns straight away.
      * </p>
      * 
      * @param imageFilename The file location to export the image to.
@@ -281,7 +475,7 @@ class EditableImage {
      */
     public void exportImage(String imageFilename, String extension) throws Exception {
         try {
-            ImageIO.write(current, extension, new File(imageFilename));
+            export(extension, new File(imageFilename)).start(Andie.frame);
         } catch (NullPointerException e) {
             Tools.errorMessage(e, "fileUnopenedError");
         } catch (Exception e) {
@@ -296,7 +490,9 @@ class EditableImage {
      * 
      * <p>
      * Exports an image to the file location of the user's choosing. This method
-     * will save the file to the same file type as the original image.
+     * will save the file to the same file type as the original image. The image
+     * is written in the background, with a progress bar, so this returns
+     * straight away.
      * </p>
      * 
      * @param imageFilename The file location to export the image to.
@@ -304,7 +500,7 @@ class EditableImage {
      */
     public void exportImage(String imageFilename) throws Exception {
         try {
-            ImageIO.write(current, this.extension, new File(imageFilename + "." + this.extension));
+            export(this.extension, new File(imageFilename + "." + this.extension)).start(Andie.frame);
         } catch (NullPointerException e) {
             Tools.errorMessage(e, "fileUnopenedError");
         } catch (Exception e) {
@@ -312,6 +508,55 @@ class EditableImage {
         }
     }
 
+    /**
+     * <p>
+     * Prepare to write a copy of the current image to a file.
+     * </p>
+     * 
+     * <p>
+     * The image is copied as it is now, so it can be written on another thread
+     * while it carries on being edited.
+     * </p>
+     * 
+     * @param format The informal name of the file format, e.g. png or gif.
+     * @param file   The file to write to.
+     * @return The export, not yet started.
+     */
+    ImageExport export(String format, File file) {
+        BufferedImage snapshot = new BufferedImage(current.getWidth(), current.getHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(snapshot, ImagePixels.getPixels(current));
+        return new ImageExport(format, file, snapshot, precise == null ? null : precise.copy(), animation, ops,
+                sourceType);
+    }
+
+    /**
+     * <p>
+     * Write the original image to a file.
+     * </p>
+     * 
+     * <p>
+     * The file it was opened from is copied if it still exists, otherwise the
+     * image is encoded again.
+     * </p>
+     * 
+     * @param file The file to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeOriginal(File file) throws IOException {
+        Path source = sourceFilename == null ? null : Paths.get(sourceFilename);
+        if (source == null || !Files.exists(source)) {
+            if (animation != null && extension.equals("gif")) {
+                animation.write(file, original, Collections.<ImageOperation>emptyList());
+            } else {
+                ImageExport.writeImage(original, extension, file, sourceType, percent -> {
+                });
+            }
+        } else if (!file.exists() || !Files.isSameFile(source, file.toPath())) {
+            Files.copy(source, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /**
      * <p>
      * Save an image's operations to a speficied file.
@@ -329,10 +574,38 @@ class EditableImage {
     public void saveAs(String imageFilename) throws Exception {
         this.imageFilename = imageFilename;
         this.opsFilename = imageFilename + "." + extension + ".ops";
+        this.projectFilename = null;
         saveAs = true;
         save();
     }
 
+    /**
+     * <p>
+     * Save the image, its operations and their result as a {@link ProjectFile}.
+     * </p>
+     * 
+     * <p>
+     * Saving the image afterwards saves the project again, rather than the image
+     * and a <code>.ops</code> file.
+     * </p>
+     * 
+     * @param filename The file to save the project to.
+     * @throws Exception If something goes wrong.
+     */
+    public void saveProject(String filename) throws Exception {
+        try {
+            new ProjectFile(original, ops.isEmpty() ? null : current, ops, extension, sourceType)
+                    .write(new File(filename));
+            this.projectFilename = filename;
+            this.imageFilename = filename;
+            Andie.saved = true;
+        } catch (NullPointerException e) {
+            Tools.errorMessage(e, "fileUnopenedError");
+        } catch (Exception e) {
+            Tools.errorMessage(e, "fileSaveError");
+        }
+    }
+
     /**
      * <p>
      * Apply an {@link ImageOperation} to this image.
@@ -343,7 +616,7 @@ class EditableImage {
     public void apply(ImageOperation op) {
         try {
             Andie.frame.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-            current = op.apply(current);
+            applyToCurrent(op);
             ops.add(op);
             if (isMacroRecording) {
                 macro.add(op);
@@ -373,37 +646,422 @@ class EditableImage {
      * @param op The operation to apply.
      */
     public void tempApply(ImageOperation op) {
+        cancelProgressive();
         Andie.frame.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-        current = op.apply(current);
+        applyToCurrent(op);
+        redoOps.clear();
+        lastOp = op;
+        Andie.frame.setCursor(Cursor.getDefaultCursor());
+    }
+
+    /**
+     * <p>
+     * Apply a temporary {@link ImageOperation} to this image, showing a rough
+     * result straight away and working out the full result in the background.
+     * </p>
+     * 
+     * <p>
+     * Like {@link tempApply}, the operation is not added to the stack. The
+     * current image becomes a rough version of the result, worked out from a
+     * quarter size copy, and is then filled in with the full result a tile at a
+     * time by a {@link ProgressiveRender}. Anything that needs the full result,
+     * such as {@link addLastOp} or applying another operation, waits for it.
+     * Starting another preview stops this one.
+     * </p>
+     * 
+     * <p>
+     * Operations that do not report a neighbourhood radius, operations limited to
+     * a selection, small images and images in high precision mode are applied
+     * straight away with {@link tempApply} instead.
+     * </p>
+     * 
+     * @param op       The operation to apply.
+     * @param priority The area of the image to work out first, such as the part
+     *                 that can be seen, or null for none.
+     * @param onTile   Told about each area of the image once it has its full
+     *                 result, so that it can be repainted.
+     */
+    public void tempApplyProgressive(ImageOperation op, Rectangle priority, Consumer<Rectangle> onTile) {
+        if (op.getNeighbourhoodRadius() < 0 || op instanceof RegionOperation || precise != null
+                || (long) current.getWidth() * current.getHeight() <= ProgressiveRender.MIN_PIXELS) {
+            tempApply(op);
+            return;
+        }
+
+        cancelProgressive();
+        BufferedImage input = current;
+        BufferedImage rough = ProgressiveRender.proxy(op, input, getMipmap(ProgressiveRender.PROXY_LEVEL));
+        patches.remove(op);
+        current = rough;
+        changed();
         redoOps.clear();
         lastOp = op;
+
+        progressive = new ProgressiveRender(op, input, rough, priority, tile -> {
+            if (current == rough) {
+                regionChanged(tile);
+            }
+            onTile.accept(tile);
+        });
+        progressive.execute();
+    }
+
+    /**
+     * <p>
+     * Wait for the full result of {@link tempApplyProgressive}, if it is still
+     * being worked out for this image.
+     * </p>
+     * 
+     * <p>
+     * If the operation failed, the image goes back to how it was before it, and
+     * the error has been shown to the user.
+     * </p>
+     * 
+     * @return False if the operation failed, true if it finished or there was
+     *         nothing to wait for.
+     */
+    private boolean finishProgressive() {
+        if (progressive == null || progressive.getImage() != current) {
+            return true;
+        }
+        ProgressiveRender render = progressive;
+        progressive = null;
+        Andie.frame.setCursor(new Cursor(Cursor.WAIT_CURSOR));
+        boolean finished = render.finish();
+        if (!finished) {
+            current = render.getInput();
+            changed();
+        }
         Andie.frame.setCursor(Cursor.getDefaultCursor());
+        return finished;
+    }
+
+    /**
+     * <p>
+     * Stop working out the result of {@link tempApplyProgressive}, if it is
+     * still running, because it is no longer wanted.
+     * </p>
+     * 
+     * <p>
+     * The image it was filling in keeps whatever it has so far, so it should be
+     * thrown away.
+     * </p>
+     */
+    public static void cancelProgressive() {
+        if (progressive != null) {
+            progressive.cancel(false);
+            progressive = null;
+        }
     }
 
     /**
      * Adds the last performed {@link ImageOperation} to the ops stack. This is used
      * to make a temporary apply into a permanent one without reapplying the whole
      * operation.
+     * 
+     * <p>
+     * If the operation was being worked out by {@link tempApplyProgressive} and
+     * failed, the image has gone back to how it was, so the operation is not
+     * added. The user is shown the error by {@link ProgressiveRender#finish()}
+     * when the failure is first found, so it is not shown twice.
+     * </p>
      */
     public void addLastOp() {
+        if (!finishProgressive()) {
+            return;
+        }
         ops.add(lastOp);
     }
 
+    /**
+     * <p>
+     * Apply an {@link ImageOperation} to {@link current}, first keeping a copy of
+     * the area it changes if it reports one.
+     * </p>
+     * 
+     * <p>
+     * If the operation reports the area it changes, only that area of the
+     * {@link mipmaps} is updated, rather than building them all again.
+     * </p>
+     * 
+     * <p>
+     * In high precision mode no copy is kept, as it would only be 8 bits.
+     * </p>
+     * 
+     * @param op The operation to apply.
+     */
+    private void applyToCurrent(ImageOperation op) {
+        finishProgressive();
+        Rectangle region = op.getAffectedRegion(current.getWidth(), current.getHeight());
+        if (region != null && precise == null) {
+            patches.save(op, current, region);
+        } else {
+            patches.remove(op);
+        }
+        int width = current.getWidth();
+        int height = current.getHeight();
+        if (precise != null) {
+            applyPrecisely(op, region);
+        } else {
+            current = op.apply(current);
+        }
+        if (region != null && current.getWidth() == width && current.getHeight() == height) {
+            regionChanged(region);
+        } else {
+            changed();
+        }
+    }
+
+    /**
+     * <p>
+     * Apply an {@link ImageOperation} to {@link precise} and update
+     * {@link current} to match.
+     * </p>
+     * 
+     * <p>
+     * A {@link HighPrecisionOperation} is applied to the 16 bit image. Any other
+     * operation is applied to the 8 bit image and its result copied back, only
+     * in the area it changes if it reports one.
+     * </p>
+     * 
+     * @param op     The operation to apply.
+     * @param region The area the operation changes, or null if it may be all of
+     *               it.
+     */
+    private void applyPrecisely(ImageOperation op, Rectangle region) {
+        if (op instanceof HighPrecisionOperation && ((HighPrecisionOperation) op).hasHighPrecision()) {
+            precise = ((HighPrecisionOperation) op).apply(precise);
+            current = precise.toArgb();
+            return;
+        }
+        int width = current.getWidth();
+        int height = current.getHeight();
+        current = op.apply(current);
+        if (region != null && current.getWidth() == width && current.getHeight() == height) {
+            // A copy, as the 16 bit image may be shared with a preview
+            precise = precise.copy();
+            precise.setArea(current, region);
+        } else {
+            precise = HighPrecisionImage.fromArgb(current);
+        }
+    }
+
+    /**
+     * <p>
+     * Check whether images are worked on at 16 bits per channel.
+     * </p>
+     * 
+     * @return True in high precision mode.
+     */
+    static boolean isHighPrecision() {
+        return highPrecision;
+    }
+
+    /**
+     * <p>
+     * Turn high precision mode on or off, and apply the operations to this image
+     * again in the new mode.
+     * </p>
+     * 
+     * <p>
+     * In high precision mode the image is worked on at 16 bits per channel as a
+     * {@link HighPrecisionImage}, and only rounded to 8 bits to be shown or
+     * exported to a format that cannot hold 16. 16 bit images keep their full
+     * precision from when they are opened. It takes four times the memory of
+     * 8 bits for the original and current images.
+     * </p>
+     * 
+     * @param on True to turn high precision mode on.
+     */
+    public void setHighPrecision(boolean on) {
+        highPrecision = on;
+        if (hasImage()) {
+            finishProgressive();
+            Andie.frame.setCursor(new Cursor(Cursor.WAIT_CURSOR));
+            refresh();
+            Andie.frame.setCursor(Cursor.getDefaultCursor());
+        }
+    }
+
+    /**
+     * <p>
+     * Give {@link current} a new {@link revision} after part of it has changed,
+     * and update that part of the {@link mipmaps}.
+     * </p>
+     * 
+     * @param region The area that changed.
+     */
+    private void regionChanged(Rectangle region) {
+        boolean updateMipmaps = mipmapRevision == revision && !mipmaps.isEmpty() && !mipmapsShared;
+        changed(region);
+        if (updateMipmaps) {
+            BufferedImage larger = current;
+            for (BufferedImage mipmap : mipmaps) {
+                if (region.isEmpty()) {
+                    break;
+                }
+                // The pixels of the smaller level that the changed area touches
+                int x = region.x / 2;
+                int y = region.y / 2;
+                region = new Rectangle(x, y, (region.x + region.width + 1) / 2 - x,
+                        (region.y + region.height + 1) / 2 - y);
+                Resampler.halve(larger, mipmap, region);
+                larger = mipmap;
+            }
+            mipmapRevision = revision;
+        }
+    }
+
+    /**
+     * <p>
+     * Give {@link current} a new {@link revision} after it has changed.
+     * </p>
+     */
+    private void changed() {
+        changed(null);
+    }
+
+    /**
+     * <p>
+     * Give {@link current} a new {@link revision} after part of it has changed.
+     * </p>
+     * 
+     * @param region The area that changed, or null if it may be all of it.
+     */
+    private void changed(Rectangle region) {
+        long previous = revision;
+        revision = ++changes;
+        if (region == null) {
+            recentChanges.clear();
+            return;
+        }
+        recentChanges.addLast(new Change(previous, new Rectangle(region)));
+        if (recentChanges.size() > MAX_RECENT_CHANGES) {
+            recentChanges.removeFirst();
+        }
+    }
+
+    /**
+     * <p>
+     * Get the revision of the current image.
+     * </p>
+     * 
+     * <p>
+     * Two images with the same revision have the same contents, so anything
+     * worked out from the current image, such as a scaled copy for display, can
+     * be kept until the revision changes.
+     * </p>
+     * 
+     * @return A number that changes every time the current image does.
+     */
+    long getRevision() {
+        return revision;
+    }
+
+    /**
+     * <p>
+     * Get the area of the current image that changed since an earlier revision.
+     * </p>
+     * 
+     * <p>
+     * This is known when every change since then, such as each segment of a
+     * brush stroke, reported the area it affected. Something worked out from the
+     * earlier revision, such as a scaled copy for display, can then be brought up
+     * to date by working out just this area again.
+     * </p>
+     * 
+     * @param since The earlier revision.
+     * @return The area that changed, empty if nothing has, or null if it is not
+     *         known.
+     */
+    Rectangle getChangedRegion(long since) {
+        Rectangle region = new Rectangle();
+        if (since == revision) {
+            return region;
+        }
+        Iterator<Change> newest = recentChanges.descendingIterator();
+        while (newest.hasNext()) {
+            Change change = newest.next();
+            if (!change.region.isEmpty()) {
+                if (region.isEmpty()) {
+                    region.setBounds(change.region);
+                } else {
+                    region.add(change.region);
+                }
+            }
+            if (change.previous == since) {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Get a smaller copy of the current image from its mipmap pyramid.
+     * </p>
+     * 
+     * <p>
+     * Level 0 is the current image itself, and each level after it is half the
+     * size of the one before, averaging each 2x2 block of pixels. Drawing a
+     * zoomed out view from the nearest level is quicker than scaling the full
+     * image down and does not alias. Levels are built the first time they are
+     * asked for and thrown away when the current image changes.
+     * </p>
+     * 
+     * @param level The level to get, where the image is 2<sup>level</sup> times
+     *              smaller.
+     * @return The image at that level, or the smallest level if the image cannot
+     *         be halved that many times.
+     */
+    BufferedImage getMipmap(int level) {
+        if (mipmapRevision != revision) {
+            mipmaps.clear();
+            mipmapRevision = revision;
+            mipmapsShared = false;
+        }
+        while (mipmaps.size() < level) {
+            BufferedImage previous = mipmaps.isEmpty() ? current : mipmaps.get(mipmaps.size() - 1);
+            if (previous.getWidth() == 1 && previous.getHeight() == 1) {
+                break;
+            }
+            mipmaps.add(Resampler.halve(previous));
+        }
+        return level <= 0 || mipmaps.isEmpty() ? current : mipmaps.get(Math.min(level, mipmaps.size()) - 1);
+    }
+
     /**
      * <p>
      * Undo the last {@link ImageOperation} applied to the image.
      * </p>
+     * 
+     * <p>
+     * Operations that only changed part of the image, such as drawing, are undone
+     * by putting back a copy of that part from before they were applied. Otherwise
+     * the remaining operations are applied to the original again.
+     * </p>
      */
     public void undo() {
         try {
+            finishProgressive();
+            boolean restored = true;
             while (!ops.isEmpty()) {
                 ImageOperation op = ops.pop();
                 redoOps.push(op);
+                if (restored && precise == null) {
+                    restored = patches.restore(op, current);
+                } else {
+                    restored = false;
+                    patches.remove(op);
+                }
                 if (!(op instanceof FreeDraw)) {
                     break;
                 }
             }
-            refresh();
+            if (!restored) {
+                refresh();
+            }
+            changed();
             Andie.saved = false;
             if (isMacroRecording) {
                 macro.pop();
@@ -422,6 +1080,7 @@ class EditableImage {
      */
     public void redo() {
         try {
+            finishProgressive();
             redo = true;
             while (!redoOps.isEmpty()) {
                 ImageOperation op = redoOps.pop();
@@ -429,10 +1088,11 @@ class EditableImage {
                     apply(op);
                     break;
                 } else {
+                    applyToCurrent(op);
                     ops.push(op);
                 }
             }
-            refresh();
+            redo = false;
         } catch (EmptyStackException e) {
             System.out.println("Failed to redo or nothing to redo: " + e);
         } catch (Exception ex) {
@@ -467,9 +1127,93 @@ class EditableImage {
      * </p>
      */
     private void refresh() {
-        current = deepCopy(original);
-        for (ImageOperation op : ops) {
-            current = op.apply(current);
+        if (highPrecision) {
+            if (preciseOriginal == null) {
+                preciseOriginal = HighPrecisionImage.fromArgb(original);
+            }
+            precise = preciseOriginal;
+            current = precise.toArgb();
+            for (ImageOperation op : ops) {
+                applyPrecisely(op, op.getAffectedRegion(current.getWidth(), current.getHeight()));
+            }
+        } else {
+            precise = null;
+            current = deepCopy(original);
+            for (ImageOperation op : ops) {
+                current = op.apply(current);
+            }
+        }
+        changed();
+    }
+
+    /**
+     * <p>
+     * Reapply all current operations to the original, starting from a saved
+     * result in the {@link RenderCache} if there is one.
+     * </p>
+     * 
+     * <p>
+     * The result for the longest part of {@link ops} that is in the cache is read
+     * back, and only the operations after it are applied. If any were, the new
+     * result is saved to the cache so that next time none need to be. The cache
+     * is only there to save time, so if it cannot be used the operations are
+     * all applied as normal.
+     * </p>
+     */
+    private void refreshFromCache() {
+        if (highPrecision || ops.isEmpty()) {
+            // Only 8 bit results are cached, and with no operations there is
+            // nothing to look up, so the source file need not be hashed
+            refresh();
+            return;
+        }
+        RenderCache cache = RenderCache.getDefault();
+        List<String> keys;
+        try {
+            keys = RenderCache.keys(new File(sourceFilename), ops);
+        } catch (IOException e) {
+            refresh();
+            return;
+        }
+
+        int done = ops.size();
+        BufferedImage cached = null;
+        while (done > 0 && (cached = cache.load(keys.get(done))) == null) {
+            done--;
+        }
+        current = cached != null ? cached : deepCopy(original);
+        for (int i = done; i < ops.size(); i++) {
+            current = ops.get(i).apply(current);
+        }
+        changed();
+
+        if (done < ops.size()) {
+            try {
+                cache.store(keys.get(ops.size()), current);
+            } catch (IOException e) {
+                // Only costs time the next time the image is opened
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Save the current image to the {@link RenderCache}, so that opening the
+     * image with its saved operations again does not need to apply them.
+     * </p>
+     */
+    private void cacheCurrent() {
+        if (ops.isEmpty() || sourceFilename == null || precise != null) {
+            return;
+        }
+        try {
+            RenderCache cache = RenderCache.getDefault();
+            String key = RenderCache.keys(new File(sourceFilename), ops).get(ops.size());
+            if (!cache.contains(key)) {
+                cache.store(key, current);
+            }
+        } catch (IOException e) {
+            // Only costs time the next time the image is opened
         }
     }
 
@@ -488,6 +1232,7 @@ class EditableImage {
     public static void clearStacks(EditableImage image) {
         image.ops.clear();
         image.redoOps.clear();
+        image.patches.clear();
     }
 
     /**
@@ -57,6 +57,10 @@ public class EmbossActions {
                 bundle.getString("sobelHorizontal"), Integer.valueOf(KeyEvent.VK_H)));
         actions.add(new SobelVerticalAction(bundle.getString("sobelVertical"), null,
                 bundle.getString("sobelVertical"), Integer.valueOf(KeyEvent.VK_V)));
+        actions.add(new SobelMagnitudeAction(bundle.getString("sobelMagnitude"), null,
+                bundle.getString("sobelMagnitude"), Integer.valueOf(KeyEvent.VK_G)));
+        actions.add(new SobelOrientationAction(bundle.getString("sobelOrientation"), null,
+                bundle.getString("sobelOrientation"), Integer.valueOf(KeyEvent.VK_O)));
 
     }
 
@@ -120,7 +124,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss1());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss1()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -162,7 +166,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss2());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss2()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -204,7 +208,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss3());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss3()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -246,7 +250,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss4());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss4()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -288,7 +292,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss5());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss5()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -330,7 +334,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss6());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss6()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -372,7 +376,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss7());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss7()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -414,7 +418,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new Emboss8());
+            target.getImage().apply(inSelection(new EmbossClasses().new Emboss8()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -456,7 +460,7 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new SobelHorizontal());
+            target.getImage().apply(inSelection(new EmbossClasses().new SobelHorizontal()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -498,10 +502,93 @@ public class EmbossActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new EmbossClasses().new SobelVertical());
+            target.getImage().apply(inSelection(new EmbossClasses().new SobelVertical()));
             target.repaint();
             target.getParent().revalidate();
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>
+     * Action to apply a combined sobel filter showing edge strength.
+     * </p>
+     * 
+     */
+    public class SobelMagnitudeAction extends ImageAction {
+        /**
+         * <p>
+         * Create a new SobelMagnitude action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        SobelMagnitudeAction(String name, ImageIcon icon,
+                String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the SobelMagnitude action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the SobelMagnitudeAction is triggered.
+         * It applys a {@link SobelGradient}.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            // Create and apply the filter
+            target.getImage().apply(inSelection(new SobelGradient(false)));
+            target.repaint();
+            target.getParent().revalidate();
+        }
+    }
+
+    /**
+     * <p>
+     * Action to apply a combined sobel filter showing edge orientation.
+     * </p>
+     * 
+     */
+    public class SobelOrientationAction extends ImageAction {
+        /**
+         * <p>
+         * Create a new SobelOrientation action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        SobelOrientationAction(String name, ImageIcon icon,
+                String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the SobelOrientation action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the SobelOrientationAction is triggered.
+         * It applys a {@link SobelGradient} with orientation colouring.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            // Create and apply the filter
+            target.getImage().apply(inSelection(new SobelGradient(true)));
+            target.repaint();
+            target.getParent().revalidate();
+        }
+    }
+}
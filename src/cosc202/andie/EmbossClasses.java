@@ -27,7 +27,14 @@ import java.awt.image.Kernel;
  * @version 1.0
  */
 
-public class EmbossClasses {
+public class EmbossClasses implements java.io.Serializable {
+
+        /**
+         * How far either side of each pixel the filters read. {@link NegativeFilter}
+         * treats the 3x3 kernel as a row of nine values.
+         */
+        static final int REACH = 4;
+
         /**
          * <p>
          * Construct the EmbossClasses filter.
@@ -48,7 +55,9 @@ public class EmbossClasses {
          */
         public class Emboss1 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -70,7 +79,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -84,7 +97,9 @@ public class EmbossClasses {
          */
         public class Emboss2 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -106,7 +121,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -120,7 +139,9 @@ public class EmbossClasses {
          */
         public class Emboss3 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -142,7 +163,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -156,7 +181,9 @@ public class EmbossClasses {
          */
         public class Emboss4 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -178,7 +205,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -192,7 +223,9 @@ public class EmbossClasses {
          */
         public class Emboss5 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -214,7 +247,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -228,7 +265,9 @@ public class EmbossClasses {
          */
         public class Emboss6 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -250,7 +289,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -264,7 +307,9 @@ public class EmbossClasses {
          */
         public class Emboss7 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -286,7 +331,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -300,7 +349,9 @@ public class EmbossClasses {
          */
         public class Emboss8 implements ImageOperation, java.io.Serializable {
                 public BufferedImage apply(BufferedImage input) {
-                        Andie.imagePanel.getImage().tempApply(new ConvertToGrey());
+                        // Grey a copy, so the caller's image is left as it was
+                        input = new ConvertToGrey().apply(new BufferedImage(input.getColorModel(),
+                                        input.copyData(null), input.isAlphaPremultiplied(), null));
 
                         int radius = 1;
 
@@ -322,7 +373,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -357,7 +412,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
@@ -392,7 +451,11 @@ public class EmbossClasses {
                         }
 
                         BufferedImage output = NegativeFilter.apply(paddedInput, kernel);
-                        return output;
+                        return output.getSubimage(radius, radius, input.getWidth(), input.getHeight());
+                }
+
+                public int getNeighbourhoodRadius() {
+                        return REACH;
                 }
         }
 
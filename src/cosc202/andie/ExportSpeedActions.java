@@ -0,0 +1,117 @@
+package cosc202.andie;
+
+import java.util.*;
+import java.awt.event.*;
+
+import javax.swing.*;
+
+/**
+ * <p>
+ * Actions provided by the export speed menu.
+ * </p>
+ *
+ * <p>
+ * The export speed menu chooses how hard PNG files are compressed when they are
+ * exported, trading the size of the file against the time taken to write it.
+ * These actions do not affect the contents of the image.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see PngWriter
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class ExportSpeedActions {
+
+    /** A list of actions for the export speed menu. */
+    protected ArrayList<Action> actions;
+
+    /** ResourceBundle for multilingual support */
+    ResourceBundle bundle = ResourceBundle.getBundle("cosc202.andie.LanguageResources.LanguageBundle");
+
+    /**
+     * <p>
+     * Create a set of export speed menu actions.
+     * </p>
+     */
+    public ExportSpeedActions() {
+        actions = new ArrayList<Action>();
+        actions.add(new ExportSpeedAction(bundle.getString("exportFastest"), null, bundle.getString("exportFastest"),
+                Integer.valueOf(KeyEvent.VK_F), PngWriter.FASTEST));
+        actions.add(new ExportSpeedAction(bundle.getString("exportBalanced"), null,
+                bundle.getString("exportBalanced"), Integer.valueOf(KeyEvent.VK_B), PngWriter.BALANCED));
+        actions.add(new ExportSpeedAction(bundle.getString("exportSmallest"), null,
+                bundle.getString("exportSmallest"), Integer.valueOf(KeyEvent.VK_S), PngWriter.SMALLEST));
+    }
+
+    /**
+     * <p>
+     * Create a menu containing the list of export speed actions.
+     * </p>
+     *
+     * <p>
+     * Only one speed can be chosen at a time, so they are shown as radio
+     * buttons.
+     * </p>
+     *
+     * @return The export speed menu UI element.
+     */
+    public JMenu createMenu() {
+        JMenu speedMenu = new JMenu(bundle.getString("exportSpeed"));
+        ButtonGroup group = new ButtonGroup();
+
+        for (Action action : actions) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(action);
+            item.setSelected(((ExportSpeedAction) action).level == PngWriter.getLevel());
+            group.add(item);
+            speedMenu.add(item);
+        }
+
+        return speedMenu;
+    }
+
+    /**
+     * <p>
+     * Action to choose how hard exported PNG files are compressed.
+     * </p>
+     *
+     * @see PngWriter#setLevel(int)
+     */
+    public class ExportSpeedAction extends ImageAction {
+
+        /** The compression level this speed uses. */
+        private final int level;
+
+        /**
+         * <p>
+         * Create a new export speed action.
+         * </p>
+         *
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         * @param level    The compression level, from {@link PngWriter#FASTEST}
+         *                 to {@link PngWriter#SMALLEST}.
+         */
+        ExportSpeedAction(String name, ImageIcon icon, String desc, Integer mnemonic, int level) {
+            super(name, icon, desc, mnemonic);
+            this.level = level;
+        }
+
+        /**
+         * <p>
+         * Callback for when the export speed action is triggered.
+         * </p>
+         *
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            PngWriter.setLevel(level);
+        }
+    }
+}
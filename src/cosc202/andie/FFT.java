@@ -0,0 +1,163 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * A fast Fourier transform of a fixed power of two size.
+ * </p>
+ *
+ * <p>
+ * This is an iterative radix-2 Cooley-Tukey transform on separate arrays of
+ * real and imaginary parts. The twiddle factors and bit reversal permutation
+ * are calculated once when the transform is created, so one instance can be
+ * shared between threads and reused for many transforms of the same size.
+ * </p>
+ *
+ * <p>
+ * Two real signals can be transformed at once by putting one in the real part
+ * and the other in the imaginary part. For convolution with a real kernel the
+ * two never need to be separated: multiplying by the kernel's spectrum and
+ * transforming back leaves each result in the part it started in.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see Convolution
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class FFT {
+
+    /** The number of points in the transform. */
+    private final int size;
+    /** The index each element is swapped with by the bit reversal permutation. */
+    private final int[] reversed;
+    /** The cosine of each twiddle factor angle. */
+    private final double[] cos;
+    /** The sine of each twiddle factor angle. */
+    private final double[] sin;
+
+    /**
+     * <p>
+     * Create a transform of the given size.
+     * </p>
+     *
+     * @param size The number of points in the transform, a power of two.
+     * @throws IllegalArgumentException If the size is not a power of two.
+     */
+    FFT(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two");
+        }
+        this.size = size;
+
+        reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / size);
+            sin[i] = Math.sin(2 * Math.PI * i / size);
+        }
+    }
+
+    /**
+     * <p>
+     * Get the size of the transform.
+     * </p>
+     *
+     * @return The number of points in the transform.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Transform a signal in place.
+     * </p>
+     *
+     * <p>
+     * The inverse transform is not scaled, so a forward transform followed by
+     * an inverse one multiplies the signal by the size.
+     * </p>
+     *
+     * @param re      The real parts, of length at least {@code offset + size}.
+     * @param im      The imaginary parts, of length at least
+     *                {@code offset + size}.
+     * @param offset  The index of the first element of the signal.
+     * @param inverse True for the inverse transform.
+     */
+    void transform(double[] re, double[] im, int offset, boolean inverse) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+
+        double sign = inverse ? 1 : -1;
+        for (int half = 1; half < size; half *= 2) {
+            int step = size / (2 * half);
+            for (int start = offset; start < offset + size; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Transform a square two dimensional signal in place.
+     * </p>
+     *
+     * <p>
+     * Every row is transformed, then every column. Columns are copied into a
+     * contiguous buffer first so that the transform reads memory in order.
+     * </p>
+     *
+     * @param re      The real parts, in {@code size} rows of {@code size}.
+     * @param im      The imaginary parts, in {@code size} rows of {@code size}.
+     * @param inverse True for the inverse transform.
+     */
+    void transform2D(double[] re, double[] im, boolean inverse) {
+        for (int y = 0; y < size; y++) {
+            transform(re, im, y * size, inverse);
+        }
+
+        double[] columnRe = new double[size];
+        double[] columnIm = new double[size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                columnRe[y] = re[y * size + x];
+                columnIm[y] = im[y * size + x];
+            }
+            transform(columnRe, columnIm, 0, inverse);
+            for (int y = 0; y < size; y++) {
+                re[y * size + x] = columnRe[y];
+                im[y * size + x] = columnIm[y];
+            }
+        }
+    }
+}
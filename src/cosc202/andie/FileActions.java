@@ -45,6 +45,8 @@ public class FileActions {
                 Integer.valueOf(KeyEvent.VK_S)));
         actions.add(new FileSaveAsAction(bundle.getString("saveAs"), null, bundle.getString("saveACopy"),
                 Integer.valueOf(KeyEvent.VK_S)));
+        actions.add(new FileSaveProjectAction(bundle.getString("saveProject"), null,
+                bundle.getString("saveTheProject"), Integer.valueOf(KeyEvent.VK_P)));
         actions.add(new imageExportAction(bundle.getString("export"), null, bundle.getString("exportImage"),
                 Integer.valueOf(KeyEvent.VK_E)));
         actions.add(new FileExitAction(bundle.getString("exit"), null, bundle.getString("exitTheProgram"),
@@ -73,7 +75,7 @@ public class FileActions {
             }
         }
         fileMenu.add(new MacroActions().createMenu());
-        fileMenu.add(Tools.createMenuItem(actions.get(4), false, false));
+        fileMenu.add(Tools.createMenuItem(actions.get(actions.size() - 1), false, false));
         return fileMenu;
     }
 
@@ -125,6 +127,7 @@ public class FileActions {
                         EditableImage.clearStacks(target.getImage());
                         target.getImage().open(Andie.imageFilepath);
                         target.setZoom(100);
+                        target.setSelection(null);
                     } catch (Exception ex) {
                         Tools.errorMessage(ex, "fileOpenError");
                     }
@@ -157,6 +160,7 @@ public class FileActions {
                             EditableImage.clearStacks(target.getImage());
                             target.getImage().open(Andie.imageFilepath);
                             target.setZoom(100);
+                            target.setSelection(null);
                         } catch (Exception ex) {
                             Tools.errorMessage(ex, "fileOpenError");
                         }
@@ -174,6 +178,7 @@ public class FileActions {
                             EditableImage.clearStacks(target.getImage());
                             target.getImage().open(Andie.imageFilepath);
                             target.setZoom(100);
+                            target.setSelection(null);
                         } catch (Exception ex) {
                             Tools.errorMessage(ex, "fileOpenError");
                         }
@@ -284,6 +289,62 @@ public class FileActions {
 
     }
 
+    /**
+     * <p>
+     * Action to save an image, its operations and their result as a single
+     * project file.
+     * </p>
+     * 
+     * @see EditableImage#saveProject(String)
+     */
+    public class FileSaveProjectAction extends ImageAction {
+
+        /**
+         * <p>
+         * Create a new file-save-project action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        FileSaveProjectAction(String name, ImageIcon icon, String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the file-save-project action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the FileSaveProjectAction is triggered.
+         * It prompts the user to select a file and saves the project to it, adding
+         * <code>.andie</code> to the name if it is not there already.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            JFileChooser fileChooser = new JFileChooser();
+            int result = fileChooser.showSaveDialog(target);
+
+            if (result == JFileChooser.APPROVE_OPTION) {
+                try {
+                    String projectFilepath = fileChooser.getSelectedFile().getCanonicalPath();
+                    if (!ProjectFile.isProject(projectFilepath)) {
+                        projectFilepath += "." + ProjectFile.EXTENSION;
+                    }
+                    target.getImage().saveProject(projectFilepath);
+                } catch (Exception ex) {
+                    Tools.errorMessage(ex, "fileSaveError");
+                }
+            }
+        }
+
+    }
+
     /**
      * <p>
      * Action to quit the ANDIE application.
@@ -376,7 +437,8 @@ public class FileActions {
          * <p>
          * This method is called whenever the imageExportAction is triggered.
          * It prompts the user to select a file and saves a copy of the edited image to
-         * it.
+         * it in the background. Formats without transparency, such as JPEG, are
+         * written with transparent pixels made white, without changing the image.
          * </p>
          * 
          * @param e The event triggering this callback.
@@ -407,9 +469,6 @@ public class FileActions {
                                 JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
                         if (n == 0) {
                             if (extensionCheck) {
-                                if (!extension.toLowerCase().equals("png")) {
-                                    target.getImage().apply(new RemoveTransparency());
-                                }
                                 target.getImage().exportImage(imageFilepath, extension);
                             } else {
                                 target.getImage().exportImage(imageFilepath);
@@ -417,9 +476,6 @@ public class FileActions {
                         }
                     } else {
                         if (extensionCheck) {
-                            if (!extension.toLowerCase().equals("png")) {
-                                target.getImage().apply(new RemoveTransparency());
-                            }
                             target.getImage().exportImage(imageFilepath, extension);
                         } else {
                             target.getImage().exportImage(imageFilepath);
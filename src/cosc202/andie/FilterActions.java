@@ -15,7 +15,7 @@ import javax.swing.event.*;
  * The Filter menu contains actions that update each pixel in an image based on
  * some small local neighbourhood.
  * This includes a mean filter (a simple blur), Soft blur filter, Sharpen
- * filter, and more.
+ * filter, a filter with a kernel entered by the user, and more.
  * </p>
  * 
  * <p>
@@ -54,6 +54,8 @@ public class FilterActions {
         actions.add(new MedianFilterAction(
                 ResourceBundle.getBundle("cosc202.andie.LanguageResources.LanguageBundle").getString("medianFilter"),
                 null, bundle.getString("applyAMedianFilter"), Integer.valueOf(KeyEvent.VK_D)));
+        actions.add(new CustomKernelAction(bundle.getString("customKernel"), null,
+                bundle.getString("applyACustomKernel"), Integer.valueOf(KeyEvent.VK_K)));
     }
 
     /**
@@ -142,7 +144,7 @@ public class FilterActions {
                         try {
                             if (radius != 0) {
                                 source.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-                                target.getImage().tempApply(new MeanFilter(radius));
+                                preview(new MeanFilter(radius));
                                 source.setCursor(Cursor.getDefaultCursor());
                             }
                         } catch (Exception ex) {
@@ -162,6 +164,7 @@ public class FilterActions {
                     panel, bundle.getString("applyAMeanFilter"),
                     JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
             if (option == 1 || option == JOptionPane.CLOSED_OPTION) {
+                EditableImage.cancelProgressive();
                 target.setImage(image);
                 target.repaint();
                 target.getParent().revalidate();
@@ -212,7 +215,7 @@ public class FilterActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new SoftBlur());
+            target.getImage().apply(inSelection(new SoftBlur()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -255,7 +258,7 @@ public class FilterActions {
          */
         public void actionPerformed(ActionEvent e) {
             // Create and apply the filter
-            target.getImage().apply(new SharpenFilter());
+            target.getImage().apply(inSelection(new SharpenFilter()));
             target.repaint();
             target.getParent().revalidate();
         }
@@ -330,7 +333,7 @@ public class FilterActions {
                         try {
                             if (radius != 0) {
                                 source.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-                                target.getImage().tempApply(new GaussianBlur(radius));
+                                preview(new GaussianBlur(radius));
                                 source.setCursor(Cursor.getDefaultCursor());
                             }
                         } catch (Exception ex) {
@@ -351,6 +354,7 @@ public class FilterActions {
                     JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
             // Check the return value from the dialog box.
             if (option == 1 || option == JOptionPane.CLOSED_OPTION) {
+                EditableImage.cancelProgressive();
                 target.setImage(image);
                 target.repaint();
                 target.getParent().revalidate();
@@ -431,7 +435,7 @@ public class FilterActions {
                         try {
                             if (radius != 0) {
                                 source.setCursor(new Cursor(Cursor.WAIT_CURSOR));
-                                target.getImage().tempApply(new MedianFilter(radius));
+                                preview(new MedianFilter(radius));
                                 source.setCursor(Cursor.getDefaultCursor());
                             }
                         } catch (Exception ex) {
@@ -452,6 +456,7 @@ public class FilterActions {
                     JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
             // Check the return value from the dialog box.
             if (option == 1 || option == JOptionPane.CLOSED_OPTION) {
+                EditableImage.cancelProgressive();
                 target.setImage(image);
                 target.repaint();
                 target.getParent().revalidate();
@@ -464,4 +469,79 @@ public class FilterActions {
         }
 
     }
+
+    /**
+     * <p>
+     * Action to filter an image with a kernel entered by the user.
+     * </p>
+     * 
+     * @see CustomKernelFilter
+     */
+    public class CustomKernelAction extends ImageAction {
+
+        /** The kernel last entered with this action, shown again the next time. */
+        private String kernelText = "0 0 0\n0 1 0\n0 0 0";
+
+        /** Whether the last kernel was normalised. */
+        private boolean normalise = true;
+
+        /**
+         * <p>
+         * Create a new custom kernel action.
+         * </p>
+         * 
+         * @param name     The name of the action (ignored if null).
+         * @param icon     An icon to use to represent the action (ignored if null).
+         * @param desc     A brief description of the action (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut (ignored if null).
+         */
+        CustomKernelAction(String name, ImageIcon icon, String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+        }
+
+        /**
+         * <p>
+         * Callback for when the custom kernel action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the CustomKernelAction is triggered.
+         * It prompts the user for the kernel values, then applies a
+         * {@link CustomKernelFilter} with them.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            JPanel panel = new JPanel(new BorderLayout());
+            JTextArea textArea = new JTextArea(kernelText, 8, 30);
+            textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JCheckBox normaliseBox = new JCheckBox(bundle.getString("normaliseKernel"), normalise);
+            panel.add(new JLabel(bundle.getString("customKernelMessage")), BorderLayout.NORTH);
+            panel.add(new JScrollPane(textArea), BorderLayout.CENTER);
+            panel.add(normaliseBox, BorderLayout.SOUTH);
+
+            Object[] options = { bundle.getString("ok"), bundle.getString("cancel") };
+            int option = JOptionPane.showOptionDialog(null,
+                    panel, bundle.getString("applyACustomKernel"),
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
+            if (option != 0) {
+                return;
+            }
+
+            kernelText = textArea.getText();
+            normalise = normaliseBox.isSelected();
+            CustomKernelFilter filter;
+            try {
+                filter = CustomKernelFilter.parse(kernelText, normalise);
+            } catch (IllegalArgumentException ex) {
+                Tools.errorMessage(ex, "customKernelError");
+                return;
+            }
+            target.getImage().apply(inSelection(filter));
+            target.repaint();
+            target.getParent().revalidate();
+        }
+
+    }
 }
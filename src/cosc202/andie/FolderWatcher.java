@@ -0,0 +1,342 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+
+/**
+ * <p>
+ * Watches a folder and applies a macro to each image that appears in it,
+ * without showing any windows.
+ * </p>
+ *
+ * <p>
+ * Started with <code>--watch input macro.ops output [format]</code>, it applies
+ * the operations in a macro saved by Export Macro to every image put in the
+ * input folder, and writes the results to the output folder with the same name,
+ * in the same format unless another is given. Images already in the input
+ * folder that have no result yet are done first.
+ * </p>
+ *
+ * <p>
+ * A scanner or camera can take a while to write a file, so a new file is only
+ * read once its size and modification time have stayed the same for a short
+ * time. Images are worked on by a fixed number of threads, and no more than a
+ * few are waiting at once, so a large batch does not use up all the memory.
+ * Results are written to a temporary file and renamed, so nothing reading the
+ * output folder sees half of one either.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see MacroActions
+ * @see Andie#main(String[])
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class FolderWatcher {
+
+    /** How long a file must stay the same before it is read, in milliseconds. */
+    static final long STABLE_MILLIS = 1000;
+    /** How long an empty file is waited on before it is given up, in milliseconds. */
+    static final long EMPTY_MILLIS = 60000;
+    /** The most images waiting for a thread, per thread. */
+    private static final int QUEUE_PER_THREAD = 2;
+
+    /** The folder to watch. */
+    private final Path input;
+    /** The folder to write results to. */
+    private final Path output;
+    /** The operations to apply, in order. */
+    private final List<ImageOperation> ops;
+    /** The format to write results in, or null to keep each image's format. */
+    private final String format;
+    /** The threads images are worked on by. */
+    private final ExecutorService workers;
+    /** Limits how many images are waiting for or being worked on at once. */
+    private final Semaphore slots;
+    /** Files not yet read, with their size and time when last checked. */
+    private final Map<Path, long[]> pending;
+    /** The file name extensions that can be read. */
+    private final Set<String> readable;
+
+    /**
+     * <p>
+     * Create a watcher.
+     * </p>
+     *
+     * @param input   The folder to watch.
+     * @param ops     The operations to apply, in order.
+     * @param output  The folder to write results to. It is created if need be.
+     * @param format  The informal name of the format to write results in, such as
+     *                png, or null to keep each image's format.
+     * @param threads The number of images to work on at once.
+     */
+    FolderWatcher(Path input, List<ImageOperation> ops, Path output, String format, int threads) {
+        this.input = input;
+        this.output = output;
+        this.ops = new ArrayList<ImageOperation>(ops);
+        this.format = format;
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.slots = new Semaphore(threads * (1 + QUEUE_PER_THREAD));
+        this.pending = new HashMap<Path, long[]>();
+        this.readable = new HashSet<String>();
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            readable.add(suffix.toLowerCase());
+        }
+        readable.addAll(Arrays.asList("pnm", "pgm", "ppm", "pam"));
+    }
+
+    /**
+     * <p>
+     * Watch a folder until the program is stopped.
+     * </p>
+     *
+     * @param args The input folder, the macro file, the output folder, and
+     *             optionally the format to write results in.
+     * @throws Exception If the macro cannot be read or the folder cannot be
+     *                   watched.
+     */
+    static void watch(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: --watch <input folder> <macro.ops> <output folder> [format]");
+            System.exit(2);
+        }
+        String format = args.length > 3 ? args[3].toLowerCase() : null;
+        if (format != null && !isWritable(format)) {
+            System.err.println("No image writer for format " + args[3]);
+            System.exit(2);
+        }
+        if (Files.isSameFile(Paths.get(args[0]), Files.createDirectories(Paths.get(args[2])))) {
+            System.err.println("The output folder must not be the folder being watched");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        List<ImageOperation> ops;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(args[1]))) {
+            @SuppressWarnings("unchecked")
+            Stack<ImageOperation> macro = (Stack<ImageOperation>) in.readObject();
+            ops = macro;
+        }
+        FolderWatcher watcher = new FolderWatcher(Paths.get(args[0]), ops, Paths.get(args[2]), format,
+                Runtime.getRuntime().availableProcessors());
+        System.out.println("Watching " + watcher.input.toAbsolutePath() + " for images, applying " + ops.size()
+                + " operations from " + args[1]);
+        watcher.run();
+    }
+
+    /**
+     * <p>
+     * Check whether results can be written in a format.
+     * </p>
+     *
+     * @param format The informal name of the format, such as png.
+     * @return True if {@link ImageExport} can write it.
+     */
+    static boolean isWritable(String format) {
+        return format.equals("png") || PnmFile.isFormat(format)
+                || ImageIO.getImageWritersByFormatName(format).hasNext();
+    }
+
+    /**
+     * <p>
+     * Watch the input folder, sending each new image to be worked on once it has
+     * finished being written.
+     * </p>
+     *
+     * @throws IOException          If the folder cannot be watched.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    void run() throws IOException, InterruptedException {
+        Files.createDirectories(output);
+        try (WatchService service = input.getFileSystem().newWatchService()) {
+            input.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            scan();
+            while (true) {
+                WatchKey key = service.poll(pending.isEmpty() ? Long.MAX_VALUE : STABLE_MILLIS / 4,
+                        TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Some events were lost, so look for anything not done yet
+                            scan();
+                        } else {
+                            notice(input.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("Can no longer watch " + input);
+                    }
+                }
+                submitStable();
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * <p>
+     * Look at every file in the input folder that has no result yet.
+     * </p>
+     *
+     * @throws IOException If the folder cannot be listed.
+     */
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(input)) {
+            for (Path file : files) {
+                if (!Files.exists(resultFor(file))) {
+                    notice(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Note that a file has been created or changed, if it looks like an image.
+     * </p>
+     *
+     * @param file The file.
+     */
+    private void notice(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (name.startsWith(".") || dot < 0 || !readable.contains(name.substring(dot + 1).toLowerCase())
+                || !Files.isRegularFile(file)) {
+            return;
+        }
+        // Checked again later to see if it has stopped changing
+        pending.put(file, new long[] { -1, -1, System.currentTimeMillis() });
+    }
+
+    /**
+     * <p>
+     * Send the files that have stopped changing to be worked on.
+     * </p>
+     *
+     * <p>
+     * A file has stopped changing when its size and modification time are the
+     * same as when it was last checked, and have been for
+     * {@link #STABLE_MILLIS}. This waits if too many images are already waiting.
+     * </p>
+     *
+     * <p>
+     * An empty file has not been written yet, so it is not read. If it is still
+     * empty after {@link #EMPTY_MILLIS} it is given up on, so that a file that is
+     * only ever created is not checked forever. It is noticed again if it is
+     * written to later.
+     * </p>
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private void submitStable() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, long[]>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, long[]> entry = entries.next();
+            Path file = entry.getKey();
+            long[] last = entry.getValue();
+            long size;
+            long modified;
+            try {
+                size = Files.size(file);
+                modified = Files.getLastModifiedTime(file).toMillis();
+            } catch (IOException e) {
+                // Deleted or moved away before it could be read
+                entries.remove();
+                continue;
+            }
+            if (size != last[0] || modified != last[1]) {
+                entry.setValue(new long[] { size, modified, now });
+            } else if (size == 0) {
+                if (now - last[2] >= EMPTY_MILLIS) {
+                    entries.remove();
+                    System.err.println("Skipped " + file + ": still empty");
+                }
+            } else if (now - last[2] >= STABLE_MILLIS) {
+                entries.remove();
+                slots.acquire();
+                workers.execute(() -> {
+                    try {
+                        process(file);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Apply the operations to an image and write the result.
+     * </p>
+     *
+     * <p>
+     * An image that cannot be read or written is skipped, with a message.
+     * </p>
+     *
+     * @param file The image.
+     */
+    private void process(Path file) {
+        Path result = resultFor(file);
+        Path temp = null;
+        try {
+            String name = file.getFileName().toString();
+            BufferedImage decoded = PnmFile.isPnm(name) ? PnmFile.read(file.toFile()) : ImageIO.read(file.toFile());
+            if (decoded == null) {
+                throw new IOException("not an image");
+            }
+            int sourceType = decoded.getType();
+            BufferedImage image = ImagePixels.toArgb(decoded);
+            for (ImageOperation op : ops) {
+                image = op.apply(image);
+            }
+
+            String resultName = result.getFileName().toString();
+            // Hidden, and not made with createTempFile, so the result gets the usual
+            // permissions instead of being readable only by its owner
+            temp = output.resolve("." + resultName + "." + Thread.currentThread().getId() + ".tmp");
+            ImageExport.writeImage(image, resultName.substring(resultName.lastIndexOf('.') + 1), temp.toFile(),
+                    sourceType, percent -> {
+                    });
+            Files.move(temp, result, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Wrote " + result);
+        } catch (Exception e) {
+            System.err.println("Skipped " + file + ": " + e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // Nothing more can be done
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Work out where the result for an image goes.
+     * </p>
+     *
+     * @param file The image.
+     * @return The file in the output folder with the same name, with the
+     *         extension changed if a format was given.
+     */
+    private Path resultFor(Path file) {
+        String name = file.getFileName().toString();
+        if (format != null) {
+            int dot = name.lastIndexOf('.');
+            name = (dot < 0 ? name : name.substring(0, dot)) + "." + format;
+        }
+        return output.resolve(name);
+    }
+}
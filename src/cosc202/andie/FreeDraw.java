@@ -1,6 +1,7 @@
 package cosc202.andie;
 
 import java.awt.*;
+import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 
 /**
@@ -18,6 +19,12 @@ import java.awt.image.BufferedImage;
  */
 public class FreeDraw implements ImageOperation, java.io.Serializable {
 
+    /**
+     * The serialization version from before brush strokes could be undone by
+     * restoring the area they changed.
+     */
+    private static final long serialVersionUID = 9116654741666083403L;
+
     private int startX;
     private int startY;
     private int endX;
@@ -71,4 +78,20 @@ public class FreeDraw implements ImageOperation, java.io.Serializable {
         g2d.dispose();
         return input;
     }
+
+    /**
+     * <p>
+     * Get the part of an image the brush stroke covers.
+     * </p>
+     * 
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The bounds of the stroke, clipped to the image.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        Rectangle region = strokeSize.createStrokedShape(new Line2D.Float(startX, startY, endX, endY)).getBounds();
+        // Allow for the stroke being moved to the nearest pixel
+        region.grow(1, 1);
+        return region.intersection(new Rectangle(0, 0, width, height));
+    }
 }
@@ -21,7 +21,13 @@ import java.awt.image.*;
  * @author Tristan Kitto
  * @version 1.0
  */
-public class GaussianBlur implements ImageOperation, java.io.Serializable {
+public class GaussianBlur implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version of the original GaussianBlur. Saved blurs only
+     * hold their radius, which has not changed, so older ones still load.
+     */
+    private static final long serialVersionUID = 2836013273515770198L;
 
     /**
      * The size of filter to apply. A radius of 1 is a 3x3 filter, a radius of 2 a
@@ -111,4 +117,50 @@ public class GaussianBlur implements ImageOperation, java.io.Serializable {
 
         return output;
     }
+
+    /**
+     * <p>
+     * Apply a Gaussian blur to a 16 bit image.
+     * </p>
+     * 
+     * <p>
+     * The same kernel and border are used as by {@link #apply(BufferedImage)}.
+     * A Gaussian kernel is the product of a one dimensional Gaussian along each
+     * side, so it is applied along the rows and then the columns, which is much
+     * quicker for a large radius.
+     * </p>
+     * 
+     * @param input The image to apply the Gaussian blur to.
+     * @return The resulting (blurred) image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        float sigma = radius / 3.0f;
+        float[] kernel = new float[2 * radius + 1];
+        float sum = 0.0f;
+        for (int x = -radius; x <= radius; x++) {
+            kernel[x + radius] = (float) Math.exp(-(x * x) / (2 * sigma * sigma));
+            sum += kernel[x + radius];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+        return input.convolveSeparable(kernel, radius);
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * <p>
+     * Like the {@link MeanFilter}, the result is moved down and to the
+     * right by the radius, so it depends on pixels up to twice the radius
+     * away.
+     * </p>
+     *
+     * @return Twice the radius of the filter.
+     */
+    public int getNeighbourhoodRadius() {
+        return 2 * radius;
+    }
 }
@@ -0,0 +1,512 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * An image with 16 bits per channel, for {@link HighPrecisionOperation}s.
+ * </p>
+ *
+ * <p>
+ * Images are normally worked on as 8 bit channels packed into an int, so every
+ * operation rounds its result to one of 256 levels. After a few operations in a
+ * row, such as a contrast change, a blur and a sharpen, the rounding adds up to
+ * visible banding in smooth gradients, and a 16 bit PNG or TIFF loses half its
+ * precision as soon as it is opened. In high precision mode the image is kept
+ * as this class instead, with 65536 levels per channel, and is only rounded to
+ * 8 bits to be shown or exported to a format that cannot hold more.
+ * </p>
+ *
+ * <p>
+ * Each channel is stored in its own plane, an array of unsigned 16 bit values
+ * stored in {@code short}s, in rows. The colour channels are not premultiplied
+ * by alpha, as in {@code TYPE_INT_ARGB}. Operations should treat an image as
+ * unchangeable and return a new one, as images can be shared.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#setHighPrecision(boolean)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class HighPrecisionImage {
+
+    /** The largest channel value. */
+    static final int MAX = 65535;
+    /** The height of the strips of rows that convolutions work on in parallel. */
+    private static final int STRIP_HEIGHT = 64;
+    /** The nearest 8 bit value for each 16 bit value. */
+    private static final byte[] TO_8_BIT = new byte[MAX + 1];
+
+    static {
+        for (int i = 0; i <= MAX; i++) {
+            TO_8_BIT[i] = (byte) ((i * 255 + MAX / 2) / MAX);
+        }
+    }
+
+    /** The width of the image. */
+    final int width;
+    /** The height of the image. */
+    final int height;
+    /** The red plane. */
+    final short[] red;
+    /** The green plane. */
+    final short[] green;
+    /** The blue plane. */
+    final short[] blue;
+    /** The alpha plane. */
+    final short[] alpha;
+
+    /**
+     * <p>
+     * Create a transparent black image.
+     * </p>
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    HighPrecisionImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.red = new short[width * height];
+        this.green = new short[width * height];
+        this.blue = new short[width * height];
+        this.alpha = new short[width * height];
+    }
+
+    /**
+     * <p>
+     * Check whether an image has more than 8 bits per channel.
+     * </p>
+     *
+     * @param image The image, as decoded.
+     * @return True if it is 16 bit grey or RGB, with or without alpha.
+     */
+    static boolean isHighPrecision(BufferedImage image) {
+        ColorModel model = image.getColorModel();
+        int colours = model.getNumColorComponents();
+        return model instanceof ComponentColorModel && !model.isAlphaPremultiplied()
+                && image.getRaster().getTransferType() == DataBuffer.TYPE_USHORT && (colours == 1 || colours == 3);
+    }
+
+    /**
+     * <p>
+     * Convert an image to 16 bits per channel.
+     * </p>
+     *
+     * <p>
+     * A 16 bit image, as checked by {@link #isHighPrecision(BufferedImage)}, keeps
+     * every bit of its samples. Any other image is converted to ARGB and each 8 bit
+     * value is spread over the 16 bit range, so 255 becomes 65535.
+     * </p>
+     *
+     * @param image The image to convert.
+     * @return A new image.
+     */
+    static HighPrecisionImage fromImage(BufferedImage image) {
+        if (!isHighPrecision(image)) {
+            return fromArgb(image);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        HighPrecisionImage result = new HighPrecisionImage(width, height);
+        Raster raster = image.getRaster();
+        ColorModel model = image.getColorModel();
+        int colours = model.getNumColorComponents();
+        short[][] planes = colours == 1 ? new short[][] { result.red, result.red, result.red }
+                : new short[][] { result.red, result.green, result.blue };
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int band = 0; band < colours; band++) {
+                raster.getSamples(0, y, width, 1, band, row);
+                for (int x = 0; x < width; x++) {
+                    planes[band][y * width + x] = (short) row[x];
+                }
+            }
+            if (model.hasAlpha()) {
+                raster.getSamples(0, y, width, 1, colours, row);
+                for (int x = 0; x < width; x++) {
+                    result.alpha[y * width + x] = (short) row[x];
+                }
+            } else {
+                Arrays.fill(result.alpha, y * width, (y + 1) * width, (short) MAX);
+            }
+        }
+        if (colours == 1) {
+            System.arraycopy(result.red, 0, result.green, 0, result.red.length);
+            System.arraycopy(result.red, 0, result.blue, 0, result.red.length);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Convert an 8 bit image to 16 bits per channel.
+     * </p>
+     *
+     * @param image The image to convert.
+     * @return A new image, with each 8 bit value spread over the 16 bit range.
+     */
+    static HighPrecisionImage fromArgb(BufferedImage image) {
+        HighPrecisionImage result = new HighPrecisionImage(image.getWidth(), image.getHeight());
+        int[] pixels = ImagePixels.getPixels(image);
+        for (int i = 0; i < pixels.length; i++) {
+            result.set(i, pixels[i]);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Round the image to 8 bits per channel, to show it.
+     * </p>
+     *
+     * @return A new ARGB image.
+     */
+    BufferedImage toArgb() {
+        int[] pixels = new int[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                pixels[i] = (TO_8_BIT[alpha[i] & MAX] & 0xFF) << 24 | (TO_8_BIT[red[i] & MAX] & 0xFF) << 16
+                        | (TO_8_BIT[green[i] & MAX] & 0xFF) << 8 | (TO_8_BIT[blue[i] & MAX] & 0xFF);
+            }
+        });
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(image, pixels);
+        return image;
+    }
+
+    /**
+     * <p>
+     * Wrap the image as a 16 bit {@link BufferedImage}, to export it.
+     * </p>
+     *
+     * <p>
+     * The image shares this image's planes. Alpha is left out if the image is
+     * fully opaque.
+     * </p>
+     *
+     * @return A 16 bit sRGB image, with alpha if it is needed.
+     */
+    BufferedImage toImage() {
+        boolean opaque = true;
+        for (short a : alpha) {
+            if ((a & MAX) != MAX) {
+                opaque = false;
+                break;
+            }
+        }
+        short[][] planes = opaque ? new short[][] { red, green, blue } : new short[][] { red, green, blue, alpha };
+        int[] bands = new int[planes.length];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = i;
+        }
+        WritableRaster raster = Raster.createBandedRaster(new DataBufferUShort(planes, width * height), width, height,
+                width, bands, new int[bands.length], null);
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), !opaque, false,
+                opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    /**
+     * <p>
+     * Make a copy of the image.
+     * </p>
+     *
+     * @return A new image with the same pixels.
+     */
+    HighPrecisionImage copy() {
+        HighPrecisionImage result = new HighPrecisionImage(width, height);
+        System.arraycopy(red, 0, result.red, 0, red.length);
+        System.arraycopy(green, 0, result.green, 0, green.length);
+        System.arraycopy(blue, 0, result.blue, 0, blue.length);
+        System.arraycopy(alpha, 0, result.alpha, 0, alpha.length);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Copy part of the image.
+     * </p>
+     *
+     * @param area The part to copy, inside the image.
+     * @return A new image the size of the area.
+     */
+    HighPrecisionImage crop(Rectangle area) {
+        HighPrecisionImage result = new HighPrecisionImage(area.width, area.height);
+        for (int y = 0; y < area.height; y++) {
+            int from = (area.y + y) * width + area.x;
+            int to = y * area.width;
+            System.arraycopy(red, from, result.red, to, area.width);
+            System.arraycopy(green, from, result.green, to, area.width);
+            System.arraycopy(blue, from, result.blue, to, area.width);
+            System.arraycopy(alpha, from, result.alpha, to, area.width);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Replace part of the image with 8 bit pixels, such as where an operation
+     * without a high precision version drew on it.
+     * </p>
+     *
+     * @param image An ARGB image the same size as this one.
+     * @param area  The part to replace, inside the image.
+     */
+    void setArea(BufferedImage image, Rectangle area) {
+        int[] pixels = ImagePixels.getPixels(image.getSubimage(area.x, area.y, area.width, area.height));
+        for (int y = 0; y < area.height; y++) {
+            for (int x = 0; x < area.width; x++) {
+                set((area.y + y) * width + area.x + x, pixels[y * area.width + x]);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Set a pixel from an 8 bit ARGB value.
+     * </p>
+     *
+     * @param i    The index of the pixel.
+     * @param argb The packed ARGB value.
+     */
+    private void set(int i, int argb) {
+        alpha[i] = (short) (((argb >>> 24) & 0xFF) * 257);
+        red[i] = (short) (((argb >> 16) & 0xFF) * 257);
+        green[i] = (short) (((argb >> 8) & 0xFF) * 257);
+        blue[i] = (short) ((argb & 0xFF) * 257);
+    }
+
+    /**
+     * <p>
+     * Remap the colour channels through a lookup table.
+     * </p>
+     *
+     * <p>
+     * The same table is used for red, green and blue. Alpha is left unchanged.
+     * </p>
+     *
+     * @param table The new value for each of the 65536 possible values, each in
+     *              the range [0, 65535].
+     * @return A new image with the values remapped.
+     */
+    HighPrecisionImage map(int[] table) {
+        HighPrecisionImage result = new HighPrecisionImage(width, height);
+        System.arraycopy(alpha, 0, result.alpha, 0, alpha.length);
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                result.red[i] = (short) table[red[i] & MAX];
+                result.green[i] = (short) table[green[i] & MAX];
+                result.blue[i] = (short) table[blue[i] & MAX];
+            }
+        });
+        return result;
+    }
+
+    /**
+     * <p>
+     * Convolve the image the way {@link ConvolveOp} with
+     * {@link ConvolveOp#EDGE_NO_OP} does, after adding a transparent border.
+     * </p>
+     *
+     * <p>
+     * This gives the same result as the 8 bit versions of the filters, which
+     * add a border of transparent pixels to the image and convolve it with a
+     * {@link ConvolveOp}. All four channels are convolved separately, so pixels
+     * near the edge fade into the border. Pixels too close to the edge of the
+     * bordered image for the kernel to fit are left unchanged.
+     * </p>
+     *
+     * @param kernel  The kernel values, in rows of {@code size}.
+     * @param size    The width and height of the kernel, an odd number.
+     * @param padding The width of the border to add.
+     * @return A new image the same size.
+     */
+    HighPrecisionImage convolve(float[] kernel, int size, int padding) {
+        int half = size / 2;
+        HighPrecisionImage result = new HighPrecisionImage(width, height);
+        IntStream.range(0, height).parallel().forEach(y -> {
+            float[] sums = new float[4];
+            for (int x = 0; x < width; x++) {
+                if (isEdge(x, y, half, padding)) {
+                    copyPixel(result, y * width + x);
+                    continue;
+                }
+                Arrays.fill(sums, 0);
+                for (int j = 0; j < size; j++) {
+                    int sourceY = y + half - j;
+                    if (sourceY < 0 || sourceY >= height) {
+                        continue;
+                    }
+                    for (int i = 0; i < size; i++) {
+                        int sourceX = x + half - i;
+                        float weight = kernel[j * size + i];
+                        if (weight != 0 && sourceX >= 0 && sourceX < width) {
+                            accumulate(sums, sourceY * width + sourceX, weight);
+                        }
+                    }
+                }
+                result.setSums(y * width + x, sums);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * <p>
+     * Convolve the image with a separable kernel the way {@link ConvolveOp} with
+     * {@link ConvolveOp#EDGE_NO_OP} does, after adding a transparent border.
+     * </p>
+     *
+     * <p>
+     * This gives the same result as {@link #convolve(float[], int, int)} with the
+     * kernel whose value at {@code (i, j)} is {@code kernel[i] * kernel[j]}, such
+     * as a Gaussian or mean kernel, but costs two multiplies per kernel value
+     * per pixel rather than one per value squared. The image is convolved along
+     * rows then along columns, in strips of rows in parallel.
+     * </p>
+     *
+     * @param kernel  The values along one side of the kernel, an odd number.
+     * @param padding The width of the border to add.
+     * @return A new image the same size.
+     */
+    HighPrecisionImage convolveSeparable(float[] kernel, int padding) {
+        int size = kernel.length;
+        int half = size / 2;
+        HighPrecisionImage result = new HighPrecisionImage(width, height);
+        int strips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        IntStream.range(0, strips).parallel().forEach(strip -> {
+            int top = strip * STRIP_HEIGHT;
+            int bottom = Math.min(top + STRIP_HEIGHT, height);
+            // Source rows that any output row of the strip reads
+            int first = Math.max(0, top + half - (size - 1));
+            int last = Math.min(height, bottom + half);
+            int rows = Math.max(0, last - first);
+
+            // Each source row convolved along the row, one plane after another
+            float[] horizontal = new float[4 * rows * width];
+            float[] sums = new float[4];
+            for (int row = 0; row < rows; row++) {
+                int sourceRow = (first + row) * width;
+                for (int x = 0; x < width; x++) {
+                    Arrays.fill(sums, 0);
+                    for (int i = 0; i < size; i++) {
+                        int sourceX = x + half - i;
+                        if (sourceX >= 0 && sourceX < width) {
+                            accumulate(sums, sourceRow + sourceX, kernel[i]);
+                        }
+                    }
+                    for (int c = 0; c < 4; c++) {
+                        horizontal[(c * rows + row) * width + x] = sums[c];
+                    }
+                }
+            }
+
+            for (int y = top; y < bottom; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (isEdge(x, y, half, padding)) {
+                        copyPixel(result, y * width + x);
+                        continue;
+                    }
+                    Arrays.fill(sums, 0);
+                    for (int j = 0; j < size; j++) {
+                        int row = y + half - j - first;
+                        if (row >= 0 && row < rows) {
+                            for (int c = 0; c < 4; c++) {
+                                sums[c] += horizontal[(c * rows + row) * width + x] * kernel[j];
+                            }
+                        }
+                    }
+                    result.setSums(y * width + x, sums);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * <p>
+     * Check whether a pixel is too close to the edge of the bordered image for a
+     * kernel to fit.
+     * </p>
+     *
+     * @param x       The column of the pixel.
+     * @param y       The row of the pixel.
+     * @param half    Half the size of the kernel, rounded down.
+     * @param padding The width of the border.
+     * @return True if the kernel would reach past the edge.
+     */
+    private boolean isEdge(int x, int y, int half, int padding) {
+        return x + padding < half || y + padding < half || x + padding >= width + padding * 2 - half
+                || y + padding >= height + padding * 2 - half;
+    }
+
+    /**
+     * <p>
+     * Copy a pixel to another image the same size.
+     * </p>
+     *
+     * @param result The image to copy to.
+     * @param i      The index of the pixel.
+     */
+    private void copyPixel(HighPrecisionImage result, int i) {
+        result.red[i] = red[i];
+        result.green[i] = green[i];
+        result.blue[i] = blue[i];
+        result.alpha[i] = alpha[i];
+    }
+
+    /**
+     * <p>
+     * Add a weighted pixel to running sums.
+     * </p>
+     *
+     * @param sums   The sums of red, green, blue and alpha, added to.
+     * @param i      The index of the pixel.
+     * @param weight The weight to give it.
+     */
+    private void accumulate(float[] sums, int i, float weight) {
+        sums[0] += (red[i] & MAX) * weight;
+        sums[1] += (green[i] & MAX) * weight;
+        sums[2] += (blue[i] & MAX) * weight;
+        sums[3] += (alpha[i] & MAX) * weight;
+    }
+
+    /**
+     * <p>
+     * Set a pixel from sums of weighted pixels.
+     * </p>
+     *
+     * @param i    The index of the pixel.
+     * @param sums The red, green, blue and alpha sums.
+     */
+    private void setSums(int i, float[] sums) {
+        red[i] = clamp(sums[0]);
+        green[i] = clamp(sums[1]);
+        blue[i] = clamp(sums[2]);
+        alpha[i] = clamp(sums[3]);
+    }
+
+    /**
+     * <p>
+     * Round a channel value and clamp it to [0, 65535].
+     * </p>
+     *
+     * @param value The channel value.
+     * @return The rounded and clamped value, as stored in a plane.
+     */
+    static short clamp(double value) {
+        long rounded = Math.round(value);
+        return (short) (rounded < 0 ? 0 : (rounded > MAX ? MAX : rounded));
+    }
+}
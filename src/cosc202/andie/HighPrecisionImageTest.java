@@ -0,0 +1,92 @@
+package cosc202.andie;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.Random;
+
+public class HighPrecisionImageTest {
+    private static final int WIDTH = 61;
+    private static final int HEIGHT = 47;
+
+    private static BufferedImage randomImage(boolean alpha) {
+        Random random = new Random(WIDTH * HEIGHT);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb = random.nextInt();
+                image.setRGB(x, y, alpha ? rgb : 0xFF000000 | rgb);
+            }
+        }
+        return image;
+    }
+
+    private static int[] samples(BufferedImage image) {
+        return image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+    }
+
+    @Test
+    void sixteenBitSamplesKept() {
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false,
+                Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = model.createCompatibleWritableRaster(WIDTH, HEIGHT);
+        Random random = new Random(WIDTH * HEIGHT);
+        int[] samples = new int[WIDTH * HEIGHT * 4];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextInt(65536);
+        }
+        raster.setPixels(0, 0, WIDTH, HEIGHT, samples);
+        BufferedImage image = new BufferedImage(model, raster, false, null);
+
+        Assertions.assertTrue(HighPrecisionImage.isHighPrecision(image));
+        Assertions.assertArrayEquals(samples, samples(HighPrecisionImage.fromImage(image).toImage()));
+    }
+
+    @Test
+    void eightBitSpreadOverSixteen() {
+        BufferedImage image = randomImage(true);
+        HighPrecisionImage precise = HighPrecisionImage.fromImage(image);
+
+        int[] expected = samples(image);
+        int[] actual = samples(precise.toImage());
+        Assertions.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assertions.assertEquals(expected[i] * 257, actual[i]);
+        }
+        Assertions.assertArrayEquals(image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH),
+                precise.toArgb().getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+    }
+
+    // Each 16 bit kernel rounds where the 8 bit one truncates or rounds at each
+    // step, so they may differ, but never by more than one level
+    private static void assertMatchesEightBit(HighPrecisionOperation op) {
+        BufferedImage image = randomImage(false);
+        BufferedImage expected = op.apply(image);
+        BufferedImage actual = op.apply(HighPrecisionImage.fromImage(image)).toArgb();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int difference = Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                    Assertions.assertTrue(difference <= 1, op.getClass().getSimpleName() + " pixel " + x + "," + y
+                            + " differs by " + difference);
+                }
+            }
+        }
+    }
+
+    @Test
+    void operationsMatchEightBit() {
+        assertMatchesEightBit(new BrightnessContrast(20, -10));
+        assertMatchesEightBit(new InvertColour());
+        assertMatchesEightBit(new ConvertToGrey());
+        assertMatchesEightBit(new GaussianBlur(2));
+        assertMatchesEightBit(new MeanFilter(1));
+        assertMatchesEightBit(new SoftBlur());
+        assertMatchesEightBit(new SharpenFilter());
+    }
+}
@@ -0,0 +1,56 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for operations that can also be applied at 16 bits per channel.
+ * </p>
+ *
+ * <p>
+ * In high precision mode, {@link EditableImage} keeps the image as a
+ * {@link HighPrecisionImage} and applies operations that implement this
+ * interface to it directly, so their results are not rounded to 8 bits. Other
+ * operations are applied to the 8 bit image that is shown, and their result is
+ * copied back, so only the area they change loses precision. The high precision
+ * version of an operation should give the same result as the 8 bit version,
+ * apart from the rounding.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#setHighPrecision(boolean)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public interface HighPrecisionOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Apply the operation to a 16 bit image.
+     * </p>
+     *
+     * @param input The image to apply the operation to. This must not be
+     *              changed.
+     * @return A new image with the result.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input);
+
+    /**
+     * <p>
+     * Check whether the operation can be applied at 16 bits per channel.
+     * </p>
+     *
+     * <p>
+     * Operations that wrap another, such as {@link RegionOperation}, can only be
+     * if the one they wrap can.
+     * </p>
+     *
+     * @return True if {@link #apply(HighPrecisionImage)} can be used. This is the
+     *         default.
+     */
+    public default boolean hasHighPrecision() {
+        return true;
+    }
+}
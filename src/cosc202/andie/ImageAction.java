@@ -1,5 +1,6 @@
 package cosc202.andie;
 
+import java.awt.Rectangle;
 import javax.swing.*;
 
 /**
@@ -83,4 +84,40 @@ public abstract class ImageAction extends AbstractAction {
         return target;
     }
 
+    /**
+     * <p>
+     * Limit an operation to the selected area of the target, if there is one.
+     * </p>
+     * 
+     * @param op The operation the user chose.
+     * @return The operation wrapped in a {@link RegionOperation} for the current
+     *         selection, or the operation itself if nothing is selected.
+     * @see ImagePanel#getSelection()
+     */
+    protected static ImageOperation inSelection(ImageOperation op) {
+        Rectangle selection = target.getSelection();
+        return selection == null ? op : new RegionOperation(op, selection);
+    }
+
+
+    /**
+     * <p>
+     * Preview an operation on the target, limited to the selection if there is
+     * one.
+     * </p>
+     * 
+     * <p>
+     * A rough result is shown straight away and the full result is filled in
+     * as it is worked out, starting with the part of the image that can be
+     * seen, so slow filters on large images still respond at once.
+     * </p>
+     * 
+     * @param op The operation the user chose.
+     * @see EditableImage#tempApplyProgressive(ImageOperation, Rectangle,
+     *      java.util.function.Consumer)
+     */
+    protected static void preview(ImageOperation op) {
+        target.getImage().tempApplyProgressive(inSelection(op), target.getVisibleImageArea(),
+                region -> target.repaint(target.imageToPanel(region)));
+    }
 }
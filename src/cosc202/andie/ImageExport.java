@@ -0,0 +1,405 @@
+package cosc202.andie;
+
+import java.awt.Component;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntConsumer;
+import javax.imageio.*;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.*;
+
+/**
+ * <p>
+ * Writes a copy of an image to a file in the background.
+ * </p>
+ *
+ * <p>
+ * Encoding a large image can take seconds, which used to freeze ANDIE until it
+ * finished. Instead, the image is copied as it is when the export starts, and
+ * the copy is encoded on a background thread while the user carries on, with a
+ * progress bar if it takes long enough to need one. Any conversion the file
+ * format needs, such as removing transparency for a JPEG, is done to the copy
+ * as it is encoded, so it never becomes part of the image's history.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#export(String, File)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class ImageExport extends SwingWorker<Void, Void> {
+
+    /** The informal name of the file format, e.g. png or jpg. */
+    private final String format;
+    /** The file to write to. */
+    private final File file;
+    /** A copy of the image to write. */
+    private final BufferedImage image;
+    /** A copy of the image at 16 bits per channel, or null if there is none. */
+    private final HighPrecisionImage precise;
+    /** The frames of an animated GIF, or null if it is not animated. */
+    private final AnimatedGif animation;
+    /** The operations to apply to the other frames of an animation. */
+    private final List<ImageOperation> ops;
+    /** The type the original image was decoded as. */
+    private final int sourceType;
+    /** Shows how far through the export is, or null if nothing does. */
+    private ProgressMonitor monitor;
+
+    /**
+     * <p>
+     * Create a background job to write an image.
+     * </p>
+     *
+     * @param format     The informal name of the file format, e.g. png or jpg.
+     * @param file       The file to write to.
+     * @param image      The image to write. This must not be changed while it is
+     *                   written.
+     * @param precise    The image at 16 bits per channel, or null if there is
+     *                   none. This must not be changed while it is written.
+     * @param animation  The frames of an animated GIF, or null if it is not
+     *                   animated.
+     * @param ops        The operations to apply to the other frames of an
+     *                   animation, in order.
+     * @param sourceType The type the original image was decoded as.
+     */
+    ImageExport(String format, File file, BufferedImage image, HighPrecisionImage precise, AnimatedGif animation,
+            List<ImageOperation> ops, int sourceType) {
+        this.format = format;
+        this.file = file;
+        this.image = image;
+        this.precise = precise;
+        this.animation = animation;
+        this.ops = new ArrayList<ImageOperation>(ops);
+        this.sourceType = sourceType;
+    }
+
+    /**
+     * <p>
+     * Start writing the image in the background, showing a progress bar over a
+     * component if it takes more than a moment.
+     * </p>
+     *
+     * <p>
+     * Cancelling the progress bar stops the export and deletes the unfinished
+     * file. This must be called on the EDT.
+     * </p>
+     *
+     * @param parent The component to show the progress bar over.
+     */
+    void start(Component parent) {
+        ResourceBundle bundle = ResourceBundle.getBundle("cosc202.andie.LanguageResources.LanguageBundle");
+        monitor = new ProgressMonitor(parent, bundle.getString("exporting"), file.getName(), 0, 100);
+        addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName()) && monitor != null) {
+                monitor.setProgress((Integer) event.getNewValue());
+                if (monitor.isCanceled()) {
+                    cancel(true);
+                }
+            }
+        });
+        execute();
+    }
+
+    /**
+     * <p>
+     * Write the image on a background thread.
+     * </p>
+     *
+     * @return Nothing.
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    protected Void doInBackground() throws IOException {
+        boolean finished = false;
+        try {
+            write(this::setProgress);
+            finished = !isCancelled();
+        } finally {
+            if (!finished) {
+                file.delete();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Close the progress bar and show any error, on the EDT.
+     * </p>
+     */
+    @Override
+    protected void done() {
+        if (monitor != null) {
+            monitor.close();
+        }
+        if (isCancelled()) {
+            return;
+        }
+        try {
+            get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Tools.errorMessage(e, "fileExportError");
+        }
+    }
+
+    /**
+     * <p>
+     * Write the image to the file on this thread.
+     * </p>
+     *
+     * <p>
+     * An animated GIF exported as a GIF keeps all of its frames, with the
+     * operations applied to each. Any other format only holds the first frame.
+     * Formats that can hold 16 bits per channel are written with them if there
+     * is a 16 bit image.
+     * </p>
+     *
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(IntConsumer progress) throws IOException {
+        if (animation != null && format.equalsIgnoreCase("gif")) {
+            animation.write(file, image, ops, progress);
+        } else if (precise == null || !writePrecise(progress)) {
+            writeImage(image, format, file, sourceType, progress);
+        }
+    }
+
+    /**
+     * <p>
+     * Write the 16 bit image to the file, if the file format can hold it, such
+     * as PNG, TIFF or PPM.
+     * </p>
+     *
+     * @param progress Told the percentage of the image written as it goes.
+     * @return True if the image was written, false if the format cannot hold
+     *         16 bits per channel.
+     * @throws IOException If the file cannot be written.
+     */
+    private boolean writePrecise(IntConsumer progress) throws IOException {
+        if (format.equalsIgnoreCase("png")) {
+            PngWriter.write(precise, file, progress);
+            return true;
+        }
+        if (PnmFile.isFormat(format)) {
+            PnmFile.write(precise, format, file, progress);
+            return true;
+        }
+        BufferedImage output = precise.toImage();
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext() || !writers.next().getOriginatingProvider().canEncodeImage(output)) {
+            return false;
+        }
+        file.delete();
+        encode(output, format, file, progress);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Encode an image to a file.
+     * </p>
+     *
+     * <p>
+     * PNG files are written by {@link PngWriter}, which is much faster for large
+     * images, and PNM files by {@link PnmFile}. Other formats are converted by
+     * {@link #convert} and written by the standard writer.
+     * </p>
+     *
+     * @param image      The image to write. This is not changed.
+     * @param format     The informal name of the file format, e.g. png or jpg.
+     * @param file       The file to write to.
+     * @param sourceType The type the original image was decoded as.
+     * @param progress   Told the percentage of the image written as it goes.
+     * @throws IOException If there is no writer for the format, or the file
+     *                     cannot be written.
+     */
+    static void writeImage(BufferedImage image, String format, File file, int sourceType, IntConsumer progress)
+            throws IOException {
+        if (format.equalsIgnoreCase("png")) {
+            PngWriter.write(image, file, progress);
+        } else if (PnmFile.isFormat(format)) {
+            PnmFile.write(image, format, file, progress);
+        } else {
+            file.delete();
+            encode(convert(image, format, sourceType), format, file, progress);
+        }
+    }
+
+    /**
+     * <p>
+     * Encode an image to a stream, such as a network connection.
+     * </p>
+     *
+     * @param image      The image to write. This is not changed.
+     * @param format     The informal name of the file format, e.g. png or jpg.
+     * @param stream     The stream to write to. It is flushed but not closed.
+     * @param sourceType The type the original image was decoded as.
+     * @param progress   Told the percentage of the image written as it goes.
+     * @throws IOException If there is no writer for the format, or the stream
+     *                     cannot be written.
+     * @see #writeImage(BufferedImage, String, File, int, IntConsumer)
+     */
+    static void writeImage(BufferedImage image, String format, OutputStream stream, int sourceType,
+            IntConsumer progress) throws IOException {
+        if (format.equalsIgnoreCase("png")) {
+            PngWriter.write(image, stream, progress);
+        } else if (PnmFile.isFormat(format)) {
+            PnmFile.write(image, format, Channels.newChannel(stream), progress);
+        } else {
+            encode(convert(image, format, sourceType), format, stream, progress);
+        }
+        stream.flush();
+    }
+
+    /**
+     * <p>
+     * Convert an image to a type the standard writer for a file format can
+     * encode.
+     * </p>
+     *
+     * <p>
+     * The type the original image was decoded as is preferred, so that for
+     * example a JPEG is written from 8 bit BGR data, as long as it would not lose
+     * transparency the image has gained since. Otherwise ARGB is used if the
+     * format supports transparency, and RGB if not, with fully transparent pixels
+     * made white as {@link RemoveTransparency} does.
+     * </p>
+     *
+     * @param image      The image to convert. This is not changed.
+     * @param format     The informal name of the file format, e.g. jpg.
+     * @param sourceType The type the original image was decoded as.
+     * @return The image, or a converted copy of it.
+     * @throws IOException If there is no writer for the format, or it cannot
+     *                     encode the image.
+     */
+    private static BufferedImage convert(BufferedImage image, String format, int sourceType) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for format " + format);
+        }
+        ImageWriterSpi writer = writers.next().getOriginatingProvider();
+
+        boolean opaque = true;
+        int[] pixels = ImagePixels.getPixels(image);
+        for (int argb : pixels) {
+            if ((argb >>> 24) != 0xFF) {
+                opaque = false;
+                break;
+            }
+        }
+
+        List<Integer> candidates = new ArrayList<Integer>();
+        if (sourceType == BufferedImage.TYPE_INT_BGR || sourceType == BufferedImage.TYPE_3BYTE_BGR
+                || sourceType == BufferedImage.TYPE_4BYTE_ABGR) {
+            candidates.add(sourceType);
+        }
+        candidates.add(BufferedImage.TYPE_INT_ARGB);
+        candidates.add(BufferedImage.TYPE_INT_RGB);
+
+        for (int type : candidates) {
+            ImageTypeSpecifier specifier = ImageTypeSpecifier.createFromBufferedImageType(type);
+            boolean alpha = specifier.getColorModel().hasAlpha();
+            if ((!alpha && !opaque && type != BufferedImage.TYPE_INT_RGB) || !writer.canEncodeImage(specifier)) {
+                // Only fall back to dropping transparency if nothing else works
+                continue;
+            }
+
+            BufferedImage output = image;
+            if (image.getType() != type) {
+                if (!alpha) {
+                    // Fully transparent pixels become white, as in RemoveTransparency
+                    for (int i = 0; i < pixels.length; i++) {
+                        if ((pixels[i] >>> 24) == 0) {
+                            pixels[i] = 0xFFFFFFFF;
+                        }
+                    }
+                }
+                output = new BufferedImage(image.getWidth(), image.getHeight(), type);
+                ImagePixels.setPixels(output, pixels);
+            }
+            return output;
+        }
+        throw new IOException("Image cannot be encoded as " + format);
+    }
+
+    /**
+     * <p>
+     * Encode an image with the standard writer for a file format.
+     * </p>
+     *
+     * <p>
+     * The writer's progress is passed on, and it is stopped if the thread is
+     * interrupted.
+     * </p>
+     *
+     * @param image       The image, of a type the writer can encode.
+     * @param format      The informal name of the file format, e.g. jpg.
+     * @param destination The {@link File} or {@link OutputStream} to write to.
+     * @param progress    Told the percentage of the image written as it goes.
+     * @throws IOException If the destination cannot be written, or writing is
+     *                     interrupted.
+     */
+    private static void encode(BufferedImage image, String format, Object destination, IntConsumer progress)
+            throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image),
+                format);
+        if (!writers.hasNext()) {
+            throw new IOException("Could not write image as " + format);
+        }
+        ImageWriter writer = writers.next();
+        writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+            public void imageStarted(ImageWriter source, int imageIndex) {
+            }
+
+            public void imageProgress(ImageWriter source, float percentageDone) {
+                progress.accept(Math.min(100, (int) percentageDone));
+                if (Thread.currentThread().isInterrupted()) {
+                    source.abort();
+                }
+            }
+
+            public void imageComplete(ImageWriter source) {
+                progress.accept(100);
+            }
+
+            public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+            }
+
+            public void thumbnailProgress(ImageWriter source, float percentageDone) {
+            }
+
+            public void thumbnailComplete(ImageWriter source) {
+            }
+
+            public void writeAborted(ImageWriter source) {
+            }
+        });
+
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(destination)) {
+            if (out == null) {
+                throw new IOException("Could not open " + destination);
+            }
+            writer.setOutput(out);
+            writer.write(image);
+        } finally {
+            writer.dispose();
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted while writing " + destination);
+        }
+    }
+}
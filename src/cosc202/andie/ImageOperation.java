@@ -1,5 +1,6 @@
 package cosc202.andie;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -38,5 +39,47 @@ public interface ImageOperation {
      * @param input The image to apply the operation to
      * @return The image resulting from the operation
      */
-    public BufferedImage apply(BufferedImage input);    
+    public BufferedImage apply(BufferedImage input);
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * <p>
+     * An operation whose result at a pixel depends only on the input pixels
+     * within this distance can be applied to part of an image, along with a
+     * border this wide, and give the same result there as for the whole image.
+     * See {@link RegionOperation}. Point operations such as colour changes
+     * return 0.
+     * </p>
+     *
+     * @return The distance in pixels, or -1 if the result may depend on the
+     *         whole image. This is the default.
+     */
+    public default int getNeighbourhoodRadius() {
+        return -1;
+    }
+
+    /**
+     * <p>
+     * Get the part of an image the operation changes.
+     * </p>
+     *
+     * <p>
+     * Operations that only change a small area, such as drawing a shape, report
+     * it here so that {@link EditableImage} can keep a copy of just that area
+     * from before the operation and undo it by putting the copy back, rather than
+     * applying every other operation again. An operation that reports a region
+     * must not change the size of the image.
+     * </p>
+     *
+     * @param width  The width of the image the operation will be applied to.
+     * @param height The height of the image the operation will be applied to.
+     * @return The area that may change, clipped to the image, or null if the
+     *         whole image may change. This is the default.
+     */
+    public default Rectangle getAffectedRegion(int width, int height) {
+        return null;
+    }
 }
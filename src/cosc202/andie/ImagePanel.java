@@ -1,6 +1,8 @@
 package cosc202.andie;
 
 import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
 import javax.swing.*;
 
 /**
@@ -24,6 +26,21 @@ import javax.swing.*;
  */
 public class ImagePanel extends JPanel {
 
+    /** The largest zoom level allowed, as a percentage. */
+    public static final double MAX_ZOOM = 1600;
+
+    /**
+     * The most pixels to keep in {@link cache} when caching the whole scaled
+     * image. Larger scaled images are cached a viewport at a time.
+     */
+    private static final int FULL_CACHE_PIXELS = 8 << 20;
+
+    /** How far beyond the viewport to render, so small scrolls reuse the cache. */
+    private static final int CACHE_MARGIN = 256;
+
+    /** The colour laid over the parts of the image outside a crop. */
+    private static final Color CROP_DIM = new Color(0, 0, 0, 128);
+
     /**
      * The image to display in the ImagePanel.
      */
@@ -43,6 +60,27 @@ public class ImagePanel extends JPanel {
      */
     private double scale;
 
+    /**
+     * The selected area in image coordinates, or null if nothing is selected.
+     * Filters and colour changes are limited to this area.
+     */
+    private Rectangle selection;
+
+    /**
+     * The image scaled to the current zoom level, in a format that is quick to
+     * draw on screen. This covers {@link cacheArea}, not necessarily the whole
+     * image.
+     */
+    private BufferedImage cache;
+    /** The area of the panel, in zoomed coordinates, covered by {@link cache}. */
+    private Rectangle cacheArea;
+    /** The image {@link cache} was made from. */
+    private BufferedImage cacheSource;
+    /** The revision of the image {@link cache} was made from. */
+    private long cacheRevision;
+    /** The zoom level {@link cache} was made at. */
+    private double cacheScale;
+
     /**
      * <p>
      * Create a new ImagePanel.
@@ -79,6 +117,36 @@ public class ImagePanel extends JPanel {
         this.image = image;
     }
 
+    /**
+     * <p>
+     * Get the selected area of the image.
+     * </p>
+     * 
+     * @return The selected area in image coordinates, clipped to the image, or
+     *         null if nothing is selected or the selection no longer overlaps
+     *         the image.
+     */
+    public Rectangle getSelection() {
+        if (selection == null || !image.hasImage()) {
+            return null;
+        }
+        BufferedImage current = image.getCurrentImage();
+        Rectangle clipped = selection.intersection(new Rectangle(0, 0, current.getWidth(), current.getHeight()));
+        return clipped.isEmpty() ? null : clipped;
+    }
+
+    /**
+     * <p>
+     * Set the selected area of the image.
+     * </p>
+     * 
+     * @param selection The area to select in image coordinates, or null to clear
+     *                  the selection.
+     */
+    public void setSelection(Rectangle selection) {
+        this.selection = selection == null ? null : new Rectangle(selection);
+    }
+
     /**
      * <p>
      * Get the current zoom level as a percentage.
@@ -103,7 +171,9 @@ public class ImagePanel extends JPanel {
      * <p>
      * The percentage zoom is used for the external interface, where 100% is the
      * original size, 50% is half-size, etc.
-     * The zoom level is restricted to the range [50, 200].
+     * The zoom level is restricted to the range [0, {@link MAX_ZOOM}]. Only the
+     * visible part of the image is drawn, so high zoom levels are no slower than
+     * low ones.
      * </p>
      * 
      * @param zoomPercent The new zoom level as a percentage.
@@ -112,8 +182,8 @@ public class ImagePanel extends JPanel {
         if (zoomPercent < 0) {
             zoomPercent = 0;
         }
-        if (zoomPercent > 200) {
-            zoomPercent = 200;
+        if (zoomPercent > MAX_ZOOM) {
+            zoomPercent = MAX_ZOOM;
         }
         scale = zoomPercent / 100;
     }
@@ -145,25 +215,62 @@ public class ImagePanel extends JPanel {
      * (Re)draw the component in the GUI.
      * </p>
      * 
+     * <p>
+     * Only the part of the image inside both the viewport of the scroll pane and
+     * the area being repainted is drawn. It is copied from {@link cache}, which is
+     * made again only when the image, the zoom level or the visible area
+     * changes, so repainting while dragging out a crop or a shape does not scale
+     * the image again. When only part of the image changes, as it does while
+     * drawing, only that part of the cache is scaled again.
+     * </p>
+     * 
      * @param g The Graphics component to draw the image on.
      */
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
         if (image.hasImage()) {
-            Graphics2D g2 = (Graphics2D) g.create();
-            g2.scale(scale, scale);
-            g2.drawImage(image.getCurrentImage(), null, 0, 0);
-            g2.dispose();
+            Rectangle area = getVisibleRect();
+            Rectangle clip = g.getClipBounds();
+            if (clip != null) {
+                area = area.intersection(clip);
+            }
+            area = area.intersection(scaledBounds());
+            if (!area.isEmpty()) {
+                if (!cacheCovers(area) && !updateCacheRegion(area)) {
+                    updateCache();
+                }
+                g.drawImage(cache, cacheArea.x, cacheArea.y, null);
+            }
 
-            if (ViewActions.CropAction.crop) {
-                int width = Math.abs(ViewActions.CropAction.endX - ViewActions.CropAction.startX);
-                int height = Math.abs(ViewActions.CropAction.endY - ViewActions.CropAction.startY);
-                int startX = Math.min(ViewActions.CropAction.startX, ViewActions.CropAction.endX);
-                int startY = Math.min(ViewActions.CropAction.startY, ViewActions.CropAction.endY);
+            Rectangle selected = getSelection();
+            if (selected != null) {
+                // Marching ants: a black dashed outline over a white one, visible
+                // on any colour
                 Graphics2D g2d = (Graphics2D) g.create();
-                g2d.setColor(new Color(255, 255, 255, 128));
-                g2d.fillRect(startX, startY, width, height);
+                int x = (int) Math.round(selected.x * scale);
+                int y = (int) Math.round(selected.y * scale);
+                int width = (int) Math.round((selected.x + selected.width) * scale) - x - 1;
+                int height = (int) Math.round((selected.y + selected.height) * scale) - y - 1;
+                g2d.setColor(Color.WHITE);
+                g2d.drawRect(x, y, width, height);
+                g2d.setColor(Color.BLACK);
+                g2d.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10,
+                        new float[] { 4, 4 }, 0));
+                g2d.drawRect(x, y, width, height);
+                g2d.dispose();
+            }
+
+            if (ViewActions.CropAction.isCropping) {
+                // Dim everything but the area being cropped to
+                Area dimmed = new Area(scaledBounds());
+                if (ViewActions.CropAction.crop) {
+                    dimmed.subtract(new Area(ViewActions.CropAction.getBand()));
+                }
+                Graphics2D g2d = (Graphics2D) g.create();
+                g2d.setColor(CROP_DIM);
+                g2d.fill(dimmed);
+                g2d.dispose();
             }
             if (InsertActions.DrawShapesAction.drawShape) {
                 int width = Math.abs(InsertActions.DrawShapesAction.endX - InsertActions.DrawShapesAction.startX);
@@ -209,4 +316,192 @@ public class ImagePanel extends JPanel {
 
     }
 
+    /**
+     * <p>
+     * Get the area the image covers at the current zoom level.
+     * </p>
+     * 
+     * @return The bounds of the zoomed image, in panel coordinates.
+     */
+    private Rectangle scaledBounds() {
+        BufferedImage current = image.getCurrentImage();
+        return new Rectangle((int) Math.ceil(current.getWidth() * scale),
+                (int) Math.ceil(current.getHeight() * scale));
+    }
+
+    /**
+     * <p>
+     * Check whether {@link cache} is up to date and covers an area.
+     * </p>
+     * 
+     * @param area The area to draw, in panel coordinates.
+     * @return True if the area can be drawn from the cache.
+     */
+    private boolean cacheCovers(Rectangle area) {
+        return cache != null && cacheSource == image.getCurrentImage() && cacheRevision == image.getRevision()
+                && cacheScale == scale && cacheArea.contains(area);
+    }
+
+    /**
+     * <p>
+     * Scale the visible part of the image into {@link cache}.
+     * </p>
+     * 
+     * <p>
+     * If the whole scaled image is small enough it is cached, so scrolling never
+     * needs a new cache. Otherwise the viewport and a margin around it are.
+     * </p>
+     */
+    private void updateCache() {
+        Rectangle bounds = scaledBounds();
+        Rectangle area;
+        if ((long) bounds.width * bounds.height <= FULL_CACHE_PIXELS) {
+            area = bounds;
+        } else {
+            area = getVisibleRect();
+            area.grow(CACHE_MARGIN, CACHE_MARGIN);
+            area = area.intersection(bounds);
+        }
+
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        if (config != null) {
+            cache = config.createCompatibleImage(area.width, area.height, Transparency.TRANSLUCENT);
+        } else {
+            cache = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+
+        Graphics2D g2 = cache.createGraphics();
+        g2.translate(-area.x, -area.y);
+        drawScaled(g2, area);
+        g2.dispose();
+
+        cacheArea = area;
+        cacheSource = image.getCurrentImage();
+        cacheRevision = image.getRevision();
+        cacheScale = scale;
+    }
+
+    /**
+     * <p>
+     * Bring {@link cache} up to date by scaling only the part of the image that
+     * has changed since it was made.
+     * </p>
+     * 
+     * <p>
+     * This is possible when the image knows which area changed, as it does for
+     * drawing, so each segment of a brush stroke costs only as much as the
+     * segment.
+     * </p>
+     * 
+     * @param area The area to draw, in panel coordinates.
+     * @return True if the cache is now up to date and covers the area, false if
+     *         it needs to be made again.
+     */
+    private boolean updateCacheRegion(Rectangle area) {
+        if (cache == null || cacheScale != scale || !cacheArea.contains(area)) {
+            return false;
+        }
+        BufferedImage current = image.getCurrentImage();
+        if (current.getWidth() != cacheSource.getWidth() || current.getHeight() != cacheSource.getHeight()) {
+            return false;
+        }
+        Rectangle changed = image.getChangedRegion(cacheRevision);
+        if (changed == null) {
+            return false;
+        }
+
+        Rectangle dirty = imageToPanel(changed).intersection(cacheArea);
+        if (!dirty.isEmpty()) {
+            Graphics2D g2 = cache.createGraphics();
+            g2.translate(-cacheArea.x, -cacheArea.y);
+            g2.clip(dirty);
+            // Drawn from the same part of the image as the whole cache, so that
+            // pixels on the edges of the area round the same way
+            drawScaled(g2, cacheArea);
+            g2.dispose();
+        }
+
+        cacheSource = current;
+        cacheRevision = image.getRevision();
+        return true;
+    }
+
+    /**
+     * <p>
+     * Draw the part of the image under an area of the panel, zoomed.
+     * </p>
+     * 
+     * <p>
+     * When zoomed out, the image is drawn from the smallest level of its
+     * {@link EditableImage#getMipmap(int) mipmap pyramid} that is still at least
+     * the zoomed size, and smoothed for the rest of the way. This takes the same
+     * time however large the image is, and does not alias. When zoomed in,
+     * pixels are drawn as sharp squares. The pixels drawn replace whatever was
+     * there.
+     * </p>
+     * 
+     * @param g2   The graphics to draw with, in panel coordinates.
+     * @param area The area to draw, in panel coordinates.
+     */
+    private void drawScaled(Graphics2D g2, Rectangle area) {
+        int level = 0;
+        while (scale > 0 && scale * (2 << level) <= 1) {
+            level++;
+        }
+        BufferedImage current = image.getMipmap(level);
+        // Odd sizes are rounded up when halving, so each axis has its own scale
+        double scaleX = scale * image.getCurrentImage().getWidth() / current.getWidth();
+        double scaleY = scale * image.getCurrentImage().getHeight() / current.getHeight();
+
+        // The part of the image under the area, with a pixel to spare for rounding
+        int sourceX = Math.max(0, (int) Math.floor(area.x / scaleX) - 1);
+        int sourceY = Math.max(0, (int) Math.floor(area.y / scaleY) - 1);
+        int sourceWidth = Math.min(current.getWidth(), (int) Math.ceil((area.x + area.width) / scaleX) + 1) - sourceX;
+        int sourceHeight = Math.min(current.getHeight(), (int) Math.ceil((area.y + area.height) / scaleY) + 1)
+                - sourceY;
+
+        Graphics2D g = (Graphics2D) g2.create();
+        if (scale < 1) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        g.setComposite(AlphaComposite.Src);
+        g.scale(scaleX, scaleY);
+        g.drawImage(current.getSubimage(sourceX, sourceY, sourceWidth, sourceHeight), sourceX, sourceY, null);
+        g.dispose();
+    }
+
+    /**
+     * <p>
+     * Get the part of the image that can be seen in the viewport.
+     * </p>
+     * 
+     * @return The visible area, in image coordinates, or null if there is no
+     *         image.
+     */
+    Rectangle getVisibleImageArea() {
+        if (!image.hasImage() || scale <= 0) {
+            return null;
+        }
+        Rectangle visible = getVisibleRect();
+        int x = (int) Math.floor(visible.x / scale);
+        int y = (int) Math.floor(visible.y / scale);
+        return new Rectangle(x, y, (int) Math.ceil((visible.x + visible.width) / scale) - x,
+                (int) Math.ceil((visible.y + visible.height) / scale) - y);
+    }
+
+    /**
+     * <p>
+     * Get the area of the panel an area of the image is drawn in.
+     * </p>
+     * 
+     * @param region An area of the image, in image coordinates.
+     * @return The area of the panel it covers at the current zoom level, with a
+     *         pixel to spare on each side for rounding and smoothing.
+     */
+    Rectangle imageToPanel(Rectangle region) {
+        int x = (int) Math.floor(region.x * scale) - 1;
+        int y = (int) Math.floor(region.y * scale) - 1;
+        return new Rectangle(x, y, (int) Math.ceil((region.x + region.width) * scale) + 1 - x,
+                (int) Math.ceil((region.y + region.height) * scale) + 1 - y);
+    }
 }
@@ -3,6 +3,7 @@ package cosc202.andie;
 import java.util.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import javax.swing.*;
 
 /**
@@ -88,7 +89,6 @@ public class InsertActions {
         static int endY = target.getHeight();
         static boolean drawShape = false;
         static boolean isDrawing = false;
-        static EditableImage image = target.getImage();
         public static String shape;
         public static Color colour;
         public static BasicStroke strokeSize;
@@ -124,16 +124,15 @@ public class InsertActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            if (isDrawing || image.getCurrentImage() == null) {
+            if (isDrawing || target.getImage().getCurrentImage() == null) {
                 return;
             }
             isDrawing = true;
-            EditableImage imageCopy = EditableImage.copyImage(image);
 
             double scale = target.getZoom() / 100;
 
-            target.setImage(imageCopy);
-
+            // Shapes are drawn straight onto the image the panel shows, which is
+            // read again for each stroke in case a filter has replaced it since
             target.repaint();
 
             shape = "freeDraw";
@@ -304,11 +303,21 @@ public class InsertActions {
                     endX = e.getX();
                     endY = e.getY();
                     drawShape = false;
-                    image.apply(
-                            new DrawShapes((int) (startX / scale), (int) (startY / scale), (int) (endX / scale),
-                                    (int) (endY / scale), shape, colour, strokeSize));
-
-                    target.repaint();
+                    Rectangle dirty = getPreviewBounds();
+                    DrawShapes op = new DrawShapes((int) (startX / scale), (int) (startY / scale),
+                            (int) (endX / scale), (int) (endY / scale), shape, colour, strokeSize);
+                    EditableImage image = target.getImage();
+                    image.apply(op);
+
+                    // Only the preview and the shape drawn in its place change
+                    BufferedImage current = image.getCurrentImage();
+                    Rectangle drawn = op.getAffectedRegion(current.getWidth(), current.getHeight());
+                    if (drawn == null) {
+                        target.repaint();
+                    } else {
+                        dirty.add(target.imageToPanel(drawn));
+                        target.repaint(dirty);
+                    }
 
                 }
             };
@@ -317,16 +326,24 @@ public class InsertActions {
 
             mouseMotionListener = new MouseMotionAdapter() {
                 public void mouseDragged(MouseEvent e) {
+                    // Only the area between the old and new previews changes
+                    Rectangle dirty = getPreviewBounds();
                     endX = e.getX();
                     endY = e.getY();
                     if (shape.equals("freeDraw")) {
-                        image.apply(
-                                new FreeDraw((int) (startX / scale), (int) (startY / scale), (int) (endX / scale),
-                                        (int) (endY / scale), colour, strokeSize));
+                        // Or, when drawing freehand, the new segment of the stroke
+                        FreeDraw op = new FreeDraw((int) (startX / scale), (int) (startY / scale),
+                                (int) (endX / scale), (int) (endY / scale), colour, strokeSize);
+                        EditableImage image = target.getImage();
+                        image.apply(op);
+                        BufferedImage current = image.getCurrentImage();
+                        dirty = target.imageToPanel(op.getAffectedRegion(current.getWidth(), current.getHeight()));
                         startX = endX;
                         startY = endY;
+                    } else {
+                        dirty.add(getPreviewBounds());
                     }
-                    target.repaint();
+                    target.repaint(dirty);
                 }
             };
 
@@ -361,10 +378,27 @@ public class InsertActions {
             Andie.frame.setVisible(true);
         }
 
+        /**
+         * <p>
+         * Get the area of the panel covered by the preview of the shape being
+         * dragged out.
+         * </p>
+         * 
+         * @return The bounds of the shape and its outline, in panel coordinates.
+         */
+        static Rectangle getPreviewBounds() {
+            Rectangle bounds = new Rectangle(Math.min(startX, endX), Math.min(startY, endY),
+                    Math.abs(endX - startX), Math.abs(endY - startY));
+            // The outline is centred on the edge, and its corners and ends stick
+            // out further than half its width
+            int margin = (int) Math.ceil(strokeSize.getLineWidth()) + 1;
+            bounds.grow(margin, margin);
+            return bounds;
+        }
+
         public static void stopDrawing() {
             Andie.frame.remove(toolbar);
             Andie.createToolBar();
-            target.setImage(image);
             target.repaint();
             target.getParent().revalidate();
             target.removeMouseListener(mouseListener);
@@ -392,7 +426,6 @@ public class InsertActions {
         static int endY = target.getHeight();
         static boolean text = false;
         static boolean isTexting = false;
-        static EditableImage image = target.getImage();
         public static Color colour;
         public static Font fontFull;
         static JToolBar toolbar;
@@ -426,15 +459,13 @@ public class InsertActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            if (isTexting || image.getCurrentImage() == null) {
+            if (isTexting || target.getImage().getCurrentImage() == null) {
                 return;
             }
 
             isTexting = true;
 
-            EditableImage imageCopy = EditableImage.copyImage(image);
-
-            target.setImage(imageCopy);
+            // Text is drawn straight onto the image the panel shows
 
             double scale = target.getZoom() / 100;
             toolbar = new JToolBar();
@@ -534,9 +565,8 @@ public class InsertActions {
                     }
 
                     // Add text
-                    image.apply(new Text((int) (startX / scale), (int) (startY / scale), colour, InsertActions.font,
-                            InsertActions.fontSize, userText));
-                    target.setImage(image);
+                    target.getImage().apply(new Text((int) (startX / scale), (int) (startY / scale), colour,
+                            InsertActions.font, InsertActions.fontSize, userText));
                     target.repaint();
                     target.getParent().revalidate();
 
@@ -547,9 +577,13 @@ public class InsertActions {
 
             mouseMotionListener = new MouseMotionAdapter() {
                 public void mouseDragged(MouseEvent e) {
+                    // Only the area between the old and new boxes changes
+                    Rectangle dirty = getBox();
                     endX = e.getX();
                     endY = e.getY();
-                    target.repaint();
+                    dirty.add(getBox());
+                    dirty.grow(1, 1);
+                    target.repaint(dirty);
                 }
             };
 
@@ -575,10 +609,21 @@ public class InsertActions {
 
         }
 
+        /**
+         * <p>
+         * Get the area of the panel covered by the box being dragged out.
+         * </p>
+         * 
+         * @return The box, in panel coordinates.
+         */
+        static Rectangle getBox() {
+            return new Rectangle(Math.min(startX, endX), Math.min(startY, endY), Math.abs(endX - startX),
+                    Math.abs(endY - startY));
+        }
+
         public static void stopTexting() {
             Andie.frame.remove(toolbar);
             Andie.createToolBar();
-            target.setImage(image);
             target.repaint();
             target.getParent().revalidate();
             target.removeMouseListener(mouseListener);
@@ -1,6 +1,5 @@
 package cosc202.andie;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 
 /**
@@ -20,7 +19,14 @@ import java.awt.image.BufferedImage;
  * @author Tristan Kitto
  * @version 1.0
  */
-public class InvertColour implements ImageOperation, java.io.Serializable {
+public class InvertColour implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version of the original InvertColour, so inversions in
+     * older .ops files still load.
+     */
+    private static final long serialVersionUID = 4016386490890849631L;
+
     
     /**
      * <p>
@@ -44,24 +50,42 @@ public class InvertColour implements ImageOperation, java.io.Serializable {
         int height = input.getHeight();
         
         BufferedImage output = new BufferedImage(width, height, input.getType());
-        
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int argb = input.getRGB(x, y);
-                
-                int a = (argb >> 24) & 0xFF;
-                int r = (argb >> 16) & 0xFF;
-                int g = (argb >> 8) & 0xFF;
-                int b = (argb) & 0xFF;
-                
-                Color colour = new Color(255 - r, 255 - g, 255 - b, a);
-                int invertedArgb = colour.getRGB();
-                
-                output.setRGB(x, y, invertedArgb);
-            }
+        int[] pixels = ImagePixels.getPixels(input);
+
+        // 255 - c for each colour channel is the same as flipping its bits,
+        // so the whole pixel can be inverted at once leaving alpha untouched
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] ^= 0x00FFFFFF;
         }
-        
+
+        ImagePixels.setPixels(output, pixels);
         return output;
     }
-    
+
+    /**
+     * <p>
+     * Apply colour inversion to a 16 bit image.
+     * </p>
+     * 
+     * @param input The image to be inverted.
+     * @return The resulting inverted image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        int[] table = new int[HighPrecisionImage.MAX + 1];
+        for (int c = 0; c <= HighPrecisionImage.MAX; c++) {
+            table[c] = HighPrecisionImage.MAX - c;
+        }
+        return input.map(table);
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 0, as each pixel is inverted on its own.
+     */
+    public int getNeighbourhoodRadius() {
+        return 0;
+    }
 }
@@ -21,7 +21,14 @@ import java.util.*;
  * @author Steven Mills
  * @version 1.0
  */
-public class MeanFilter implements ImageOperation, java.io.Serializable {
+public class MeanFilter implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version of the original MeanFilter, so mean filters saved
+     * before it worked on selections still load.
+     */
+    private static final long serialVersionUID = 5589744882475085057L;
+
     
     /**
      * The size of filter to apply. A radius of 1 is a 3x3 filter, a radius of 2 a 5x5 filter, and so forth.
@@ -96,5 +103,39 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
         return output;
     }
 
+    /**
+     * <p>
+     * Apply a Mean filter to a 16 bit image.
+     * </p>
+     * 
+     * <p>
+     * The same kernel and border are used as by {@link #apply(BufferedImage)},
+     * applied along the rows and then the columns.
+     * </p>
+     * 
+     * @param input The image to apply the Mean filter to.
+     * @return The resulting (blurred) image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        float[] kernel = new float[2 * radius + 1];
+        Arrays.fill(kernel, 1.0f / kernel.length);
+        return input.convolveSeparable(kernel, radius);
+    }
 
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * <p>
+     * The convolution is done on a padded copy of the image, which moves
+     * the result down and to the right by the radius, so each pixel of the
+     * result depends on pixels up to twice the radius away.
+     * </p>
+     *
+     * @return Twice the radius of the filter.
+     */
+    public int getNeighbourhoodRadius() {
+        return 2 * radius;
+    }
 }
@@ -24,6 +24,12 @@ import java.awt.Color;
  */
 public class MedianFilter implements ImageOperation, java.io.Serializable {
 
+    /**
+     * The serialization version of the original MedianFilter, so median filters
+     * saved before it worked on selections still load.
+     */
+    private static final long serialVersionUID = 8572293816647932802L;
+
     /**
      * The size of filter to apply. A radius of 1 is a 3x3 filter, a radius of 2 a
      * 5x5 filter, and so forth.
@@ -117,4 +123,15 @@ public class MedianFilter implements ImageOperation, java.io.Serializable {
         }
         return output;
     }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return The radius of the filter.
+     */
+    public int getNeighbourhoodRadius() {
+        return radius;
+    }
 }
@@ -0,0 +1,107 @@
+package cosc202.andie;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+
+public class OpsCompatibilityTest {
+    // The files in TestResources were saved by ANDIE before any of the
+    // operations changed, so .ops files people already have must still open
+
+    /** The operations in baseline.ops, in the order they were applied. */
+    private static final String[] BASELINE = { "BrightnessContrast", "InvertColour", "ConvertToGrey",
+            "GaussianBlur", "MeanFilter", "MedianFilter", "SoftBlur", "SharpenFilter", "Resize", "Crop",
+            "RemoveBackground", "Text", "FlipHorizontal" };
+
+    private static List<ImageOperation> load(String name) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                OpsCompatibilityTest.class.getResourceAsStream("TestResources/" + name + ".ops"))) {
+            @SuppressWarnings("unchecked")
+            Stack<ImageOperation> ops = (Stack<ImageOperation>) in.readObject();
+            return ops;
+        }
+    }
+
+    private static BufferedImage testImage() {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                boolean inside = x > 10 && x < 30 && y > 8 && y < 22;
+                image.setRGB(x, y, inside ? 0xFF204080 : 0xFFF0F0E0 + x % 3);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage apply(String name) throws Exception {
+        List<ImageOperation> ops = load(name);
+        Assertions.assertEquals(1, ops.size());
+        Assertions.assertEquals(name, ops.get(0).getClass().getSimpleName());
+        return ops.get(0).apply(testImage());
+    }
+
+    @Test
+    void cropKeepsCorners() throws Exception {
+        BufferedImage result = apply("Crop");
+        Assertions.assertEquals(28, result.getWidth());
+        Assertions.assertEquals(16, result.getHeight());
+    }
+
+    @Test
+    void resizeKeepsScale() throws Exception {
+        BufferedImage result = apply("Resize");
+        Assertions.assertEquals(20, result.getWidth());
+        Assertions.assertEquals(15, result.getHeight());
+    }
+
+    @Test
+    void removeBackgroundKeepsThreshold() throws Exception {
+        BufferedImage result = apply("RemoveBackground");
+        Assertions.assertEquals(0, result.getRGB(0, 0) >>> 24);
+        Assertions.assertEquals(0xFF, result.getRGB(20, 15) >>> 24);
+    }
+
+    @Test
+    void medianFilterLoads() throws Exception {
+        BufferedImage result = apply("MedianFilter");
+        Assertions.assertEquals(40, result.getWidth());
+        Assertions.assertEquals(0xFF204080, result.getRGB(20, 15));
+    }
+
+    @Test
+    void textLoads() throws Exception {
+        BufferedImage result = apply("Text");
+        Assertions.assertEquals(40, result.getWidth());
+        BufferedImage original = testImage();
+        int changed = 0;
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                if (result.getRGB(x, y) != original.getRGB(x, y)) {
+                    changed++;
+                }
+            }
+        }
+        Assertions.assertTrue(changed > 0);
+    }
+
+    @Test
+    void baselineHistoryLoadsInOrder() throws Exception {
+        List<ImageOperation> ops = load("baseline");
+        Assertions.assertEquals(BASELINE.length, ops.size());
+        for (int i = 0; i < BASELINE.length; i++) {
+            Assertions.assertEquals(BASELINE[i], ops.get(i).getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void baselineHistoryApplies() throws Exception {
+        BufferedImage image = testImage();
+        for (ImageOperation op : load("baseline")) {
+            image = op.apply(image);
+            Assertions.assertNotNull(image, op.getClass().getSimpleName());
+        }
+    }
+}
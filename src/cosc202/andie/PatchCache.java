@@ -0,0 +1,187 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+/**
+ * <p>
+ * Copies of small parts of an image from before operations changed them.
+ * </p>
+ *
+ * <p>
+ * Undoing an operation normally means applying every other operation to the
+ * original image again. When an operation only changes a small area, reported
+ * by {@link ImageOperation#getAffectedRegion(int, int)}, a copy of that area
+ * is kept before the operation is applied, and putting the copy back undoes
+ * the operation straight away. Drawing a shape or a brush stroke only touches a
+ * few thousand pixels, so this is far cheaper than replaying the history.
+ * </p>
+ *
+ * <p>
+ * Copies are kept for as many operations as fit in a budget of pixels. When
+ * the budget is exceeded the oldest copies are dropped, and those operations
+ * fall back to replaying the history when they are undone.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#undo()
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class PatchCache {
+
+    /** The default number of pixels to keep, 64MB of ARGB pixels. */
+    static final long DEFAULT_BUDGET = 16L << 20;
+
+    /**
+     * The area an operation changed, and its pixels from before the operation.
+     */
+    private static class Patch {
+        /** The width of the image the patch was taken from. */
+        final int imageWidth;
+        /** The height of the image the patch was taken from. */
+        final int imageHeight;
+        /** The area of the image the patch covers. */
+        final Rectangle region;
+        /** The pixels of the area, in rows of its width. */
+        final int[] pixels;
+
+        Patch(int imageWidth, int imageHeight, Rectangle region, int[] pixels) {
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.region = region;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * The patch for each operation, oldest first. Operations do not override
+     * {@code equals}, so each one is its own key.
+     */
+    private final LinkedHashMap<ImageOperation, Patch> patches;
+    /** The most pixels to keep. */
+    private final long budget;
+    /** The number of pixels currently kept. */
+    private long size;
+
+    /**
+     * <p>
+     * Create an empty cache.
+     * </p>
+     *
+     * @param budget The most pixels to keep.
+     */
+    PatchCache(long budget) {
+        this.patches = new LinkedHashMap<ImageOperation, Patch>();
+        this.budget = budget;
+        this.size = 0;
+    }
+
+    /**
+     * <p>
+     * Create a cache holding the same patches as another, which can then be
+     * changed without changing the other.
+     * </p>
+     *
+     * <p>
+     * The patches themselves are never changed, so they are shared rather than
+     * copied.
+     * </p>
+     *
+     * @param other The cache to copy.
+     */
+    PatchCache(PatchCache other) {
+        this.patches = new LinkedHashMap<ImageOperation, Patch>(other.patches);
+        this.budget = other.budget;
+        this.size = other.size;
+    }
+
+    /**
+     * <p>
+     * Keep a copy of the area of an image an operation is about to change.
+     * </p>
+     *
+     * @param op     The operation about to be applied.
+     * @param image  The image it is about to be applied to.
+     * @param region The area it will change, within the image.
+     */
+    void save(ImageOperation op, BufferedImage image, Rectangle region) {
+        remove(op);
+        long pixels = region.isEmpty() ? 0 : (long) region.width * region.height;
+        if (pixels > budget) {
+            return;
+        }
+
+        int[] copy = pixels == 0 ? new int[0]
+                : ImagePixels.getPixels(image.getSubimage(region.x, region.y, region.width, region.height));
+        patches.put(op, new Patch(image.getWidth(), image.getHeight(), new Rectangle(region), copy));
+        size += pixels;
+
+        Iterator<Patch> oldest = patches.values().iterator();
+        while (size > budget) {
+            size -= oldest.next().pixels.length;
+            oldest.remove();
+        }
+    }
+
+    /**
+     * <p>
+     * Undo an operation by putting back the area it changed.
+     * </p>
+     *
+     * <p>
+     * The image must be exactly the one the operation produced, so this should
+     * only be used for the most recent operation. The patch is removed whether or
+     * not it can be used.
+     * </p>
+     *
+     * @param op    The operation to undo.
+     * @param image The image the operation produced. It is changed in place.
+     * @return True if the operation was undone, false if there is no patch for
+     *         it or the image is not the size it was.
+     */
+    boolean restore(ImageOperation op, BufferedImage image) {
+        Patch patch = patches.remove(op);
+        if (patch == null) {
+            return false;
+        }
+        size -= patch.pixels.length;
+        if (image.getWidth() != patch.imageWidth || image.getHeight() != patch.imageHeight) {
+            return false;
+        }
+        if (patch.pixels.length > 0) {
+            Rectangle r = patch.region;
+            ImagePixels.setPixels(image.getSubimage(r.x, r.y, r.width, r.height), patch.pixels);
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Forget the patch for an operation, if there is one.
+     * </p>
+     *
+     * @param op The operation.
+     */
+    void remove(ImageOperation op) {
+        Patch patch = patches.remove(op);
+        if (patch != null) {
+            size -= patch.pixels.length;
+        }
+    }
+
+    /**
+     * <p>
+     * Forget every patch.
+     * </p>
+     */
+    void clear() {
+        patches.clear();
+        size = 0;
+    }
+}
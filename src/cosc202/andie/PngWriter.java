@@ -0,0 +1,534 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import java.util.zip.*;
+
+/**
+ * <p>
+ * Writes PNG files using every processor.
+ * </p>
+ *
+ * <p>
+ * Most of the time taken to write a large PNG goes on filtering the rows and
+ * compressing them, which the standard writer does on one thread. Here the rows
+ * are split into chunks that are filtered and compressed at the same time. Each
+ * chunk is compressed on its own, primed with the end of the chunk before it so
+ * it compresses almost as well as one long stream, and ends on a byte boundary
+ * (a sync flush), so the compressed chunks can be joined into a single valid
+ * zlib stream. The zlib checksum of the whole stream is worked out from the
+ * checksums of the chunks.
+ * </p>
+ *
+ * <p>
+ * How hard the chunks are compressed is set by the export speed, from fastest,
+ * which gives larger files, to smallest, which takes longest.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see <a href="https://www.w3.org/TR/png/">PNG Specification</a>
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class PngWriter {
+
+    /** The compression level of the fastest export speed. */
+    static final int FASTEST = 1;
+    /** The compression level of the balanced export speed. */
+    static final int BALANCED = 6;
+    /** The compression level of the export speed that gives the smallest files. */
+    static final int SMALLEST = 9;
+
+    /** The PNG file signature. */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    /** Roughly how many bytes of filtered rows are compressed in each chunk. */
+    private static final int CHUNK_BYTES = 1 << 20;
+    /** The size of the deflate window, and so of each chunk's dictionary. */
+    private static final int WINDOW = 32768;
+    /** The modulus of the Adler-32 checksum. */
+    private static final long ADLER_BASE = 65521;
+
+    /** The compression level used for exports. */
+    private static int level = BALANCED;
+
+    /**
+     * <p>
+     * The rows of an image, as PNG samples before filtering.
+     * </p>
+     */
+    private interface Rows {
+        /**
+         * <p>
+         * Get a row of samples.
+         * </p>
+         *
+         * @param y   The row.
+         * @param row Filled with the row's samples, big endian, one pixel after
+         *            another.
+         */
+        void get(int y, byte[] row);
+    }
+
+    /** The image being written. */
+    private final Rows rows;
+    /** The width of the image. */
+    private final int width;
+    /** The height of the image. */
+    private final int height;
+    /** The bits per sample, 8 or 16. */
+    private final int depth;
+    /** The number of samples per pixel, 3 for RGB or 4 for RGBA. */
+    private final int channels;
+    /** The number of bytes per pixel. */
+    private final int pixelBytes;
+    /** The number of bytes in a row, before filtering. */
+    private final int rowBytes;
+
+    /**
+     * <p>
+     * Create a writer for an image.
+     * </p>
+     *
+     * @param rows     The image's rows.
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param depth    The bits per sample, 8 or 16.
+     * @param channels The number of samples per pixel, 3 or 4.
+     */
+    private PngWriter(Rows rows, int width, int height, int depth, int channels) {
+        this.rows = rows;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.channels = channels;
+        this.pixelBytes = channels * depth / 8;
+        this.rowBytes = width * pixelBytes;
+    }
+
+    /**
+     * <p>
+     * Get the compression level used for exports.
+     * </p>
+     *
+     * @return The level, from {@link #FASTEST} to {@link #SMALLEST}.
+     */
+    static int getLevel() {
+        return level;
+    }
+
+    /**
+     * <p>
+     * Set the compression level used for exports.
+     * </p>
+     *
+     * @param newLevel The level, from {@link #FASTEST} to {@link #SMALLEST}.
+     */
+    static void setLevel(int newLevel) {
+        level = Math.max(FASTEST, Math.min(SMALLEST, newLevel));
+    }
+
+    /**
+     * <p>
+     * Write an image as an 8 bit PNG.
+     * </p>
+     *
+     * <p>
+     * The image is written as RGB if it is fully opaque, and as RGBA if not.
+     * </p>
+     *
+     * @param image    The image to write.
+     * @param file     The file to write to.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(BufferedImage image, File file, IntConsumer progress) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(image, out, progress);
+        }
+    }
+
+    /**
+     * <p>
+     * Write an image as an 8 bit PNG to a stream, such as a network connection.
+     * </p>
+     *
+     * @param image    The image to write.
+     * @param stream   The stream to write to. It is flushed but not closed.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void write(BufferedImage image, OutputStream stream, IntConsumer progress) throws IOException {
+        int width = image.getWidth();
+        int[] pixels = ImagePixels.getPixels(image);
+        boolean opaque = true;
+        for (int argb : pixels) {
+            if ((argb >>> 24) != 0xFF) {
+                opaque = false;
+                break;
+            }
+        }
+        boolean alpha = !opaque;
+        Rows rows = (y, row) -> {
+            int k = 0;
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                int argb = pixels[i];
+                row[k++] = (byte) (argb >> 16);
+                row[k++] = (byte) (argb >> 8);
+                row[k++] = (byte) argb;
+                if (alpha) {
+                    row[k++] = (byte) (argb >>> 24);
+                }
+            }
+        };
+        new PngWriter(rows, width, image.getHeight(), 8, opaque ? 3 : 4).write(stream, progress);
+    }
+
+    /**
+     * <p>
+     * Write an image as a 16 bit PNG.
+     * </p>
+     *
+     * <p>
+     * The image is written as RGB if it is fully opaque, and as RGBA if not.
+     * </p>
+     *
+     * @param image    The image to write.
+     * @param file     The file to write to.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(HighPrecisionImage image, File file, IntConsumer progress) throws IOException {
+        int width = image.width;
+        boolean opaque = true;
+        for (short a : image.alpha) {
+            if ((a & HighPrecisionImage.MAX) != HighPrecisionImage.MAX) {
+                opaque = false;
+                break;
+            }
+        }
+        short[][] planes = opaque ? new short[][] { image.red, image.green, image.blue }
+                : new short[][] { image.red, image.green, image.blue, image.alpha };
+        Rows rows = (y, row) -> {
+            int k = 0;
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                for (short[] plane : planes) {
+                    row[k++] = (byte) (plane[i] >> 8);
+                    row[k++] = (byte) plane[i];
+                }
+            }
+        };
+        try (OutputStream out = new FileOutputStream(file)) {
+            new PngWriter(rows, width, image.height, 16, planes.length).write(out, progress);
+        }
+    }
+
+    /**
+     * <p>
+     * Write the image to a stream.
+     * </p>
+     *
+     * <p>
+     * Chunks are filtered and compressed on a pool of threads, a few ahead of
+     * the one being written, and each is written and forgotten as soon as it is
+     * its turn.
+     * </p>
+     *
+     * @param stream   The stream to write to. It is flushed but not closed.
+     * @param progress Told the percentage of chunks written after each one.
+     * @throws IOException If the stream cannot be written.
+     */
+    private void write(OutputStream stream, IntConsumer progress) throws IOException {
+        int chunkRows = Math.max(1, CHUNK_BYTES / (rowBytes + 1));
+        int chunks = (height + chunkRows - 1) / chunkRows;
+        int chunkLevel = level;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.write(SIGNATURE);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream fields = new DataOutputStream(header);
+            fields.writeInt(width);
+            fields.writeInt(height);
+            fields.writeByte(depth);
+            fields.writeByte(channels == 4 ? 6 : 2);
+            fields.writeByte(0); // Deflate
+            fields.writeByte(0); // Adaptive filtering
+            fields.writeByte(0); // Not interlaced
+            writeChunk(out, "IHDR", header.toByteArray(), 0, header.size());
+
+            // The zlib header, with the level as a hint for other tools
+            int levelFlag = chunkLevel == FASTEST ? 0 : chunkLevel < BALANCED ? 1 : chunkLevel == BALANCED ? 2 : 3;
+            int flags = 0x7800 | (levelFlag << 6);
+            flags += 31 - flags % 31;
+            writeChunk(out, "IDAT", new byte[] { (byte) (flags >> 8), (byte) flags }, 0, 2);
+
+            long adler = 1;
+            int next = 0;
+            for (int i = 0; i < chunks; i++) {
+                // Keep a few chunks ahead in progress, but no more
+                while (next < chunks && pending.size() < 2 * threads) {
+                    int start = next++ * chunkRows;
+                    int end = Math.min(height, start + chunkRows);
+                    boolean last = end == height;
+                    pending.addLast(pool.submit(() -> compress(start, end, last, chunkLevel)));
+                }
+                Chunk chunk = pending.removeFirst().get();
+                writeChunk(out, "IDAT", chunk.data, 0, chunk.data.length);
+                adler = combine(adler, chunk.adler, chunk.length);
+                progress.accept(100 * (i + 1) / chunks);
+            }
+
+            byte[] trailer = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                trailer[i] = (byte) (adler >> (24 - 8 * i));
+            }
+            writeChunk(out, "IDAT", trailer, 0, 4);
+            writeChunk(out, "IEND", new byte[0], 0, 0);
+            out.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing PNG");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress image", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * <p>
+     * A chunk of rows, filtered and compressed.
+     * </p>
+     */
+    private static class Chunk {
+        /** The compressed rows. */
+        final byte[] data;
+        /** The Adler-32 checksum of the filtered rows. */
+        final long adler;
+        /** The number of bytes of filtered rows. */
+        final long length;
+
+        /**
+         * <p>
+         * Create a compressed chunk.
+         * </p>
+         *
+         * @param data   The compressed rows.
+         * @param adler  The Adler-32 checksum of the filtered rows.
+         * @param length The number of bytes of filtered rows.
+         */
+        Chunk(byte[] data, long adler, long length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    /**
+     * <p>
+     * Filter and compress a chunk of rows.
+     * </p>
+     *
+     * <p>
+     * The rows just before the chunk are filtered again to give the dictionary,
+     * so that chunks can be compressed in any order.
+     * </p>
+     *
+     * @param start The first row.
+     * @param end   The row after the last.
+     * @param last  Whether this is the last chunk, which ends the stream.
+     * @param level The compression level.
+     * @return The compressed chunk.
+     */
+    private Chunk compress(int start, int end, boolean last, int level) {
+        int dictionaryRows = start == 0 ? 0 : Math.min(start, (WINDOW + rowBytes) / (rowBytes + 1));
+        byte[] filtered = filter(start - dictionaryRows, end);
+        int offset = dictionaryRows * (rowBytes + 1);
+        int length = filtered.length - offset;
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (offset > 0) {
+                int size = Math.min(WINDOW, offset);
+                deflater.setDictionary(filtered, offset - size, size);
+            }
+            deflater.setInput(filtered, offset, length);
+            ByteArrayOutputStream data = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[1 << 16];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    data.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // Ending on a sync flush leaves the stream on a byte boundary
+                // without ending it, so the next chunk can follow on
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    data.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(filtered, offset, length);
+            return new Chunk(data.toByteArray(), adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * <p>
+     * Filter rows, each with the filter that makes it smallest by the sum of
+     * absolute differences, as suggested by the PNG specification.
+     * </p>
+     *
+     * @param start The first row.
+     * @param end   The row after the last.
+     * @return Each row's filter type followed by its filtered bytes.
+     */
+    private byte[] filter(int start, int end) {
+        byte[] result = new byte[(end - start) * (rowBytes + 1)];
+        byte[] previous = new byte[rowBytes];
+        byte[] row = new byte[rowBytes];
+        byte[][] candidates = new byte[5][rowBytes];
+        if (start > 0) {
+            rows.get(start - 1, previous);
+        }
+
+        for (int y = start; y < end; y++) {
+            rows.get(y, row);
+            int best = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = 0; type < 5; type++) {
+                byte[] candidate = candidates[type];
+                long sum = 0;
+                for (int i = 0; i < rowBytes; i++) {
+                    int a = i < pixelBytes ? 0 : row[i - pixelBytes] & 0xFF;
+                    int b = previous[i] & 0xFF;
+                    int c = i < pixelBytes ? 0 : previous[i - pixelBytes] & 0xFF;
+                    int predicted;
+                    switch (type) {
+                        case 1:
+                            predicted = a;
+                            break;
+                        case 2:
+                            predicted = b;
+                            break;
+                        case 3:
+                            predicted = (a + b) >> 1;
+                            break;
+                        case 4:
+                            predicted = paeth(a, b, c);
+                            break;
+                        default:
+                            predicted = 0;
+                    }
+                    byte value = (byte) (row[i] - predicted);
+                    candidate[i] = value;
+                    sum += Math.abs(value);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = type;
+                }
+            }
+
+            int at = (y - start) * (rowBytes + 1);
+            result[at] = (byte) best;
+            System.arraycopy(candidates[best], 0, result, at + 1, rowBytes);
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Predict a byte from its neighbours with the Paeth filter.
+     * </p>
+     *
+     * @param a The byte to the left.
+     * @param b The byte above.
+     * @param c The byte above and to the left.
+     * @return Whichever neighbour is closest to {@code a + b - c}.
+     */
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * <p>
+     * Work out the Adler-32 checksum of two pieces of data joined together from
+     * their separate checksums, as zlib's <code>adler32_combine</code> does.
+     * </p>
+     *
+     * @param first   The checksum of the first piece.
+     * @param second  The checksum of the second piece.
+     * @param length  The length of the second piece, in bytes.
+     * @return The checksum of both pieces.
+     */
+    static long combine(long first, long second, long length) {
+        long remainder = length % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2 * ADLER_BASE) {
+            sum2 -= 2 * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * <p>
+     * Write a PNG chunk with its length and CRC.
+     * </p>
+     *
+     * @param out    The stream to write to.
+     * @param type   The four letter chunk type.
+     * @param data   The chunk's data.
+     * @param offset The start of the data in the array.
+     * @param length The number of bytes of data.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] name = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
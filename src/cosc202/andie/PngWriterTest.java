@@ -0,0 +1,75 @@
+package cosc202.andie;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+public class PngWriterTest {
+    // Big enough to be split over several chunks and compressed in parallel
+    private static final int WIDTH = 700;
+    private static final int HEIGHT = 500;
+
+    private static BufferedImage randomImage(boolean alpha) {
+        Random random = new Random(WIDTH * HEIGHT);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // Half smooth and half noise, so each filter type gets used
+                int rgb = x < WIDTH / 2 ? (x << 16) | (y << 8) | ((x + y) & 0xFF) : random.nextInt();
+                image.setRGB(x, y, alpha ? rgb : 0xFF000000 | rgb);
+            }
+        }
+        return image;
+    }
+
+    private static void assertRoundTrip(boolean alpha, int level) throws IOException {
+        BufferedImage image = randomImage(alpha);
+        int previous = PngWriter.getLevel();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            PngWriter.setLevel(level);
+            PngWriter.write(image, out, percent -> {
+            });
+        } finally {
+            PngWriter.setLevel(previous);
+        }
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        Assertions.assertEquals(alpha, decoded.getColorModel().hasAlpha());
+        Assertions.assertArrayEquals(image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH),
+                decoded.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+    }
+
+    @Test
+    void rgbFastest() throws IOException {
+        assertRoundTrip(false, PngWriter.FASTEST);
+    }
+
+    @Test
+    void rgbBalanced() throws IOException {
+        assertRoundTrip(false, PngWriter.BALANCED);
+    }
+
+    @Test
+    void rgbSmallest() throws IOException {
+        assertRoundTrip(false, PngWriter.SMALLEST);
+    }
+
+    @Test
+    void rgbaFastest() throws IOException {
+        assertRoundTrip(true, PngWriter.FASTEST);
+    }
+
+    @Test
+    void rgbaBalanced() throws IOException {
+        assertRoundTrip(true, PngWriter.BALANCED);
+    }
+
+    @Test
+    void rgbaSmallest() throws IOException {
+        assertRoundTrip(true, PngWriter.SMALLEST);
+    }
+}
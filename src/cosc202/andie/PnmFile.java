@@ -0,0 +1,615 @@
+package cosc202.andie;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Reads and writes raw PNM images: PGM (P5), PPM (P6) and PAM (P7).
+ * </p>
+ *
+ * <p>
+ * These formats are a short text header followed by the samples, uncompressed,
+ * so they are what cameras and capture tools often write, but the standard
+ * image readers cannot open them. Because there is nothing to decode, a file is
+ * read in large blocks and the rows of each block are copied straight into the
+ * pixels of the image in parallel, and writing gathers the header and rows into
+ * as few writes as possible. Only a few blocks are held at once either way.
+ * Samples of more than 8 bits are kept at 16 bits per channel for high
+ * precision mode.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see <a href="https://netpbm.sourceforge.net/doc/pam.html">PAM format</a>
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class PnmFile {
+
+    /** The file name extensions of PNM files. */
+    private static final Set<String> EXTENSIONS = new HashSet<String>(Arrays.asList("pnm", "pgm", "ppm", "pam"));
+    /** The largest image that will be read, in pixels. */
+    static final long MAX_PIXELS = 1L << 28;
+    /** The most bytes of samples put in each buffer, unless one row is longer. */
+    private static final int STRIP_BYTES = 1 << 20;
+    /** The most buffers gathered into each write, or read at once. */
+    private static final int GATHER = 16;
+    /** The most bytes read to find the end of the header. */
+    private static final int MAX_HEADER = 1 << 16;
+
+    /**
+     * <p>
+     * Fills a buffer with a row of samples to write.
+     * </p>
+     */
+    private interface Rows {
+        /**
+         * <p>
+         * Put a row of samples in a buffer.
+         * </p>
+         *
+         * @param y   The row.
+         * @param out The buffer, with room for the row.
+         */
+        void put(int y, ByteBuffer out);
+    }
+
+    /**
+     * <p>
+     * Takes a row of samples read from a file.
+     * </p>
+     */
+    private interface Samples {
+        /**
+         * <p>
+         * Take a row of samples from a buffer.
+         * </p>
+         *
+         * @param y     The row.
+         * @param in    The buffer.
+         * @param start Where in the buffer the row starts.
+         */
+        void get(int y, ByteBuffer in, int start);
+    }
+
+    /**
+     * <p>
+     * PnmFile is not meant to be created, as it only holds static methods.
+     * </p>
+     */
+    private PnmFile() {
+    }
+
+    /**
+     * <p>
+     * Check whether a format is one of the PNM formats.
+     * </p>
+     *
+     * @param format The informal name of the format or file name extension, such
+     *               as ppm or png.
+     * @return True if it is pnm, pgm, ppm or pam.
+     */
+    static boolean isFormat(String format) {
+        return EXTENSIONS.contains(format.toLowerCase());
+    }
+
+    /**
+     * <p>
+     * Check whether a file is a PNM file, by its name.
+     * </p>
+     *
+     * @param filename The name of the file.
+     * @return True if it ends in one of the PNM extensions.
+     */
+    static boolean isPnm(String filename) {
+        return isFormat(filename.substring(filename.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * <p>
+     * Read a PNM file.
+     * </p>
+     *
+     * <p>
+     * Samples of up to 8 bits are read straight into the pixels of an ARGB
+     * image. Samples of more than 8 bits are read into a 16 bit image, which
+     * {@link HighPrecisionImage#isHighPrecision(BufferedImage)} recognises.
+     * Samples are scaled up to the full range if the file's maximum value is not
+     * 255 or 65535.
+     * </p>
+     *
+     * @param file The file to read.
+     * @return The image.
+     * @throws IOException If the file cannot be read, or is not a raw PGM, PPM
+     *                     or PAM file.
+     */
+    static BufferedImage read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_HEADER));
+            readFully(channel, head, 0);
+            head.flip();
+            Header header = new Header(head);
+            int width = header.width;
+            int height = header.height;
+            int sampleBytes = header.maxval > 255 ? 2 : 1;
+            // In long, as a crafted header can make these overflow an int
+            long rowBytes = (long) width * header.depth * sampleBytes;
+            if ((long) width * height > MAX_PIXELS || rowBytes > Integer.MAX_VALUE) {
+                throw new IOException("PNM image is too large: " + width + "x" + height);
+            }
+            if (rowBytes * height > channel.size() - head.position()) {
+                throw new EOFException("PNM file is shorter than its header says: " + file);
+            }
+            boolean grey = header.depth < 3;
+            boolean alpha = header.depth == 2 || header.depth == 4;
+
+            if (sampleBytes == 1) {
+                int[] scale = scale(header.maxval, 255);
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                readSamples(channel, head.position(), height, (int) rowBytes, (y, data, in) -> {
+                    for (int i = y * width; i < (y + 1) * width; i++) {
+                        int r = scale[data.get(in++) & 0xFF];
+                        int g = grey ? r : scale[data.get(in++) & 0xFF];
+                        int b = grey ? r : scale[data.get(in++) & 0xFF];
+                        int a = alpha ? scale[data.get(in++) & 0xFF] : 255;
+                        pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+                    }
+                });
+                return image;
+            }
+
+            int[] scale = scale(header.maxval, HighPrecisionImage.MAX);
+            HighPrecisionImage image = new HighPrecisionImage(width, height);
+            readSamples(channel, head.position(), height, (int) rowBytes, (y, data, in) -> {
+                for (int i = y * width; i < (y + 1) * width; i++) {
+                    short r = (short) scale[data.getShort(in) & 0xFFFF];
+                    in += 2;
+                    short g = r;
+                    short b = r;
+                    if (!grey) {
+                        g = (short) scale[data.getShort(in) & 0xFFFF];
+                        b = (short) scale[data.getShort(in + 2) & 0xFFFF];
+                        in += 4;
+                    }
+                    short a = (short) HighPrecisionImage.MAX;
+                    if (alpha) {
+                        a = (short) scale[data.getShort(in) & 0xFFFF];
+                        in += 2;
+                    }
+                    image.red[i] = r;
+                    image.green[i] = g;
+                    image.blue[i] = b;
+                    image.alpha[i] = a;
+                }
+            });
+            return image.toImage();
+        }
+    }
+
+    /**
+     * <p>
+     * Read the rows of samples from a file, several at a time.
+     * </p>
+     *
+     * <p>
+     * The file is read in blocks of whole rows, and the rows of each block are
+     * handed out in parallel. The file is not mapped into memory, as a mapping
+     * stays open until it is garbage collected, and on Windows a file that is
+     * mapped cannot be written, such as to export over it.
+     * </p>
+     *
+     * @param channel  The file.
+     * @param start    Where the samples start in the file.
+     * @param height   The number of rows.
+     * @param rowBytes The length of each row, in bytes.
+     * @param samples  Takes each row.
+     * @throws IOException If the file cannot be read.
+     */
+    private static void readSamples(FileChannel channel, long start, int height, int rowBytes, Samples samples)
+            throws IOException {
+        int rows = rowsPerBuffer(rowBytes, GATHER * STRIP_BYTES, height);
+        ByteBuffer block = ByteBuffer.allocate(rows * rowBytes);
+        for (int first = 0; first < height; first += rows) {
+            int count = Math.min(rows, height - first);
+            block.clear().limit(count * rowBytes);
+            readFully(channel, block, start + (long) first * rowBytes);
+            int y0 = first;
+            IntStream.range(0, count).parallel().forEach(row -> samples.get(y0 + row, block, row * rowBytes));
+        }
+    }
+
+    /**
+     * <p>
+     * Work out how many rows to put in each buffer.
+     * </p>
+     *
+     * @param rowBytes The length of each row, in bytes.
+     * @param bytes    The most bytes to put in a buffer.
+     * @param height   The number of rows in the image.
+     * @return The number of rows, at least 1 and at most the height.
+     */
+    private static int rowsPerBuffer(int rowBytes, int bytes, int height) {
+        return Math.max(1, Math.min(height, bytes / Math.max(1, rowBytes)));
+    }
+
+    /**
+     * <p>
+     * Make a table to scale samples up to the full range.
+     * </p>
+     *
+     * @param maxval The largest sample in the file.
+     * @param max    The largest sample in the image, 255 or 65535.
+     * @return The scaled value of each sample from 0 to the larger of
+     *         {@code maxval} and {@code max}. Samples above {@code maxval} are
+     *         clamped.
+     */
+    private static int[] scale(int maxval, int max) {
+        int[] table = new int[Math.max(maxval, max) + 1];
+        for (int v = 0; v < table.length; v++) {
+            table[v] = (int) Math.round(Math.min(v, maxval) * (double) max / maxval);
+        }
+        return table;
+    }
+
+    /**
+     * <p>
+     * Write an image as a raw PNM file, at 8 bits per channel.
+     * </p>
+     *
+     * <p>
+     * PGM files are grey, using the same weights as {@link ConvertToGrey}. PPM and
+     * PNM files are RGB, with fully transparent pixels made white as
+     * {@link RemoveTransparency} does. PAM files keep transparency if the image has
+     * any.
+     * </p>
+     *
+     * @param image    The image to write. This is not changed.
+     * @param format   The informal name of the format: pnm, pgm, ppm or pam.
+     * @param file     The file to write to.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(BufferedImage image, String format, File file, IntConsumer progress) throws IOException {
+        try (FileChannel channel = open(file)) {
+            write(image, format, channel, progress);
+        }
+    }
+
+    /**
+     * <p>
+     * Write an image as a raw PNM file, at 8 bits per channel, to a channel such
+     * as a network connection.
+     * </p>
+     *
+     * @param image    The image to write. This is not changed.
+     * @param format   The informal name of the format: pnm, pgm, ppm or pam.
+     * @param channel  The channel to write to. It is not closed.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the channel cannot be written.
+     * @see #write(BufferedImage, String, File, IntConsumer)
+     */
+    static void write(BufferedImage image, String format, WritableByteChannel channel, IntConsumer progress)
+            throws IOException {
+        int width = image.getWidth();
+        int[] pixels = ImagePixels.getPixels(image);
+        boolean opaque = true;
+        for (int argb : pixels) {
+            if ((argb >>> 24) != 0xFF) {
+                opaque = false;
+                break;
+            }
+        }
+        String type = format.toLowerCase();
+        int depth = type.equals("pgm") ? 1 : type.equals("pam") && !opaque ? 4 : 3;
+        Rows rows = (y, out) -> {
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                int argb = pixels[i];
+                if (depth < 4 && (argb >>> 24) == 0) {
+                    argb = 0xFFFFFFFF;
+                }
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                if (depth == 1) {
+                    out.put((byte) Math.round(0.3 * r + 0.6 * g + 0.1 * b));
+                } else {
+                    out.put((byte) r).put((byte) g).put((byte) b);
+                    if (depth == 4) {
+                        out.put((byte) (argb >>> 24));
+                    }
+                }
+            }
+        };
+        write(rows, width, image.getHeight(), depth, 255, type, channel, progress);
+    }
+
+    /**
+     * <p>
+     * Write an image as a raw PNM file, at 16 bits per channel.
+     * </p>
+     *
+     * <p>
+     * The image is converted for each format as in
+     * {@link #write(BufferedImage, String, File, IntConsumer)}.
+     * </p>
+     *
+     * @param image    The image to write. This is not changed.
+     * @param format   The informal name of the format: pnm, pgm, ppm or pam.
+     * @param file     The file to write to.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(HighPrecisionImage image, String format, File file, IntConsumer progress)
+            throws IOException {
+        int width = image.width;
+        int max = HighPrecisionImage.MAX;
+        boolean opaque = true;
+        for (short a : image.alpha) {
+            if ((a & max) != max) {
+                opaque = false;
+                break;
+            }
+        }
+        String type = format.toLowerCase();
+        int depth = type.equals("pgm") ? 1 : type.equals("pam") && !opaque ? 4 : 3;
+        Rows rows = (y, out) -> {
+            for (int i = y * width; i < (y + 1) * width; i++) {
+                boolean clear = depth < 4 && image.alpha[i] == 0;
+                int r = clear ? max : image.red[i] & max;
+                int g = clear ? max : image.green[i] & max;
+                int b = clear ? max : image.blue[i] & max;
+                if (depth == 1) {
+                    out.putShort(HighPrecisionImage.clamp(0.3 * r + 0.6 * g + 0.1 * b));
+                } else {
+                    out.putShort((short) r).putShort((short) g).putShort((short) b);
+                    if (depth == 4) {
+                        out.putShort(image.alpha[i]);
+                    }
+                }
+            }
+        };
+        try (FileChannel channel = open(file)) {
+            write(rows, width, image.height, depth, max, type, channel, progress);
+        }
+    }
+
+    /**
+     * <p>
+     * Write a header and rows of samples to a channel.
+     * </p>
+     *
+     * <p>
+     * The rows are put in buffers a strip at a time, in parallel, and the header
+     * and several strips are handed to the channel in each gathering write, if
+     * it can take them. Only one batch of strips is held in memory at a time.
+     * </p>
+     *
+     * @param rows     The rows of samples.
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param depth    The number of samples per pixel: 1 for grey, 3 for RGB or
+     *                 4 for RGBA.
+     * @param maxval   The largest sample, 255 or 65535.
+     * @param format   The informal name of the format: pnm, pgm, ppm or pam.
+     * @param channel  The channel to write to. It is not closed.
+     * @param progress Told the percentage of the image written as it goes.
+     * @throws IOException If the channel cannot be written.
+     */
+    private static void write(Rows rows, int width, int height, int depth, int maxval, String format,
+            WritableByteChannel channel, IntConsumer progress) throws IOException {
+        String header;
+        if (format.equals("pam")) {
+            header = "P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH " + depth + "\nMAXVAL " + maxval
+                    + "\nTUPLTYPE " + (depth == 1 ? "GRAYSCALE" : depth == 3 ? "RGB" : "RGB_ALPHA") + "\nENDHDR\n";
+        } else {
+            header = (depth == 1 ? "P5" : "P6") + "\n" + width + " " + height + "\n" + maxval + "\n";
+        }
+        int rowBytes = width * depth * (maxval > 255 ? 2 : 1);
+        int stripHeight = rowsPerBuffer(rowBytes, STRIP_BYTES, height);
+        int strips = (height + stripHeight - 1) / stripHeight;
+        // Only one batch of strips is held at a time, and its buffers are reused
+        ByteBuffer[] buffers = new ByteBuffer[GATHER + 1];
+        buffers[0] = ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+        for (int first = 0; first < strips; first += GATHER) {
+            int count = Math.min(GATHER, strips - first);
+            int batch = first;
+            IntStream.range(0, count).parallel().forEach(i -> {
+                int start = (batch + i) * stripHeight;
+                int end = Math.min(height, start + stripHeight);
+                if (buffers[i + 1] == null) {
+                    buffers[i + 1] = ByteBuffer.allocate(stripHeight * rowBytes);
+                }
+                ByteBuffer buffer = buffers[i + 1];
+                buffer.clear();
+                for (int y = start; y < end; y++) {
+                    rows.put(y, buffer);
+                }
+                buffer.flip();
+            });
+
+            // The header goes out with the first batch
+            int offset = first == 0 ? 0 : 1;
+            int length = count + 1 - offset;
+            if (channel instanceof GatheringByteChannel) {
+                while (buffers[count].hasRemaining()) {
+                    ((GatheringByteChannel) channel).write(buffers, offset, length);
+                }
+            } else {
+                for (int i = offset; i <= count; i++) {
+                    while (buffers[i].hasRemaining()) {
+                        channel.write(buffers[i]);
+                    }
+                }
+            }
+            progress.accept(100 * (first + count) / strips);
+        }
+    }
+
+    /**
+     * <p>
+     * Fill a buffer from a file.
+     * </p>
+     *
+     * @param channel  The file.
+     * @param buffer   The buffer to fill.
+     * @param position Where in the file to start reading.
+     * @throws IOException If the file ends first or cannot be read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("PNM file ended early");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * <p>
+     * Open a file to write, replacing anything in it.
+     * </p>
+     *
+     * @param file The file.
+     * @return A channel to write to the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * <p>
+     * The header of a raw PNM file.
+     * </p>
+     */
+    private static class Header {
+        /** The width of the image. */
+        int width;
+        /** The height of the image. */
+        int height;
+        /** The number of samples per pixel, from 1 to 4. */
+        int depth;
+        /** The largest sample. */
+        int maxval;
+
+        /**
+         * <p>
+         * Read a header, leaving the buffer at the first sample.
+         * </p>
+         *
+         * @param data The file's contents, from the start.
+         * @throws IOException If the file is not a raw PGM, PPM or PAM file.
+         */
+        Header(ByteBuffer data) throws IOException {
+            String magic = token(data);
+            if (magic.equals("P5") || magic.equals("P6")) {
+                depth = magic.equals("P5") ? 1 : 3;
+                width = number(token(data));
+                height = number(token(data));
+                maxval = number(token(data));
+                // Exactly one whitespace character before the samples
+                data.get();
+            } else if (magic.equals("P7")) {
+                depth = 0;
+                for (String key = token(data); !key.equals("ENDHDR"); key = token(data)) {
+                    switch (key) {
+                        case "WIDTH":
+                            width = number(token(data));
+                            break;
+                        case "HEIGHT":
+                            height = number(token(data));
+                            break;
+                        case "DEPTH":
+                            depth = number(token(data));
+                            break;
+                        case "MAXVAL":
+                            maxval = number(token(data));
+                            break;
+                        default:
+                            // TUPLTYPE and anything else is worked out from the depth
+                            line(data);
+                    }
+                }
+                line(data);
+            } else {
+                throw new IOException("Not a raw PGM, PPM or PAM file: " + magic);
+            }
+            if (width <= 0 || height <= 0 || depth < 1 || depth > 4 || maxval < 1 || maxval > 65535) {
+                throw new IOException("Unsupported PNM image: " + width + "x" + height + ", depth " + depth
+                        + ", maxval " + maxval);
+            }
+        }
+
+        /**
+         * <p>
+         * Read the next word, skipping whitespace and comments before it.
+         * </p>
+         *
+         * @param data The file's contents.
+         * @return The word.
+         * @throws IOException If the header ends first.
+         */
+        private static String token(ByteBuffer data) throws IOException {
+            StringBuilder text = new StringBuilder();
+            while (data.hasRemaining()) {
+                char c = (char) data.get(data.position());
+                if (c == '#' && text.length() == 0) {
+                    line(data);
+                } else if (Character.isWhitespace(c)) {
+                    if (text.length() > 0) {
+                        return text.toString();
+                    }
+                    data.get();
+                } else {
+                    text.append(c);
+                    data.get();
+                }
+            }
+            throw new EOFException("PNM header ended early");
+        }
+
+        /**
+         * <p>
+         * Skip to the start of the next line.
+         * </p>
+         *
+         * @param data The file's contents.
+         */
+        private static void line(ByteBuffer data) {
+            while (data.hasRemaining() && data.get() != '\n') {
+                // Skip
+            }
+        }
+
+        /**
+         * <p>
+         * Read a whole number from the header.
+         * </p>
+         *
+         * @param text The word.
+         * @return The number.
+         * @throws IOException If the word is not a number.
+         */
+        private static int number(String text) throws IOException {
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad number in PNM header: " + text, e);
+            }
+        }
+    }
+}
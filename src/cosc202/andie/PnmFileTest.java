@@ -0,0 +1,96 @@
+package cosc202.andie;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.*;
+import java.util.Random;
+
+public class PnmFileTest {
+    // Tall enough to be read and written in more than one block of rows
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 4000;
+
+    private static BufferedImage randomImage(boolean grey, boolean alpha) {
+        Random random = new Random(WIDTH * HEIGHT);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb = random.nextInt();
+                if (grey) {
+                    rgb = (rgb & 0xFF) * 0x010101;
+                }
+                image.setRGB(x, y, alpha ? rgb : 0xFF000000 | rgb);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage roundTrip(BufferedImage image, String format) throws IOException {
+        File file = File.createTempFile("andie", "." + format);
+        try {
+            PnmFile.write(image, format, file, percent -> {
+            });
+            return PnmFile.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        Assertions.assertEquals(expected.getWidth(), actual.getWidth());
+        Assertions.assertEquals(expected.getHeight(), actual.getHeight());
+        Assertions.assertArrayEquals(expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH),
+                actual.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+    }
+
+    @Test
+    void greyP5() throws IOException {
+        BufferedImage image = randomImage(true, false);
+        assertSamePixels(image, roundTrip(image, "pgm"));
+    }
+
+    @Test
+    void colourP6() throws IOException {
+        BufferedImage image = randomImage(false, false);
+        assertSamePixels(image, roundTrip(image, "ppm"));
+    }
+
+    @Test
+    void alphaP7() throws IOException {
+        BufferedImage image = randomImage(false, true);
+        BufferedImage read = roundTrip(image, "pam");
+        Assertions.assertTrue(read.getColorModel().hasAlpha());
+        assertSamePixels(image, read);
+    }
+
+    @Test
+    void sixteenBitP7() throws IOException {
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false,
+                Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = model.createCompatibleWritableRaster(WIDTH, HEIGHT);
+        Random random = new Random(WIDTH * HEIGHT);
+        int[] samples = new int[WIDTH * HEIGHT * 4];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextInt(65536);
+        }
+        raster.setPixels(0, 0, WIDTH, HEIGHT, samples);
+        BufferedImage image = new BufferedImage(model, raster, false, null);
+
+        File file = File.createTempFile("andie", ".pam");
+        BufferedImage read;
+        try {
+            PnmFile.write(HighPrecisionImage.fromImage(image), "pam", file, percent -> {
+            });
+            read = PnmFile.read(file);
+        } finally {
+            file.delete();
+        }
+        Assertions.assertEquals(DataBuffer.TYPE_USHORT, read.getRaster().getTransferType());
+        Assertions.assertEquals(4, read.getRaster().getNumBands());
+        Assertions.assertArrayEquals(samples, read.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null));
+    }
+}
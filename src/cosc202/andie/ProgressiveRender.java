@@ -0,0 +1,288 @@
+package cosc202.andie;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import javax.swing.SwingWorker;
+
+/**
+ * <p>
+ * Works out the result of an operation in the background, a tile at a time,
+ * showing a rough version of it in the meantime.
+ * </p>
+ *
+ * <p>
+ * A slow filter such as a large {@link MedianFilter} can take seconds on a big
+ * image, and nothing used to change on screen until it finished. Instead, the
+ * operation is first applied to a copy of the image a quarter of the size,
+ * which takes a sixteenth of the time, and that is scaled up to be shown
+ * straight away. The full result is then worked out in square tiles on a
+ * background thread. As each tile finishes it is copied over the rough version
+ * on the event dispatch thread, so the image sharpens up while the user
+ * watches. Tiles in the area the user can see are worked out first, nearest the
+ * middle first.
+ * </p>
+ *
+ * <p>
+ * Each tile is worked out from the part of the image under it plus a border as
+ * wide as the operation's {@link ImageOperation#getNeighbourhoodRadius()}, so
+ * the finished image is exactly what applying the operation to the whole image
+ * gives. Only operations that report a radius can be worked out this way.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#tempApplyProgressive(ImageOperation, Rectangle, Consumer)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class ProgressiveRender extends SwingWorker<BufferedImage, Integer> {
+
+    /** The width and height of a tile. */
+    static final int TILE_SIZE = 256;
+    /** The mipmap level of the rough copy, a quarter of the size. */
+    static final int PROXY_LEVEL = 2;
+    /**
+     * The most pixels an image can have to be worked out all at once instead.
+     * Smaller images are quick enough that a rough version is not worth it.
+     */
+    static final long MIN_PIXELS = 4L * TILE_SIZE * TILE_SIZE;
+
+    /** The operation to apply. */
+    private final ImageOperation operation;
+    /** The image to apply it to. This is not changed. */
+    private final BufferedImage input;
+    /** The image shown to the user, rough at first, filled in on the EDT. */
+    private final BufferedImage image;
+    /** The full result, filled in by the background thread. */
+    private final BufferedImage result;
+    /** The tiles, in the order they are worked out. */
+    private final List<Rectangle> tiles;
+    /** Told about each tile once it has been copied to {@link image}. */
+    private final Consumer<Rectangle> onTile;
+    /** The number of tiles copied to {@link image} so far. */
+    private int copied;
+    /** Whether the operation failed and the error has been shown. */
+    private boolean failed;
+
+    /**
+     * <p>
+     * Create a background job to apply an operation.
+     * </p>
+     *
+     * @param operation The operation to apply. It must report a neighbourhood
+     *                  radius.
+     * @param input     The image to apply it to.
+     * @param image     The image to fill in with the result, the same size as the
+     *                  input, usually from {@link #proxy}.
+     * @param priority  The area of the image to work out first, such as the part
+     *                  the user can see, or null for none.
+     * @param onTile    Told about each area of {@code image} once it has been
+     *                  filled in, on the EDT.
+     */
+    ProgressiveRender(ImageOperation operation, BufferedImage input, BufferedImage image, Rectangle priority,
+            Consumer<Rectangle> onTile) {
+        this.operation = operation;
+        this.input = input;
+        this.image = image;
+        this.result = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        this.tiles = order(input.getWidth(), input.getHeight(), priority);
+        this.onTile = onTile;
+        this.copied = 0;
+        this.failed = false;
+    }
+
+    /**
+     * <p>
+     * Make a rough version of an operation's result quickly.
+     * </p>
+     *
+     * @param operation The operation to apply.
+     * @param input     The image to apply it to.
+     * @param small     A smaller copy of the input to apply it to instead. This is
+     *                  not changed.
+     * @return A new ARGB image the size of the input, with the result for the
+     *         smaller copy scaled up.
+     */
+    static BufferedImage proxy(ImageOperation operation, BufferedImage input, BufferedImage small) {
+        BufferedImage copy = new BufferedImage(small.getWidth(), small.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(copy, ImagePixels.getPixels(small));
+        BufferedImage rough = operation.apply(copy);
+
+        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = output.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(rough, 0, 0, input.getWidth(), input.getHeight(), null);
+        g.dispose();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Split an image into tiles and put them in the order to work them out.
+     * </p>
+     *
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param priority The area to work out first, or null for none.
+     * @return The tiles. Those overlapping the priority area come first, and
+     *         within each group those nearest its middle come first.
+     */
+    private static List<Rectangle> order(int width, int height, Rectangle priority) {
+        List<Rectangle> tiles = new ArrayList<Rectangle>();
+        for (int y = 0; y < height; y += TILE_SIZE) {
+            for (int x = 0; x < width; x += TILE_SIZE) {
+                tiles.add(new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y)));
+            }
+        }
+        Rectangle first = priority == null || priority.isEmpty() ? new Rectangle(0, 0, width, height) : priority;
+        double centreX = first.getCenterX();
+        double centreY = first.getCenterY();
+        tiles.sort(Comparator.comparing((Rectangle tile) -> !tile.intersects(first))
+                .thenComparingDouble(tile -> Math.hypot(tile.getCenterX() - centreX, tile.getCenterY() - centreY)));
+        return tiles;
+    }
+
+    /**
+     * <p>
+     * Get the image being filled in.
+     * </p>
+     *
+     * @return The image shown to the user.
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the image the operation is applied to.
+     * </p>
+     *
+     * @return The input image, unchanged.
+     */
+    BufferedImage getInput() {
+        return input;
+    }
+
+    /**
+     * <p>
+     * Work out each tile in turn, on a background thread.
+     * </p>
+     *
+     * @return The full result.
+     * @throws IllegalStateException If the operation changes the size of a tile.
+     */
+    @Override
+    protected BufferedImage doInBackground() {
+        Rectangle bounds = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        int radius = operation.getNeighbourhoodRadius();
+        for (int i = 0; i < tiles.size(); i++) {
+            if (isCancelled()) {
+                return null;
+            }
+            Rectangle tile = tiles.get(i);
+            Rectangle source = new Rectangle(tile);
+            source.grow(radius, radius);
+            source = source.intersection(bounds);
+
+            // Always a fresh copy, as some operations change their input
+            BufferedImage part = new BufferedImage(source.width, source.height, BufferedImage.TYPE_INT_ARGB);
+            ImagePixels.setPixels(part, ImagePixels.getPixels(
+                    input.getSubimage(source.x, source.y, source.width, source.height)));
+            BufferedImage done = operation.apply(part);
+            if (done.getWidth() != source.width || done.getHeight() != source.height) {
+                throw new IllegalStateException("Operation changed the size of a tile");
+            }
+
+            ImagePixels.setPixels(result.getSubimage(tile.x, tile.y, tile.width, tile.height),
+                    ImagePixels.getPixels(done.getSubimage(tile.x - source.x, tile.y - source.y,
+                            tile.width, tile.height)));
+            publish(i);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Copy finished tiles to the image shown to the user, on the EDT.
+     * </p>
+     *
+     * @param finished The indices of the tiles finished since this was last
+     *                 called, in order.
+     */
+    @Override
+    protected void process(List<Integer> finished) {
+        if (!isCancelled()) {
+            copyTiles(finished.get(finished.size() - 1) + 1);
+        }
+    }
+
+    /**
+     * <p>
+     * Copy the rest of the result once it is finished, on the EDT.
+     * </p>
+     */
+    @Override
+    protected void done() {
+        if (!isCancelled()) {
+            finish();
+        }
+    }
+
+    /**
+     * <p>
+     * Wait for the result and make sure it has all been copied to the image
+     * shown to the user.
+     * </p>
+     *
+     * <p>
+     * This must be called on the EDT. If the operation fails the error is shown
+     * to the user, once.
+     * </p>
+     *
+     * @return True if the image now holds the full result, false if the
+     *         operation failed or was cancelled.
+     */
+    boolean finish() {
+        if (failed || isCancelled()) {
+            return false;
+        }
+        try {
+            get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            failed = true;
+            Tools.errorMessage(e, "fileApplyError");
+            return false;
+        }
+        copyTiles(tiles.size());
+        return true;
+    }
+
+    /**
+     * <p>
+     * Copy finished tiles that have not been copied yet to the image shown to the
+     * user.
+     * </p>
+     *
+     * @param count The number of tiles, in order, that are finished.
+     */
+    private void copyTiles(int count) {
+        while (copied < count) {
+            Rectangle tile = tiles.get(copied++);
+            ImagePixels.setPixels(image.getSubimage(tile.x, tile.y, tile.width, tile.height),
+                    ImagePixels.getPixels(result.getSubimage(tile.x, tile.y, tile.width, tile.height)));
+            onTile.accept(tile);
+        }
+    }
+}
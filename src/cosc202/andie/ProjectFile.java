@@ -0,0 +1,424 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Stack;
+
+/**
+ * <p>
+ * An ANDIE project, a single file holding an image, its operations and the
+ * result of applying them.
+ * </p>
+ *
+ * <p>
+ * Saving an image normally leaves the original image file and a separate
+ * <code>.ops</code> file, and opening them again means decoding the image and
+ * applying every operation. A project keeps all three in one
+ * <code>.andie</code> file instead, with the original image and the result as
+ * raw ARGB pixels. Opening a project reads those parts of the file a tile at a
+ * time straight into images, with nothing to decode or apply.
+ * </p>
+ *
+ * <p>
+ * The file starts with a header giving where each section starts and how long
+ * it is. Each section starts on a 4KB boundary so it is read in whole blocks.
+ * The image sections are split into square tiles, left to right then top to
+ * bottom, with the pixels of each tile stored together, row by row. The history
+ * section holds the file format the image came from and the serialized
+ * operations. The result section is empty if there are no operations.
+ * </p>
+ *
+ * <p>
+ * Only the first frame of an animated GIF is kept in a project.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#saveProject(String)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class ProjectFile {
+
+    /** The file name extension of projects. */
+    static final String EXTENSION = "andie";
+    /** The width and height of a tile. */
+    static final int TILE_SIZE = 256;
+    /** Marks the start of a project, "ANDP". */
+    private static final int MAGIC = 0x414E4450;
+    /**
+     * The version of the file format and of the operations. Changing it makes
+     * older projects unreadable, such as after an operation's output changes.
+     */
+    private static final int VERSION = 1;
+    /** The boundary each section starts on, in bytes. */
+    private static final int ALIGNMENT = 4096;
+    /** The number of sections: the original image, the result and the history. */
+    private static final int SECTIONS = 3;
+    /**
+     * The length of the header, in bytes: the magic number, version and tile
+     * size, then the offset, length, width and height of each section.
+     */
+    private static final int HEADER = 12 + SECTIONS * 24;
+
+    /** The original image. */
+    private final BufferedImage original;
+    /** The result of applying {@link ops} to {@link original}, or null. */
+    private final BufferedImage render;
+    /** The operations applied to the image. */
+    private final Stack<ImageOperation> ops;
+    /** The informal name of the file format the image came from, e.g. png. */
+    private final String format;
+    /** The {@link BufferedImage} type the image was decoded as. */
+    private final int sourceType;
+
+    /**
+     * <p>
+     * Create a project.
+     * </p>
+     *
+     * @param original   The original image, in ARGB.
+     * @param render     The result of applying the operations to it, in ARGB, or
+     *                   null to leave it out.
+     * @param ops        The operations applied to the image.
+     * @param format     The informal name of the file format the image came from.
+     * @param sourceType The {@link BufferedImage} type the image was decoded as.
+     */
+    ProjectFile(BufferedImage original, BufferedImage render, Stack<ImageOperation> ops, String format,
+            int sourceType) {
+        this.original = original;
+        this.render = render;
+        this.ops = ops;
+        this.format = format;
+        this.sourceType = sourceType;
+    }
+
+    /**
+     * <p>
+     * Check whether a file is a project, by its name.
+     * </p>
+     *
+     * @param filename The name of the file.
+     * @return True if the name ends with <code>.andie</code>.
+     */
+    static boolean isProject(String filename) {
+        return filename.toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * <p>
+     * Read a project from a file.
+     * </p>
+     *
+     * @param file The file to read.
+     * @return The project.
+     * @throws IOException If the file is not a project this version of ANDIE
+     *                     can read, or cannot be read.
+     */
+    static ProjectFile read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not an ANDIE project, or from another version: " + file);
+            }
+            int tileSize = header.getInt();
+            if (tileSize <= 0) {
+                throw new IOException("Project is corrupt: " + file);
+            }
+
+            long[] offsets = new long[SECTIONS];
+            long[] lengths = new long[SECTIONS];
+            int[] widths = new int[SECTIONS];
+            int[] heights = new int[SECTIONS];
+            for (int i = 0; i < SECTIONS; i++) {
+                offsets[i] = header.getLong();
+                lengths[i] = header.getLong();
+                widths[i] = header.getInt();
+                heights[i] = header.getInt();
+                if (offsets[i] < HEADER || lengths[i] < 0 || offsets[i] + lengths[i] > channel.size()) {
+                    throw new IOException("Project is corrupt: " + file);
+                }
+            }
+
+            BufferedImage original = readImage(channel, offsets[0], lengths[0], widths[0], heights[0], tileSize);
+            if (original == null) {
+                throw new IOException("Project has no image: " + file);
+            }
+            BufferedImage render = readImage(channel, offsets[1], lengths[1], widths[1], heights[1], tileSize);
+
+            ByteBuffer history = ByteBuffer.allocate((int) lengths[2]);
+            readFully(channel, history, offsets[2]);
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(history.array()))) {
+                String format = in.readUTF();
+                int sourceType = in.readInt();
+                @SuppressWarnings("unchecked")
+                Stack<ImageOperation> ops = (Stack<ImageOperation>) in.readObject();
+                return new ProjectFile(original, render, ops, format, sourceType);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Project history is corrupt: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Read an image section, a tile at a time.
+     * </p>
+     *
+     * <p>
+     * The section is not mapped into memory. A mapping stays open until it is
+     * garbage collected, and on Windows a file that is still mapped cannot be
+     * replaced, so saving the project again over the same file would fail.
+     * </p>
+     *
+     * @param channel  The project file.
+     * @param offset   Where the section starts.
+     * @param length   The length of the section, or 0 if it is empty.
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param tileSize The width and height of the tiles.
+     * @return The image, or null if the section is empty.
+     * @throws IOException If the section is the wrong length for the image, or
+     *                     cannot be read.
+     */
+    private static BufferedImage readImage(FileChannel channel, long offset, long length, int width, int height,
+            int tileSize) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+        if (width <= 0 || height <= 0 || length != 4L * width * height || length > Integer.MAX_VALUE) {
+            throw new IOException("Project image section is corrupt");
+        }
+        ByteBuffer tile = ByteBuffer.allocateDirect(4 * Math.min(tileSize, width) * Math.min(tileSize, height));
+        IntBuffer tilePixels = tile.asIntBuffer();
+        int[] pixels = new int[width * height];
+        long position = offset;
+        for (int tileY = 0; tileY < height; tileY += tileSize) {
+            for (int tileX = 0; tileX < width; tileX += tileSize) {
+                int tileWidth = Math.min(tileSize, width - tileX);
+                int tileHeight = Math.min(tileSize, height - tileY);
+                tile.clear().limit(4 * tileWidth * tileHeight);
+                readFully(channel, tile, position);
+                position += tile.limit();
+                tilePixels.clear();
+                for (int y = tileY; y < tileY + tileHeight; y++) {
+                    tilePixels.get(pixels, y * width + tileX, tileWidth);
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(image, pixels);
+        return image;
+    }
+
+    /**
+     * <p>
+     * Write the project to a file.
+     * </p>
+     *
+     * <p>
+     * The project is written to a temporary file and then renamed, so an
+     * existing project is not lost if writing fails part way.
+     * </p>
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeUTF(format);
+            out.writeInt(sourceType);
+            out.writeObject(ops);
+        }
+        byte[] history = bytes.toByteArray();
+
+        BufferedImage[] images = { original, render };
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(TILE_SIZE);
+        long[] offsets = new long[SECTIONS];
+        long end = HEADER;
+        for (int i = 0; i < SECTIONS; i++) {
+            offsets[i] = align(end);
+            long length = i < images.length ? imageLength(images[i]) : history.length;
+            int width = i < images.length && images[i] != null ? images[i].getWidth() : 0;
+            int height = i < images.length && images[i] != null ? images[i].getHeight() : 0;
+            header.putLong(offsets[i]).putLong(length).putInt(width).putInt(height);
+            end = offsets[i] + length;
+        }
+        header.flip();
+
+        Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        Path temp = Files.createTempFile(directory, file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeFully(channel, header, 0);
+                for (int i = 0; i < images.length; i++) {
+                    if (images[i] != null) {
+                        writeImage(channel, images[i], offsets[i]);
+                    }
+                }
+                writeFully(channel, ByteBuffer.wrap(history), offsets[2]);
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * <p>
+     * Write an image section, a tile at a time.
+     * </p>
+     *
+     * @param channel The project file.
+     * @param image   The image.
+     * @param offset  Where the section starts.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeImage(FileChannel channel, BufferedImage image, long offset) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ImagePixels.getPixels(image);
+        ByteBuffer tile = ByteBuffer.allocateDirect(4 * TILE_SIZE * TILE_SIZE);
+        IntBuffer tilePixels = tile.asIntBuffer();
+        long position = offset;
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - tileX);
+                int tileHeight = Math.min(TILE_SIZE, height - tileY);
+                tilePixels.clear();
+                for (int y = tileY; y < tileY + tileHeight; y++) {
+                    tilePixels.put(pixels, y * width + tileX, tileWidth);
+                }
+                tile.clear().limit(4 * tilePixels.position());
+                writeFully(channel, tile, position);
+                position += tile.limit();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Get the length of an image section.
+     * </p>
+     *
+     * @param image The image, or null.
+     * @return The number of bytes of pixels, or 0 for no image.
+     */
+    private static long imageLength(BufferedImage image) {
+        return image == null ? 0 : 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * <p>
+     * Round a position in the file up to the next section boundary.
+     * </p>
+     *
+     * @param position The position, in bytes.
+     * @return The first multiple of {@link ALIGNMENT} at or after it.
+     */
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * <p>
+     * Fill a buffer from a file.
+     * </p>
+     *
+     * @param channel  The file.
+     * @param buffer   The buffer to fill.
+     * @param position Where in the file to start reading.
+     * @throws IOException If the file ends first or cannot be read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * <p>
+     * Write all of a buffer to a file.
+     * </p>
+     *
+     * @param channel  The file.
+     * @param buffer   The buffer to write.
+     * @param position Where in the file to start writing.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * <p>
+     * Get the original image.
+     * </p>
+     *
+     * @return The original image, in ARGB.
+     */
+    BufferedImage getOriginal() {
+        return original;
+    }
+
+    /**
+     * <p>
+     * Get the result of applying the operations to the original image.
+     * </p>
+     *
+     * @return The result, in ARGB, or null if it was left out.
+     */
+    BufferedImage getRender() {
+        return render;
+    }
+
+    /**
+     * <p>
+     * Get the operations applied to the image.
+     * </p>
+     *
+     * @return The operations, in order.
+     */
+    Stack<ImageOperation> getOps() {
+        return ops;
+    }
+
+    /**
+     * <p>
+     * Get the file format the image came from.
+     * </p>
+     *
+     * @return The informal name of the format, e.g. png.
+     */
+    String getFormat() {
+        return format;
+    }
+
+    /**
+     * <p>
+     * Get the type the image was decoded as.
+     * </p>
+     *
+     * @return The {@link BufferedImage} type.
+     */
+    int getSourceType() {
+        return sourceType;
+    }
+}
@@ -0,0 +1,279 @@
+package cosc202.andie;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * ImageOperation to apply another operation inside a selection only.
+ * </p>
+ *
+ * <p>
+ * The selection is stored with the operation, so it is applied to the same
+ * area when the operation is redone, replayed or saved in a macro. Pixels
+ * outside the selection are left as they were.
+ * </p>
+ *
+ * <p>
+ * Only the part of the image that the wrapped operation needs is processed: the
+ * bounds of the selection plus a border as wide as the operation's
+ * {@link ImageOperation#getNeighbourhoodRadius()}, so blurring a small area of
+ * a large image costs about as much as blurring a small image. Operations that
+ * may depend on the whole image are given the whole image, and only their
+ * result is limited to the selection.
+ * </p>
+ *
+ * <p>
+ * A rectangular selection is copied back row by row. Any other shape is
+ * blended back through an antialiased mask, so its edges are smooth.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see ImagePanel#getSelection()
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class RegionOperation implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version this class had when it was added, kept so
+     * selection-limited operations saved since then still load.
+     */
+    private static final long serialVersionUID = -1171622268559594800L;
+
+    /** The operation to apply inside the selection. */
+    private ImageOperation operation;
+    /** The selected area, in image coordinates. */
+    private Shape selection;
+
+    /**
+     * <p>
+     * Construct an operation limited to a selection.
+     * </p>
+     *
+     * @param operation The operation to apply. It must not change the size of
+     *                  the image.
+     * @param selection The area to apply it to, in image coordinates. This
+     *                  should be serializable, such as a {@link Rectangle} or
+     *                  {@link java.awt.geom.Path2D}, so that the operation can
+     *                  be saved.
+     */
+    RegionOperation(ImageOperation operation, Shape selection) {
+        this.operation = operation;
+        this.selection = selection;
+    }
+
+    /**
+     * <p>
+     * Apply the operation inside the selection.
+     * </p>
+     *
+     * <p>
+     * The input image is not changed.
+     * </p>
+     *
+     * @param input The image to apply the operation to.
+     * @return A new ARGB image with the result, or the input itself if the
+     *         selection does not overlap it.
+     * @throws IllegalStateException If the operation changes the size of the
+     *                               image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        Rectangle bounds = new Rectangle(0, 0, width, height);
+        Rectangle region = selection.getBounds().intersection(bounds);
+        if (region.isEmpty()) {
+            return input;
+        }
+
+        // The part of the image the operation needs to calculate the region
+        Rectangle source = bounds;
+        int radius = operation.getNeighbourhoodRadius();
+        if (radius >= 0) {
+            source = new Rectangle(region);
+            source.grow(radius, radius);
+            source = source.intersection(bounds);
+        }
+
+        // Always a fresh copy, as some operations change their input
+        BufferedImage part = new BufferedImage(source.width, source.height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(part, ImagePixels.getPixels(
+                input.getSubimage(source.x, source.y, source.width, source.height)));
+        BufferedImage result = operation.apply(part);
+        if (result.getWidth() != source.width || result.getHeight() != source.height) {
+            throw new IllegalStateException("Operation changed the size of the selection");
+        }
+
+        int[] pixels = ImagePixels.getPixels(input);
+        int[] changed = ImagePixels.getPixels(result);
+        int offsetX = region.x - source.x;
+        int offsetY = region.y - source.y;
+        if (selection instanceof Rectangle) {
+            for (int y = 0; y < region.height; y++) {
+                System.arraycopy(changed, (offsetY + y) * source.width + offsetX,
+                        pixels, (region.y + y) * width + region.x, region.width);
+            }
+        } else {
+            byte[] mask = coverage(region);
+            for (int y = 0; y < region.height; y++) {
+                for (int x = 0; x < region.width; x++) {
+                    int weight = mask[y * region.width + x] & 0xFF;
+                    if (weight != 0) {
+                        int i = (region.y + y) * width + region.x + x;
+                        pixels[i] = blend(pixels[i], changed[(offsetY + y) * source.width + offsetX + x], weight);
+                    }
+                }
+            }
+        }
+
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(output, pixels);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Apply the operation inside the selection of a 16 bit image.
+     * </p>
+     *
+     * <p>
+     * This works the same way as {@link #apply(BufferedImage)}, and can only be
+     * used if the wrapped operation has a 16 bit version.
+     * </p>
+     *
+     * @param input The image to apply the operation to.
+     * @return A new image with the result, or the input itself if the selection
+     *         does not overlap it.
+     * @throws IllegalStateException If the operation changes the size of the
+     *                               image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        int width = input.width;
+        Rectangle bounds = new Rectangle(0, 0, width, input.height);
+        Rectangle region = selection.getBounds().intersection(bounds);
+        if (region.isEmpty()) {
+            return input;
+        }
+
+        Rectangle source = bounds;
+        int radius = operation.getNeighbourhoodRadius();
+        if (radius >= 0) {
+            source = new Rectangle(region);
+            source.grow(radius, radius);
+            source = source.intersection(bounds);
+        }
+
+        HighPrecisionImage result = ((HighPrecisionOperation) operation).apply(input.crop(source));
+        if (result.width != source.width || result.height != source.height) {
+            throw new IllegalStateException("Operation changed the size of the selection");
+        }
+
+        HighPrecisionImage output = input.copy();
+        short[][] from = { result.red, result.green, result.blue, result.alpha };
+        short[][] to = { output.red, output.green, output.blue, output.alpha };
+        int offsetX = region.x - source.x;
+        int offsetY = region.y - source.y;
+        byte[] mask = selection instanceof Rectangle ? null : coverage(region);
+        for (int y = 0; y < region.height; y++) {
+            int changed = (offsetY + y) * source.width + offsetX;
+            int row = (region.y + y) * width + region.x;
+            for (int plane = 0; plane < 4; plane++) {
+                if (mask == null) {
+                    System.arraycopy(from[plane], changed, to[plane], row, region.width);
+                    continue;
+                }
+                for (int x = 0; x < region.width; x++) {
+                    int weight = mask[y * region.width + x] & 0xFF;
+                    int a = to[plane][row + x] & HighPrecisionImage.MAX;
+                    int b = from[plane][changed + x] & HighPrecisionImage.MAX;
+                    to[plane][row + x] = (short) ((a * (255 - weight) + b * weight + 127) / 255);
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * <p>
+     * Check whether the operation can be applied at 16 bits per channel.
+     * </p>
+     *
+     * @return True if the wrapped operation can be.
+     */
+    public boolean hasHighPrecision() {
+        return operation instanceof HighPrecisionOperation
+                && ((HighPrecisionOperation) operation).hasHighPrecision();
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return The radius of the wrapped operation.
+     */
+    public int getNeighbourhoodRadius() {
+        return operation.getNeighbourhoodRadius();
+    }
+
+    /**
+     * <p>
+     * Get the part of an image the operation changes.
+     * </p>
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The bounds of the selection, clipped to the image.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        return selection.getBounds().intersection(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * <p>
+     * Draw the selection as an antialiased mask.
+     * </p>
+     *
+     * @param region The area of the image to draw the mask for.
+     * @return How much of each pixel of the region is selected, from 0 (none) to
+     *         255 (all), in rows of the region's width.
+     */
+    private byte[] coverage(Rectangle region) {
+        BufferedImage mask = new BufferedImage(region.width, region.height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = mask.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.translate(-region.x, -region.y);
+        g.fill(selection);
+        g.dispose();
+        return (byte[]) mask.getRaster().getDataElements(0, 0, region.width, region.height, null);
+    }
+
+    /**
+     * <p>
+     * Mix two pixels.
+     * </p>
+     *
+     * @param from   The pixel to mix from.
+     * @param to     The pixel to mix towards.
+     * @param weight How much of {@code to} to use, from 0 to 255.
+     * @return The mixed pixel.
+     */
+    private static int blend(int from, int to, int weight) {
+        if (weight == 255) {
+            return to;
+        }
+        int mixed = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (from >>> shift) & 0xFF;
+            int b = (to >>> shift) & 0xFF;
+            mixed |= ((a * (255 - weight) + b * weight + 127) / 255) << shift;
+        }
+        return mixed;
+    }
+}
@@ -1,7 +1,8 @@
 package cosc202.andie;
 
 import java.awt.image.BufferedImage;
-import java.util.*;
+import java.io.*;
+import java.util.Arrays;
 
 /**
  * ImageOperation to remove the background from an image.
@@ -9,6 +10,13 @@ import java.util.*;
  * background color.
  * The removed pixels will be made transparent.
  * <p>
+ * The background colour is the most common colour in the image. A pixel is
+ * removed if it and all of its neighbours are within the threshold of the
+ * background colour, and it is connected to the edge of the image through
+ * other removed pixels. Areas of background colour enclosed by the subject are
+ * kept.
+ * </p>
+ * <p>
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
  * 4.0</a>
  * </p>
@@ -18,13 +26,57 @@ import java.util.*;
  */
 public class RemoveBackground implements ImageOperation, java.io.Serializable {
 
+    /** The serialization version from before the threshold could be changed. */
+    private static final long serialVersionUID = 280223466996818552L;
+
+    /** The default threshold used when none is given. */
+    static final int DEFAULT_THRESHOLD = 100;
+
+    /**
+     * The largest sum of the differences in red, green and blue from the
+     * background colour for a pixel to count as background.
+     */
+    private int threshold;
+
     /**
      * <p>
      * Create a new RemoveBackground operation.
      * </p>
+     * 
+     * @param threshold The largest sum of the differences in red, green and blue
+     *                  from the background colour for a pixel to count as
+     *                  background.
+     */
+    RemoveBackground(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * <p>
+     * Create a new RemoveBackground operation with the default threshold.
+     * </p>
      */
     RemoveBackground() {
+        this(DEFAULT_THRESHOLD);
+    }
 
+    /**
+     * <p>
+     * Load a saved RemoveBackground operation.
+     * </p>
+     * 
+     * <p>
+     * Operations saved before the threshold could be changed have none, and use
+     * the default threshold, as they always did.
+     * </p>
+     * 
+     * @param in The stream to load from.
+     * @throws IOException            If the stream cannot be read.
+     * @throws ClassNotFoundException If a saved class cannot be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        threshold = fields.get("threshold", DEFAULT_THRESHOLD);
     }
 
     /**
@@ -36,53 +88,202 @@ public class RemoveBackground implements ImageOperation, java.io.Serializable {
     public BufferedImage apply(BufferedImage input) {
         int width = input.getWidth();
         int height = input.getHeight();
+        int[] pixels = ImagePixels.getPixels(input);
+
+        int backgroundColor = mostCommonColour(pixels);
+
+        // Mark every pixel that is similar to the background colour
+        boolean[] similar = new boolean[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            similar[i] = isSimilarColor(pixels[i], backgroundColor, threshold);
+        }
+
+        boolean[] removed = floodFromBorder(similar, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            if (removed[i]) {
+                pixels[i] &= 0x00FFFFFF;
+            }
+        }
 
         BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ImagePixels.setPixels(output, pixels);
+        return output;
+    }
 
-        Map<Integer, Integer> colorCount = new HashMap<>();
+    /**
+     * <p>
+     * Find the most common colour in an image.
+     * </p>
+     * 
+     * <p>
+     * Colours are counted in an open addressing hash table held in two primitive
+     * arrays, one of colours and one of counts, so no objects are created per
+     * pixel. A count of zero marks an empty slot. The table doubles in size
+     * whenever it becomes half full.
+     * </p>
+     * 
+     * @param pixels The packed ARGB pixels of the image.
+     * @return The most common colour, or 0 if there are no pixels.
+     */
+    private static int mostCommonColour(int[] pixels) {
+        int capacity = 1024;
+        int[] colours = new int[capacity];
+        int[] counts = new int[capacity];
+        int size = 0;
 
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int argb = input.getRGB(x, y);
+        for (int argb : pixels) {
+            int slot = slot(argb, capacity);
+            while (counts[slot] != 0 && colours[slot] != argb) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (counts[slot] == 0) {
+                colours[slot] = argb;
+                size++;
+            }
+            counts[slot]++;
 
-                if (!colorCount.containsKey(argb)) {
-                    colorCount.put(argb, 1);
-                } else {
-                    int count = colorCount.get(argb);
-                    colorCount.put(argb, count + 1);
+            if (size * 2 > capacity) {
+                int[] oldColours = colours;
+                int[] oldCounts = counts;
+                capacity *= 2;
+                colours = new int[capacity];
+                counts = new int[capacity];
+                for (int i = 0; i < oldCounts.length; i++) {
+                    if (oldCounts[i] != 0) {
+                        int newSlot = slot(oldColours[i], capacity);
+                        while (counts[newSlot] != 0) {
+                            newSlot = (newSlot + 1) & (capacity - 1);
+                        }
+                        colours[newSlot] = oldColours[i];
+                        counts[newSlot] = oldCounts[i];
+                    }
                 }
             }
         }
 
         int backgroundColor = 0;
         int maxCount = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (counts[i] > maxCount) {
+                backgroundColor = colours[i];
+                maxCount = counts[i];
+            }
+        }
+        return backgroundColor;
+    }
 
-        for (Map.Entry<Integer, Integer> entry : colorCount.entrySet()) {
-            int color = entry.getKey();
-            int count = entry.getValue();
+    /**
+     * <p>
+     * Get the starting slot for a colour in the colour count table.
+     * </p>
+     * 
+     * @param argb     The colour.
+     * @param capacity The size of the table, a power of two.
+     * @return The slot to start searching from.
+     */
+    private static int slot(int argb, int capacity) {
+        // Fibonacci hashing spreads similar colours across the table
+        return (argb * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(capacity));
+    }
 
-            if (count > maxCount) {
-                backgroundColor = color;
-                maxCount = count;
+    /**
+     * <p>
+     * Find the background pixels that are connected to the edge of the image.
+     * </p>
+     * 
+     * <p>
+     * A pixel can be filled if it and all of its neighbours are similar to the
+     * background colour. Filling starts from every such pixel on the edge of the
+     * image, and spreads a whole horizontal run of pixels at a time. Each run
+     * leaves one seed on the rows above and below for each separate run of
+     * fillable pixels it touches, so each pixel is only visited a small fixed
+     * number of times.
+     * </p>
+     * 
+     * @param similar Whether each pixel is similar to the background colour.
+     * @param width   The width of the image.
+     * @param height  The height of the image.
+     * @return Whether each pixel was filled.
+     */
+    private static boolean[] floodFromBorder(boolean[] similar, int width, int height) {
+        boolean[] fillable = new boolean[similar.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                fillable[y * width + x] = hasSimilarSurroundingPixels(similar, width, height, x, y);
             }
         }
 
-        int threshold = 100;
+        boolean[] filled = new boolean[similar.length];
+        int[] stack = new int[2 * (width + height)];
+        int top = 0;
+
+        // Seed the fill with every fillable pixel on the edge of the image
+        for (int x = 0; x < width; x++) {
+            top = push(stack, top, fillable, x);
+            top = push(stack, top, fillable, (height - 1) * width + x);
+        }
+        for (int y = 0; y < height; y++) {
+            top = push(stack, top, fillable, y * width);
+            top = push(stack, top, fillable, y * width + width - 1);
+        }
 
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int argb = input.getRGB(x, y);
+        while (top > 0) {
+            int seed = stack[--top];
+            if (filled[seed]) {
+                continue;
+            }
+            int row = (seed / width) * width;
+            int left = seed;
+            while (left > row && fillable[left - 1] && !filled[left - 1]) {
+                left--;
+            }
+            int right = seed;
+            while (right < row + width - 1 && fillable[right + 1] && !filled[right + 1]) {
+                right++;
+            }
+            Arrays.fill(filled, left, right + 1, true);
 
-                if (isSimilarColor(argb, backgroundColor, threshold)
-                        && hasSimilarSurroundingPixels(input, x, y, backgroundColor, threshold)) {
-                    argb &= 0x00FFFFFF;
+            // Seed each run of fillable pixels above and below this run
+            for (int adjacent = row - width; adjacent <= row + width; adjacent += 2 * width) {
+                if (adjacent < 0 || adjacent >= similar.length) {
+                    continue;
+                }
+                boolean inRun = false;
+                for (int j = left - row + adjacent; j <= right - row + adjacent; j++) {
+                    boolean open = fillable[j] && !filled[j];
+                    if (open && !inRun) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = j;
+                    }
+                    inRun = open;
                 }
-
-                output.setRGB(x, y, argb);
             }
         }
 
-        return output;
+        return filled;
+    }
+    /**
+     * <p>
+     * Add a pixel to the fill stack if it can be filled.
+     * </p>
+     * 
+     * <p>
+     * The stack must have room for the pixel.
+     * </p>
+     * 
+     * @param stack    The stack of pixels to fill from.
+     * @param top      The number of pixels on the stack.
+     * @param fillable Whether each pixel can be filled.
+     * @param pixel    The index of the pixel.
+     * @return The new number of pixels on the stack.
+     */
+    private static int push(int[] stack, int top, boolean[] fillable, int pixel) {
+        if (fillable[pixel]) {
+            stack[top++] = pixel;
+        }
+        return top;
     }
 
     private static boolean isSimilarColor(int color1, int color2, int threshold) {
@@ -101,20 +302,16 @@ public class RemoveBackground implements ImageOperation, java.io.Serializable {
         return (diffR + diffG + diffB) <= threshold;
     }
 
-    private static boolean hasSimilarSurroundingPixels(BufferedImage image, int x, int y, int backgroundColor,
-            int threshold) {
+    private static boolean hasSimilarSurroundingPixels(boolean[] similar, int width, int height, int x, int y) {
         int startX = Math.max(0, x - 1);
         int startY = Math.max(0, y - 1);
-        int endX = Math.min(image.getWidth() - 1, x + 1);
-        int endY = Math.min(image.getHeight() - 1, y + 1);
-
-        for (int i = startX; i <= endX; i++) {
-            for (int j = startY; j <= endY; j++) {
-                if (i != x || j != y) {
-                    int argb = image.getRGB(i, j);
-                    if (!isSimilarColor(argb, backgroundColor, threshold)) {
-                        return false;
-                    }
+        int endX = Math.min(width - 1, x + 1);
+        int endY = Math.min(height - 1, y + 1);
+
+        for (int j = startY; j <= endY; j++) {
+            for (int i = startX; i <= endX; i++) {
+                if (!similar[j * width + i]) {
+                    return false;
                 }
             }
         }
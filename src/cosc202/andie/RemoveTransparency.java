@@ -16,20 +16,26 @@ public class RemoveTransparency implements ImageOperation {
         BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
         // Iterate over each pixel and replace transparent pixels with white
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int argb = input.getRGB(x, y);
-                int alpha = (argb >> 24) & 0xFF;
-
-                // If the pixel is transparent, replace with white
-                if (alpha == 0) {
-                    argb = 0xFFFFFFFF; // White color
-                }
-
-                result.setRGB(x, y, argb);
+        int[] pixels = ImagePixels.getPixels(input);
+        for (int i = 0; i < pixels.length; i++) {
+            // If the pixel is transparent, replace with white
+            if ((pixels[i] & 0xFF000000) == 0) {
+                pixels[i] = 0xFFFFFFFF; // White color
             }
         }
+        ImagePixels.setPixels(result, pixels);
 
         return result;
     }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 0, as each pixel is replaced on its own.
+     */
+    public int getNeighbourhoodRadius() {
+        return 0;
+    }
 }
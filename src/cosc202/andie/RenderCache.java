@@ -0,0 +1,299 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * <p>
+ * Results of applying operations to images, kept on disk between sessions.
+ * </p>
+ *
+ * <p>
+ * Opening an image with a saved <code>.ops</code> file normally applies every
+ * operation to the original again, which can take a long time for a large image
+ * with a long history. Instead, the result is saved here when the image is
+ * opened or saved, and the next time the same history is opened it is read
+ * straight back. If the history has grown since, the result for the longest
+ * part of it that was saved is read back and only the rest is applied, so
+ * earlier results act as checkpoints.
+ * </p>
+ *
+ * <p>
+ * Results are identified by a SHA-256 hash of the original file's contents
+ * followed by each operation, serialized, so a result is only reused for
+ * exactly the same image and operations, wherever the file has been moved or
+ * copied to. They are stored uncompressed, as raw ARGB pixels after a short
+ * header, so reading one back is as fast as the disk. When the cache grows past
+ * its budget, the results used least recently are deleted.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#open(String)
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class RenderCache {
+
+    /** The default size of the cache, 1GB. */
+    static final long DEFAULT_BUDGET = 1L << 30;
+    /** The file name extension of saved results. */
+    private static final String SUFFIX = ".argb";
+    /** Marks the start of a saved result, "ANDC". */
+    private static final int MAGIC = 0x414E4443;
+    /**
+     * The version of the file format and of the operations. Changing it makes
+     * every saved result unusable, such as after an operation's output changes.
+     */
+    private static final int VERSION = 1;
+    /** The length of the header, in bytes. */
+    private static final int HEADER = 16;
+
+    /** The cache in the user's home directory. */
+    private static RenderCache defaultCache;
+
+    /** The directory results are saved in. */
+    private final File directory;
+    /** The most bytes of results to keep. */
+    private final long budget;
+
+    /**
+     * <p>
+     * Create a cache in a directory.
+     * </p>
+     *
+     * @param directory The directory to save results in. It is created when the
+     *                  first result is saved.
+     * @param budget    The most bytes of results to keep.
+     */
+    RenderCache(File directory, long budget) {
+        this.directory = directory;
+        this.budget = budget;
+    }
+
+    /**
+     * <p>
+     * Get the cache shared by every image, in <code>.andie/cache</code> in the
+     * user's home directory.
+     * </p>
+     *
+     * @return The cache.
+     */
+    static synchronized RenderCache getDefault() {
+        if (defaultCache == null) {
+            File home = new File(System.getProperty("user.home"));
+            defaultCache = new RenderCache(new File(new File(home, ".andie"), "cache"), DEFAULT_BUDGET);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * <p>
+     * Work out the keys for the results of applying each part of a history of
+     * operations to an image.
+     * </p>
+     *
+     * @param original The file the original image was read from.
+     * @param ops      The operations, in order. They must be serializable.
+     * @return The keys, one more than there are operations. Key {@code k} is for
+     *         the result of applying the first {@code k} operations.
+     * @throws IOException If the file cannot be read or an operation cannot be
+     *                     serialized.
+     */
+    static List<String> keys(File original, List<ImageOperation> ops) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(original)) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        List<String> keys = new ArrayList<String>(ops.size() + 1);
+        try {
+            keys.add(hex(((MessageDigest) digest.clone()).digest()));
+            for (ImageOperation op : ops) {
+                // Each operation on its own stream, so its bytes do not depend on
+                // the ones before it
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(op);
+                }
+                digest.update(bytes.toByteArray());
+                keys.add(hex(((MessageDigest) digest.clone()).digest()));
+            }
+        } catch (CloneNotSupportedException e) {
+            throw new IOException("SHA-256 cannot be cloned", e);
+        }
+        return keys;
+    }
+
+    /**
+     * <p>
+     * Check whether a result is saved.
+     * </p>
+     *
+     * @param key The result's key, from {@link #keys}.
+     * @return True if there is a result for the key.
+     */
+    boolean contains(String key) {
+        return new File(directory, key + SUFFIX).isFile();
+    }
+
+    /**
+     * <p>
+     * Read a saved result.
+     * </p>
+     *
+     * @param key The result's key, from {@link #keys}.
+     * @return The image, or null if there is no usable result for the key.
+     */
+    BufferedImage load(String key) {
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            readFully(channel, header);
+            header.flip();
+            int magic = header.getInt();
+            int version = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            if (magic != MAGIC || version != VERSION || width <= 0 || height <= 0
+                    || channel.size() != HEADER + 4L * width * height) {
+                return null;
+            }
+
+            ByteBuffer data = ByteBuffer.allocate(4 * width * height);
+            readFully(channel, data);
+            data.flip();
+            int[] pixels = new int[width * height];
+            data.asIntBuffer().get(pixels);
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            ImagePixels.setPixels(image, pixels);
+
+            // Mark it as recently used
+            file.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Save a result, then delete the results used least recently if the cache
+     * is over its budget.
+     * </p>
+     *
+     * <p>
+     * The result is written to a temporary file and then renamed, so another
+     * copy of ANDIE never reads half of it.
+     * </p>
+     *
+     * @param key   The result's key, from {@link #keys}.
+     * @param image The image.
+     * @throws IOException If the result cannot be written.
+     */
+    void store(String key, BufferedImage image) throws IOException {
+        long size = HEADER + 4L * image.getWidth() * image.getHeight();
+        if (size > budget || size > Integer.MAX_VALUE) {
+            return;
+        }
+        Files.createDirectories(directory.toPath());
+        Path temp = Files.createTempFile(directory.toPath(), key, ".tmp");
+        try {
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            data.putInt(MAGIC).putInt(VERSION).putInt(image.getWidth()).putInt(image.getHeight());
+            data.asIntBuffer().put(ImagePixels.getPixels(image));
+            data.rewind();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            Files.move(temp, new File(directory, key + SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evict();
+    }
+
+    /**
+     * <p>
+     * Delete the results used least recently until the cache fits its budget.
+     * </p>
+     */
+    private void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= budget) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= budget) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Fill a buffer from a file.
+     * </p>
+     *
+     * @param channel The file.
+     * @param buffer  The buffer to fill.
+     * @throws IOException If the file ends first or cannot be read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Write bytes as hexadecimal.
+     * </p>
+     *
+     * @param bytes The bytes.
+     * @return Two lower case hexadecimal digits per byte.
+     */
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,554 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import com.sun.net.httpserver.*;
+
+/**
+ * <p>
+ * A local HTTP server that applies operations to images for other programs,
+ * without showing any windows.
+ * </p>
+ *
+ * <p>
+ * Started with <code>--serve [port]</code>, it listens on the loopback address
+ * only. A <code>POST</code> to <code>/render</code> sends an image and a list of
+ * operations, and the response is the image with the operations applied, in the
+ * format given by the <code>format</code> query parameter (PNG by default). The
+ * request body is the operations, serialized exactly as in an <code>.ops</code>
+ * file, followed by the image file. The number of bytes of operations is given
+ * in the <code>X-Andie-Ops-Length</code> header, and if it is missing the image
+ * is only converted. A <code>GET</code> of <code>/metrics</code> gives counts of
+ * requests and the state of the queue and cache as plain text.
+ * </p>
+ *
+ * <p>
+ * Requests are worked on by a fixed number of threads, with a bounded queue in
+ * front of them, and the size of the operations and of the image are checked
+ * before anything is made from them, so a burst of requests cannot use up all
+ * the memory. When the queue is full a request is turned away with 503 straight
+ * away, and a request that fails in any way is answered with an error and
+ * counted. The image is
+ * decoded as it arrives and the result is encoded straight into the response,
+ * and the most recently used results are kept in memory, so a repeated request
+ * skips applying the operations and encoding the result again.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see Andie#main(String[])
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class RenderServer {
+
+    /** The port listened on if none is given. */
+    static final int DEFAULT_PORT = 8202;
+    /** The header giving the number of bytes of operations in a request. */
+    static final String OPS_LENGTH = "X-Andie-Ops-Length";
+    /** The most requests waiting for a thread, per thread. */
+    private static final int QUEUE_PER_THREAD = 4;
+    /** The most bytes of operations a request can send. */
+    private static final int MAX_OPS_LENGTH = 1 << 20;
+    /** The largest image a request can send, in pixels. */
+    private static final long MAX_PIXELS = 1L << 26;
+    /** The most bytes of results to keep in memory. */
+    private static final long CACHE_BUDGET = 256L << 20;
+    /** The most bytes a single result can be and still be kept. */
+    private static final int MAX_CACHED = 32 << 20;
+    /**
+     * The classes operations may be made of, and limits on their size, checked as
+     * they are deserialized. No array can hold more elements than there are bytes
+     * of operations, so longer ones are refused before they are made.
+     */
+    private static final ObjectInputFilter OPS_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=32;maxrefs=100000;maxarray=" + MAX_OPS_LENGTH + ";maxbytes=" + MAX_OPS_LENGTH
+                    + ";cosc202.andie.*;java.util.*;java.lang.*;java.awt.**;!*");
+
+    /** The HTTP server. */
+    private final HttpServer server;
+    /** The threads requests are worked on by, with the queue in front of them. */
+    private final ThreadPoolExecutor workers;
+    /** Encoded results by request hash, least recently used first. */
+    private final LinkedHashMap<String, byte[]> cache;
+    /** The total bytes of results in {@link #cache}. */
+    private long cacheBytes;
+
+    /** The number of render requests received. */
+    private final AtomicLong requests = new AtomicLong();
+    /** The number of render requests turned away because the queue was full. */
+    private final AtomicLong rejected = new AtomicLong();
+    /** The number of render requests that failed. */
+    private final AtomicLong failed = new AtomicLong();
+    /** The number of render requests answered from the cache. */
+    private final AtomicLong cacheHits = new AtomicLong();
+    /** The number of render requests whose operations were applied. */
+    private final AtomicLong rendered = new AtomicLong();
+    /** The total time requests spent waiting in the queue, in nanoseconds. */
+    private final AtomicLong queueNanos = new AtomicLong();
+    /** The total time spent working on requests, in nanoseconds. */
+    private final AtomicLong workNanos = new AtomicLong();
+
+    /**
+     * <p>
+     * Create a server on the loopback address.
+     * </p>
+     *
+     * @param port    The port to listen on, or 0 for any free port.
+     * @param threads The number of requests to work on at once.
+     * @throws IOException If the port cannot be listened on.
+     */
+    RenderServer(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_PER_THREAD * threads));
+        cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        cacheBytes = 0;
+        // Handlers only queue the request, so they run on the server's own thread
+        server.createContext("/render", this::queue);
+        server.createContext("/metrics", this::metrics);
+    }
+
+    /**
+     * <p>
+     * Run a server until the program is stopped.
+     * </p>
+     *
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be listened on.
+     */
+    static void serve(int port) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        RenderServer renderServer = new RenderServer(port, Runtime.getRuntime().availableProcessors());
+        renderServer.start();
+        System.out.println("ANDIE render server listening on http://" + renderServer.getAddress().getHostString()
+                + ":" + renderServer.getAddress().getPort() + "/render");
+    }
+
+    /**
+     * <p>
+     * Start listening.
+     * </p>
+     */
+    void start() {
+        server.start();
+    }
+
+    /**
+     * <p>
+     * Stop listening, and stop working on requests.
+     * </p>
+     */
+    void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    /**
+     * <p>
+     * Get the address the server is listening on.
+     * </p>
+     *
+     * @return The address and port.
+     */
+    InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * <p>
+     * Queue a render request for a worker thread, or turn it away if the queue
+     * is full.
+     * </p>
+     *
+     * @param exchange The request.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void queue(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendText(exchange, 405, "Use POST");
+            return;
+        }
+        requests.incrementAndGet();
+        long queued = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                long started = System.nanoTime();
+                queueNanos.addAndGet(started - queued);
+                try {
+                    render(exchange);
+                } catch (Throwable e) {
+                    // Including running out of memory, so the client still hears back
+                    failed.incrementAndGet();
+                    if (exchange.getResponseCode() == -1) {
+                        try {
+                            sendText(exchange, 500, "Could not render: " + e);
+                        } catch (IOException sendError) {
+                            // The client has gone
+                        }
+                    }
+                } finally {
+                    exchange.close();
+                    workNanos.addAndGet(System.nanoTime() - started);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendText(exchange, 503, "Too many requests are waiting");
+        }
+    }
+
+    /**
+     * <p>
+     * Apply a request's operations to its image and send the result.
+     * </p>
+     *
+     * <p>
+     * The request is hashed as it is read. If the same request has been answered
+     * before, the result is sent from the cache.
+     * </p>
+     *
+     * @param exchange The request.
+     * @throws IOException If the request cannot be read or the response cannot
+     *                     be sent.
+     */
+    private void render(HttpExchange exchange) throws IOException {
+        String format = query(exchange.getRequestURI(), "format", "png").toLowerCase();
+        if (!format.equals("png") && !PnmFile.isFormat(format)
+                && !ImageIO.getImageWritersByFormatName(format).hasNext()) {
+            failed.incrementAndGet();
+            sendText(exchange, 400, "No image writer for format " + format);
+            return;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        digest.update(format.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+
+        List<ImageOperation> ops;
+        BufferedImage image;
+        try (InputStream body = new DigestInputStream(new BufferedInputStream(exchange.getRequestBody()), digest)) {
+            ops = readOps(body, exchange.getRequestHeaders().getFirst(OPS_LENGTH));
+            image = readImage(new FilterInputStream(body) {
+                @Override
+                public void close() {
+                    // The rest of the body is still to be hashed
+                }
+            });
+            body.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException | ClassNotFoundException | ClassCastException | IllegalArgumentException e) {
+            failed.incrementAndGet();
+            sendText(exchange, 400, "Could not read request: " + e.getMessage());
+            return;
+        }
+        if (image == null) {
+            failed.incrementAndGet();
+            sendText(exchange, 400, "Could not read image");
+            return;
+        }
+
+        String key = hex(digest.digest());
+        byte[] cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType(format));
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            exchange.getResponseHeaders().set("X-Andie-Cache", "hit");
+            exchange.sendResponseHeaders(200, cached.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(cached);
+            }
+            return;
+        }
+
+        int sourceType = image.getType();
+        image = ImagePixels.toArgb(image);
+        try {
+            for (ImageOperation op : ops) {
+                image = op.apply(image);
+            }
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            sendText(exchange, 500, "Could not apply operations: " + e);
+            return;
+        }
+        rendered.incrementAndGet();
+
+        // Send as it is encoded, keeping a copy for the cache unless it is too big
+        exchange.getResponseHeaders().set("X-Andie-Cache", "miss");
+        exchange.sendResponseHeaders(200, 0);
+        Recorder out = new Recorder(exchange.getResponseBody());
+        try (out) {
+            ImageExport.writeImage(image, format, out, sourceType, percent -> {
+            });
+        }
+        if (out.getCopy() != null) {
+            remember(key, out.getCopy());
+        }
+    }
+
+    /**
+     * <p>
+     * A stream that keeps a copy of what is written through it, unless it gets
+     * too big to cache.
+     * </p>
+     */
+    private static class Recorder extends FilterOutputStream {
+        /** The bytes written so far, or null if there were too many. */
+        private ByteArrayOutputStream copy;
+
+        /**
+         * <p>
+         * Create a stream that keeps a copy.
+         * </p>
+         *
+         * @param out The stream to write through to.
+         */
+        Recorder(OutputStream out) {
+            super(out);
+            copy = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null && copy.size() + len > MAX_CACHED) {
+                copy = null;
+            } else if (copy != null) {
+                copy.write(b, off, len);
+            }
+        }
+
+        /**
+         * <p>
+         * Get the copy of what was written.
+         * </p>
+         *
+         * @return The bytes, or null if there were too many to keep.
+         */
+        byte[] getCopy() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+
+    /**
+     * <p>
+     * Read the operations at the start of a request.
+     * </p>
+     *
+     * @param body   The request body.
+     * @param length The value of the {@link #OPS_LENGTH} header, or null if there
+     *               are no operations.
+     * @return The operations, in order.
+     * @throws IOException            If they cannot be read.
+     * @throws ClassNotFoundException If they are made of an unknown class.
+     * @throws ClassCastException     If they are not a list of operations.
+     */
+    private static List<ImageOperation> readOps(InputStream body, String length)
+            throws IOException, ClassNotFoundException {
+        List<ImageOperation> ops = new ArrayList<ImageOperation>();
+        if (length == null) {
+            return ops;
+        }
+        int size = Integer.parseInt(length.trim());
+        if (size < 0 || size > MAX_OPS_LENGTH) {
+            throw new IOException("Operations must be at most " + MAX_OPS_LENGTH + " bytes");
+        }
+        byte[] bytes = body.readNBytes(size);
+        if (bytes.length < size) {
+            throw new EOFException("Request ended in the operations");
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(OPS_FILTER);
+            for (Object op : (List<?>) in.readObject()) {
+                ops.add((ImageOperation) op);
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * <p>
+     * Decode the image in a request, after checking it is not too large.
+     * </p>
+     *
+     * <p>
+     * The size is read from the image's header first, so an image claiming to be
+     * huge is refused before its pixels are allocated.
+     * </p>
+     *
+     * @param body The rest of the request body.
+     * @return The image, or null if no reader recognises it.
+     * @throws IOException If the image is too large or cannot be read.
+     */
+    private static BufferedImage readImage(InputStream body) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(body)) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    throw new IOException("Image is too large: " + width + "x" + height);
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Keep a result, forgetting the results used least recently if there are
+     * too many.
+     * </p>
+     *
+     * @param key    The hash of the request.
+     * @param result The encoded result.
+     */
+    private void remember(String key, byte[] result) {
+        synchronized (cache) {
+            byte[] old = cache.put(key, result);
+            cacheBytes += result.length - (old == null ? 0 : old.length);
+            Iterator<byte[]> oldest = cache.values().iterator();
+            while (cacheBytes > CACHE_BUDGET && oldest.hasNext()) {
+                cacheBytes -= oldest.next().length;
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Send the counts of requests and the state of the queue and cache.
+     * </p>
+     *
+     * @param exchange The request.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+        int entries;
+        long bytes;
+        synchronized (cache) {
+            entries = cache.size();
+            bytes = cacheBytes;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append("requests ").append(requests.get()).append('\n');
+        text.append("rendered ").append(rendered.get()).append('\n');
+        text.append("cache_hits ").append(cacheHits.get()).append('\n');
+        text.append("rejected ").append(rejected.get()).append('\n');
+        text.append("failed ").append(failed.get()).append('\n');
+        text.append("queued ").append(workers.getQueue().size()).append('\n');
+        text.append("queue_capacity ").append(workers.getQueue().size() + workers.getQueue().remainingCapacity())
+                .append('\n');
+        text.append("active ").append(workers.getActiveCount()).append('\n');
+        text.append("threads ").append(workers.getMaximumPoolSize()).append('\n');
+        text.append("queue_wait_ms_total ").append(queueNanos.get() / 1000000).append('\n');
+        text.append("work_ms_total ").append(workNanos.get() / 1000000).append('\n');
+        text.append("cache_entries ").append(entries).append('\n');
+        text.append("cache_bytes ").append(bytes).append('\n');
+        sendText(exchange, 200, text.toString());
+    }
+
+    /**
+     * <p>
+     * Send a plain text response and end the exchange.
+     * </p>
+     *
+     * @param exchange The request.
+     * @param status   The HTTP status code.
+     * @param message  The text to send.
+     * @throws IOException If the response cannot be sent.
+     */
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * <p>
+     * Get a parameter from a URI's query string.
+     * </p>
+     *
+     * @param uri      The URI.
+     * @param name     The name of the parameter.
+     * @param fallback The value to use if it is not there.
+     * @return The parameter's value.
+     */
+    private static String query(URI uri, String name, String fallback) {
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                    return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * <p>
+     * Get the MIME type of a file format.
+     * </p>
+     *
+     * @param format The informal name of the format, e.g. png.
+     * @return The MIME type, or <code>application/octet-stream</code> if it is not
+     *         known.
+     */
+    private static String contentType(String format) {
+        String type = URLConnection.guessContentTypeFromName("image." + format);
+        return type != null ? type : "application/octet-stream";
+    }
+
+    /**
+     * <p>
+     * Write bytes as hexadecimal.
+     * </p>
+     *
+     * @param bytes The bytes.
+     * @return Two lower case hexadecimal digits per byte.
+     */
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+}
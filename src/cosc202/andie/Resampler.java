@@ -0,0 +1,556 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Helper methods to resample an image to a new size.
+ * </p>
+ *
+ * <p>
+ * Resampling is done as two separable passes, first across each row and then
+ * down each column. The filter weights for every output column (or row) are
+ * calculated once up front, as they are the same for every row (or column),
+ * and the rows of each pass are processed in parallel. Weights are stored as
+ * fixed point integers so the inner loops only use integer arithmetic.
+ * </p>
+ *
+ * <p>
+ * Colours are filtered with premultiplied alpha, so that the colour of fully
+ * transparent pixels does not bleed into their neighbours.
+ * </p>
+ *
+ * <p>
+ * When an image is reduced to less than a quarter of its size along an axis,
+ * it is first repeatedly halved by averaging pairs of pixels. This is much
+ * cheaper than a filter wide enough to cover the whole reduction, and the final
+ * filtered pass then only has a small reduction left to do.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see Resize
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class Resampler {
+
+    /** The number of fractional bits in the fixed point filter weights. */
+    private static final int PRECISION = 14;
+
+    /**
+     * <p>
+     * The reconstruction filters available for resampling.
+     * </p>
+     */
+    public enum Filter {
+        /** Use the nearest source pixel, with no smoothing. */
+        NEAREST(0.5) {
+            double weight(double x) {
+                return (x >= -0.5 && x < 0.5) ? 1.0 : 0.0;
+            }
+        },
+        /** Linear interpolation between neighbouring pixels. */
+        BILINEAR(1.0) {
+            double weight(double x) {
+                x = Math.abs(x);
+                return x < 1.0 ? 1.0 - x : 0.0;
+            }
+        },
+        /** Cubic interpolation using the Catmull-Rom spline. */
+        BICUBIC(2.0) {
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1.0) {
+                    return (1.5 * x - 2.5) * x * x + 1.0;
+                } else if (x < 2.0) {
+                    return ((-0.5 * x + 2.5) * x - 4.0) * x + 2.0;
+                }
+                return 0.0;
+            }
+        },
+        /** A windowed sinc filter over three lobes, the sharpest of the filters. */
+        LANCZOS3(3.0) {
+            double weight(double x) {
+                if (x == 0.0) {
+                    return 1.0;
+                } else if (x <= -3.0 || x >= 3.0) {
+                    return 0.0;
+                }
+                double px = Math.PI * x;
+                return 3.0 * Math.sin(px) * Math.sin(px / 3.0) / (px * px);
+            }
+        };
+
+        /** The distance from the centre beyond which the filter weight is zero. */
+        private final double radius;
+
+        /**
+         * <p>
+         * Create a filter.
+         * </p>
+         *
+         * @param radius The distance from the centre beyond which the filter
+         *               weight is zero.
+         */
+        Filter(double radius) {
+            this.radius = radius;
+        }
+
+        /**
+         * <p>
+         * Get the weight of the filter at a distance from its centre.
+         * </p>
+         *
+         * @param x The distance from the centre of the filter, in source pixels.
+         * @return The weight of the filter at that distance.
+         */
+        abstract double weight(double x);
+    }
+
+    /**
+     * <p>
+     * Resample an image to a new size.
+     * </p>
+     *
+     * <p>
+     * The result has the same colour model as the input.
+     * </p>
+     *
+     * @param input     The image to resample.
+     * @param newWidth  The width of the result, at least 1.
+     * @param newHeight The height of the result, at least 1.
+     * @param filter    The filter to reconstruct the image with.
+     * @return A new image of the given size.
+     */
+    static BufferedImage resample(BufferedImage input, int newWidth, int newHeight, Filter filter) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] pixels = ImagePixels.getPixels(input);
+
+        if (filter == Filter.NEAREST) {
+            pixels = nearest(pixels, width, height, newWidth, newHeight);
+        } else {
+            boolean premultiply = hasTransparency(pixels);
+            if (premultiply) {
+                premultiply(pixels);
+            }
+
+            // Halve each axis while it is still to be reduced by at least a further
+            // factor of four
+            while (width >= newWidth * 4 || height >= newHeight * 4) {
+                boolean halveX = width >= newWidth * 4;
+                boolean halveY = height >= newHeight * 4;
+                int halfWidth = halveX ? (width + 1) / 2 : width;
+                int halfHeight = halveY ? (height + 1) / 2 : height;
+                pixels = halve(pixels, width, height, halfWidth, halfHeight);
+                width = halfWidth;
+                height = halfHeight;
+            }
+
+            if (newWidth != width) {
+                pixels = resampleRows(pixels, width, height, newWidth, filter);
+            }
+            if (newHeight != height) {
+                pixels = resampleColumns(pixels, newWidth, height, newHeight, filter);
+            }
+            if (premultiply) {
+                unpremultiply(pixels);
+            }
+        }
+
+        BufferedImage output = new BufferedImage(input.getColorModel(),
+                input.getRaster().createCompatibleWritableRaster(newWidth, newHeight),
+                input.isAlphaPremultiplied(), null);
+        ImagePixels.setPixels(output, pixels);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Halve the size of an image, averaging each 2x2 block of pixels.
+     * </p>
+     *
+     * <p>
+     * Repeatedly halving an image gives a mipmap pyramid, see
+     * {@link EditableImage#getMipmap(int)}. Transparent pixels are averaged with
+     * premultiplied alpha so they do not darken their neighbours.
+     * </p>
+     *
+     * @param input The image to halve.
+     * @return A new ARGB image half the width and height of the input, rounded
+     *         up.
+     */
+    static BufferedImage halve(BufferedImage input) {
+        BufferedImage output = new BufferedImage((input.getWidth() + 1) / 2, (input.getHeight() + 1) / 2,
+                BufferedImage.TYPE_INT_ARGB);
+        halve(input, output, new Rectangle(0, 0, output.getWidth(), output.getHeight()));
+        return output;
+    }
+
+    /**
+     * <p>
+     * Update part of a halved image after the image it was made from has
+     * changed.
+     * </p>
+     *
+     * <p>
+     * Each pixel of the halved image depends only on the 2x2 block of the input
+     * under it, so the result is the same as halving the whole input again.
+     * </p>
+     *
+     * @param input  The changed image.
+     * @param output The halved image to update, half the size of the input
+     *               rounded up.
+     * @param region The area of the halved image to update, within its bounds.
+     */
+    static void halve(BufferedImage input, BufferedImage output, Rectangle region) {
+        if (region.isEmpty()) {
+            return;
+        }
+        int sourceX = region.x * 2;
+        int sourceY = region.y * 2;
+        int sourceWidth = Math.min(region.width * 2, input.getWidth() - sourceX);
+        int sourceHeight = Math.min(region.height * 2, input.getHeight() - sourceY);
+        int[] pixels = ImagePixels.getPixels(input.getSubimage(sourceX, sourceY, sourceWidth, sourceHeight));
+
+        boolean premultiply = hasTransparency(pixels);
+        if (premultiply) {
+            premultiply(pixels);
+        }
+        pixels = halve(pixels, sourceWidth, sourceHeight, region.width, region.height);
+        if (premultiply) {
+            unpremultiply(pixels);
+        }
+
+        ImagePixels.setPixels(output.getSubimage(region.x, region.y, region.width, region.height), pixels);
+    }
+
+    /**
+     * <p>
+     * Resample with the nearest neighbour of each pixel.
+     * </p>
+     *
+     * @param pixels    The source pixels.
+     * @param width     The width of the source.
+     * @param height    The height of the source.
+     * @param newWidth  The width of the result.
+     * @param newHeight The height of the result.
+     * @return The resampled pixels.
+     */
+    private static int[] nearest(int[] pixels, int width, int height, int newWidth, int newHeight) {
+        int[] columns = new int[newWidth];
+        for (int x = 0; x < newWidth; x++) {
+            columns[x] = Math.min((int) ((x + 0.5) * width / newWidth), width - 1);
+        }
+
+        int[] output = new int[newWidth * newHeight];
+        IntStream.range(0, newHeight).parallel().forEach(y -> {
+            int row = Math.min((int) ((y + 0.5) * height / newHeight), height - 1) * width;
+            int out = y * newWidth;
+            for (int x = 0; x < newWidth; x++) {
+                output[out + x] = pixels[row + columns[x]];
+            }
+        });
+        return output;
+    }
+
+    /**
+     * <p>
+     * Halve the size of an image along one or both axes.
+     * </p>
+     *
+     * <p>
+     * Each result pixel is the average of the two or four source pixels it
+     * covers. An odd last row or column is paired with itself.
+     * </p>
+     *
+     * @param pixels    The source pixels.
+     * @param width     The width of the source.
+     * @param height    The height of the source.
+     * @param newWidth  Either {@code width} or half of it, rounded up.
+     * @param newHeight Either {@code height} or half of it, rounded up.
+     * @return The halved pixels.
+     */
+    private static int[] halve(int[] pixels, int width, int height, int newWidth, int newHeight) {
+        int stepX = newWidth == width ? 0 : 1;
+        int stepY = newHeight == height ? 0 : 1;
+        int[] output = new int[newWidth * newHeight];
+
+        IntStream.range(0, newHeight).parallel().forEach(y -> {
+            int sy = y << stepY;
+            int row0 = sy * width;
+            int row1 = Math.min(sy + stepY, height - 1) * width;
+            int out = y * newWidth;
+            for (int x = 0; x < newWidth; x++) {
+                int sx0 = x << stepX;
+                int sx1 = Math.min(sx0 + stepX, width - 1);
+                int p0 = pixels[row0 + sx0];
+                int p1 = pixels[row0 + sx1];
+                int p2 = pixels[row1 + sx0];
+                int p3 = pixels[row1 + sx1];
+                int argb = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((p0 >>> shift) & 0xFF) + ((p1 >>> shift) & 0xFF)
+                            + ((p2 >>> shift) & 0xFF) + ((p3 >>> shift) & 0xFF);
+                    argb |= ((sum + 2) >> 2) << shift;
+                }
+                output[out + x] = argb;
+            }
+        });
+        return output;
+    }
+
+    /**
+     * <p>
+     * The precomputed filter weights for resampling along one axis.
+     * </p>
+     *
+     * <p>
+     * Output position {@code i} is a weighted sum of {@code counts[i]} source
+     * positions starting at {@code starts[i]}, with the weights held in
+     * {@code weights} from index {@code i * stride}.
+     * </p>
+     */
+    private static class Weights {
+        /** The first source position used by each output position. */
+        int[] starts;
+        /** The number of source positions used by each output position. */
+        int[] counts;
+        /** The fixed point weights of each output position. */
+        int[] weights;
+        /** The distance between the weights of successive output positions. */
+        int stride;
+
+        /**
+         * <p>
+         * Calculate the weights for resampling along one axis.
+         * </p>
+         *
+         * @param inSize  The size of the source along the axis.
+         * @param outSize The size of the result along the axis.
+         * @param filter  The filter to use.
+         */
+        Weights(int inSize, int outSize, Filter filter) {
+            double scale = (double) inSize / outSize;
+            // When reducing, the filter is stretched to cover the source pixels
+            // that fall within each result pixel
+            double filterScale = Math.max(scale, 1.0);
+            double support = filter.radius * filterScale;
+            stride = (int) Math.ceil(support) * 2 + 1;
+            starts = new int[outSize];
+            counts = new int[outSize];
+            weights = new int[outSize * stride];
+
+            double[] values = new double[stride];
+            for (int i = 0; i < outSize; i++) {
+                double centre = (i + 0.5) * scale;
+                int min = Math.max((int) Math.floor(centre - support + 0.5), 0);
+                int max = Math.min((int) Math.floor(centre + support + 0.5), inSize);
+                int count = Math.min(max - min, stride);
+
+                double total = 0;
+                for (int k = 0; k < count; k++) {
+                    values[k] = filter.weight((min + k - centre + 0.5) / filterScale);
+                    total += values[k];
+                }
+
+                // Normalise so the weights sum to exactly one in fixed point, putting
+                // any rounding error on the largest weight
+                int sum = 0;
+                int largest = 0;
+                for (int k = 0; k < count; k++) {
+                    int w = total == 0 ? 0 : (int) Math.round(values[k] / total * (1 << PRECISION));
+                    weights[i * stride + k] = w;
+                    sum += w;
+                    if (w > weights[i * stride + largest]) {
+                        largest = k;
+                    }
+                }
+                weights[i * stride + largest] += (1 << PRECISION) - sum;
+                starts[i] = min;
+                counts[i] = count;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Resample every row of an image to a new width.
+     * </p>
+     *
+     * @param pixels   The source pixels.
+     * @param width    The width of the source.
+     * @param height   The height of the source and the result.
+     * @param newWidth The width of the result.
+     * @param filter   The filter to use.
+     * @return The resampled pixels.
+     */
+    private static int[] resampleRows(int[] pixels, int width, int height, int newWidth, Filter filter) {
+        Weights weights = new Weights(width, newWidth, filter);
+        int[] output = new int[newWidth * height];
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int row = y * width;
+            int out = y * newWidth;
+            for (int x = 0; x < newWidth; x++) {
+                int a = 0, r = 0, g = 0, b = 0;
+                int source = row + weights.starts[x];
+                int w0 = x * weights.stride;
+                for (int k = 0; k < weights.counts[x]; k++) {
+                    int p = pixels[source + k];
+                    int w = weights.weights[w0 + k];
+                    a += (p >>> 24) * w;
+                    r += ((p >> 16) & 0xFF) * w;
+                    g += ((p >> 8) & 0xFF) * w;
+                    b += (p & 0xFF) * w;
+                }
+                output[out + x] = pack(a, r, g, b);
+            }
+        });
+        return output;
+    }
+
+    /**
+     * <p>
+     * Resample every column of an image to a new height.
+     * </p>
+     *
+     * <p>
+     * The few source rows that contribute to each result row are read together,
+     * moving along them in step, so they are all read in memory order.
+     * </p>
+     *
+     * @param pixels    The source pixels.
+     * @param width     The width of the source and the result.
+     * @param height    The height of the source.
+     * @param newHeight The height of the result.
+     * @param filter    The filter to use.
+     * @return The resampled pixels.
+     */
+    private static int[] resampleColumns(int[] pixels, int width, int height, int newHeight, Filter filter) {
+        Weights weights = new Weights(height, newHeight, filter);
+        int[] output = new int[width * newHeight];
+
+        IntStream.range(0, newHeight).parallel().forEach(y -> {
+            int first = weights.starts[y] * width;
+            int count = weights.counts[y];
+            int w0 = y * weights.stride;
+            int out = y * width;
+            for (int x = 0; x < width; x++) {
+                int a = 0, r = 0, g = 0, b = 0;
+                int source = first + x;
+                for (int k = 0; k < count; k++) {
+                    int p = pixels[source];
+                    int w = weights.weights[w0 + k];
+                    a += (p >>> 24) * w;
+                    r += ((p >> 16) & 0xFF) * w;
+                    g += ((p >> 8) & 0xFF) * w;
+                    b += (p & 0xFF) * w;
+                    source += width;
+                }
+                output[out + x] = pack(a, r, g, b);
+            }
+        });
+        return output;
+    }
+
+    /**
+     * <p>
+     * Pack fixed point channel sums into an ARGB value.
+     * </p>
+     *
+     * <p>
+     * Sharp filters can overshoot, so each channel is clamped to [0, 255], and
+     * the colour channels are also clamped to the alpha so the result is still
+     * a valid premultiplied colour.
+     * </p>
+     *
+     * @param a The alpha sum.
+     * @param r The red sum.
+     * @param g The green sum.
+     * @param b The blue sum.
+     * @return The packed ARGB value.
+     */
+    private static int pack(int a, int r, int g, int b) {
+        int round = 1 << (PRECISION - 1);
+        a = Math.min(Math.max((a + round) >> PRECISION, 0), 255);
+        r = Math.min(Math.max((r + round) >> PRECISION, 0), a);
+        g = Math.min(Math.max((g + round) >> PRECISION, 0), a);
+        b = Math.min(Math.max((b + round) >> PRECISION, 0), a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * <p>
+     * Check if any pixels are not fully opaque.
+     * </p>
+     *
+     * @param pixels The pixels to check.
+     * @return True if any pixel has an alpha less than 255.
+     */
+    private static boolean hasTransparency(int[] pixels) {
+        for (int p : pixels) {
+            if ((p >>> 24) != 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>
+     * Multiply the colour channels of each pixel by its alpha.
+     * </p>
+     *
+     * @param pixels The pixels to convert, in place.
+     */
+    private static void premultiply(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            int a = p >>> 24;
+            // (t + (t >> 8)) >> 8 is c * a / 255 rounded, without a division
+            int r = ((p >> 16) & 0xFF) * a + 128;
+            int g = ((p >> 8) & 0xFF) * a + 128;
+            int b = (p & 0xFF) * a + 128;
+            r = (r + (r >> 8)) >> 8;
+            g = (g + (g >> 8)) >> 8;
+            b = (b + (b >> 8)) >> 8;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * <p>
+     * Divide the colour channels of each pixel by its alpha.
+     * </p>
+     *
+     * @param pixels The pixels to convert, in place.
+     */
+    private static void unpremultiply(int[] pixels) {
+        // 255 / a in 16 bit fixed point for each alpha, to avoid dividing per pixel
+        int[] reciprocals = new int[256];
+        for (int a = 1; a < 256; a++) {
+            reciprocals[a] = ((255 << 16) + a / 2) / a;
+        }
+
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            int a = p >>> 24;
+            if (a == 0) {
+                pixels[i] = 0;
+            } else if (a < 255) {
+                int reciprocal = reciprocals[a];
+                int r = Math.min((((p >> 16) & 0xFF) * reciprocal + 0x8000) >> 16, 255);
+                int g = Math.min((((p >> 8) & 0xFF) * reciprocal + 0x8000) >> 16, 255);
+                int b = Math.min(((p & 0xFF) * reciprocal + 0x8000) >> 16, 255);
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
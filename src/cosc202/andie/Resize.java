@@ -2,7 +2,6 @@ package cosc202.andie;
 
 
 import java.awt.image.BufferedImage;
-import java.awt.*;
 
 /**
  * <p>
@@ -10,6 +9,10 @@ import java.awt.*;
  * </p>
  * 
  * <p>
+ * The image is resampled with one of the filters of {@link Resampler}.
+ * </p>
+ * 
+ * <p>
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
  * 4.0</a>
  * </p>
@@ -19,20 +22,48 @@ import java.awt.*;
  */
 public class Resize implements ImageOperation, java.io.Serializable {
 
+    /**
+     * The serialization version from before the filter could be chosen. Keeping
+     * it lets older saved resizes load, with no filter set.
+     */
+    private static final long serialVersionUID = -1750960672214717069L;
+
     /**
      * The percentage of the resize to apply.
      */
     private int percentage;
 
+    /**
+     * The filter to resample the image with.
+     */
+    private Resampler.Filter filter;
+
+    /**
+     * <p>
+     * Apply a resize with the given percentage size and resampling filter.
+     * </p>
+     * 
+     * @param percentage The percentage of the resize.
+     * @param filter     The filter to resample the image with.
+     */
+    Resize(int percentage, Resampler.Filter filter) {
+        this.percentage = percentage;
+        this.filter = filter;
+    }
+
     /**
      * <p>
      * Apply a resize with the given percentage size.
      * </p>
      * 
+     * <p>
+     * The image is resampled with the default bicubic filter.
+     * </p>
+     * 
      * @param percentage The percentage of the resize.
      */
     Resize(int percentage) {
-        this.percentage = percentage;
+        this(percentage, Resampler.Filter.BICUBIC);
     }
 
     /**
@@ -46,15 +77,13 @@ public class Resize implements ImageOperation, java.io.Serializable {
     public BufferedImage apply(BufferedImage input) {
         int width = input.getWidth();
         int height = input.getHeight();
-        int newWidth = (width * percentage) / 100;
-        int newHeight = (height * percentage) / 100;
-
-        Image scaledImage = input.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
+        // The result is never allowed to be smaller than a single pixel
+        int newWidth = Math.max((width * percentage) / 100, 1);
+        int newHeight = Math.max((height * percentage) / 100, 1);
 
-        BufferedImage output = new BufferedImage(newWidth, newHeight, input.getType());
-        Graphics2D g2d = output.createGraphics();
-        g2d.drawImage(scaledImage, 0, 0, null);
-        g2d.dispose();
+        // Operations saved before the filter could be chosen have no filter set
+        Resampler.Filter resampleFilter = filter == null ? Resampler.Filter.BICUBIC : filter;
+        BufferedImage output = Resampler.resample(input, newWidth, newHeight, resampleFilter);
 
         return output;
     }
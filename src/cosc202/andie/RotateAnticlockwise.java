@@ -39,21 +39,8 @@ public class RotateAnticlockwise implements ImageOperation, java.io.Serializable
         int height = input.getHeight();
         
         BufferedImage output = new BufferedImage(height, width, input.getType());
-        
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int argb = input.getRGB(x, y);
-                output.setRGB(y, x, argb);
-            }
-        }
-
-        for (int y = 0; y < output.getHeight()/2; ++y) {
-            for (int x = 0; x < output.getWidth(); ++x) {
-                int argb = output.getRGB(x, y);
-                output.setRGB(x, y, output.getRGB(x, output.getHeight() - y - 1));
-                output.setRGB(x, output.getHeight() - y - 1, argb);
-            }
-        } 
+        int[] pixels = ImagePixels.getPixels(input);
+        ImagePixels.setPixels(output, ImagePixels.rotate90(pixels, width, height, false));
 
         return output;
     }
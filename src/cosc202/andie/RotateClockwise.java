@@ -39,21 +39,8 @@ public class RotateClockwise implements ImageOperation, java.io.Serializable {
         int height = input.getHeight();
         
         BufferedImage output = new BufferedImage(height, width, input.getType());
-        
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int argb = input.getRGB(x, y);
-                output.setRGB(y, x, argb);
-            }
-        }       
-
-        for (int y = 0; y < output.getHeight(); ++y) {
-            for (int x = 0; x < output.getWidth()/2; ++x) {
-                int argb = output.getRGB(x, y);
-                output.setRGB(x, y, output.getRGB(output.getWidth() - x - 1, y));
-                output.setRGB(output.getWidth() - x - 1, y, argb);
-            }
-        } 
+        int[] pixels = ImagePixels.getPixels(input);
+        ImagePixels.setPixels(output, ImagePixels.rotate90(pixels, width, height, true));
 
         return output;
     }
@@ -20,7 +20,14 @@ import java.awt.image.*;
  * @author Tristan Kitto
  * @version 1.0
  */
-public class SharpenFilter implements ImageOperation, java.io.Serializable {
+public class SharpenFilter implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version of the original SharpenFilter. It has no fields,
+     * so only this has to match for older saved sharpens to load.
+     */
+    private static final long serialVersionUID = 4783500209844325354L;
+
     /**
      * <p>
      * Construct a Sharpen filter.
@@ -58,4 +65,30 @@ public class SharpenFilter implements ImageOperation, java.io.Serializable {
         convOp.filter(input, output);
         return output;
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Apply a sharpen filter to a 16 bit image.
+     * </p>
+     * 
+     * @param input The image to apply the sharpen filter to.
+     * @return The resulting (sharpened) image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        float[] array = { 0, -0.5f, 0,
+                -0.5f, 3, -0.5f,
+                0, -0.5f, 0 };
+        return input.convolve(array, 3, 0);
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 1, as the kernel is 3x3.
+     */
+    public int getNeighbourhoodRadius() {
+        return 1;
+    }
+}
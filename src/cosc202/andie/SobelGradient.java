@@ -0,0 +1,221 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * ImageOperation to apply a combined Sobel edge detection filter.
+ * </p>
+ *
+ * <p>
+ * Rather than applying the horizontal and vertical Sobel kernels as two
+ * separate passes, this operation computes both gradients together in a single
+ * sweep over the image. The 3x3 neighbourhood of each pixel is loaded once and
+ * shared by both kernels, with the neighbourhood sliding one column at a time
+ * so that only three new pixels are read for each output pixel.
+ * </p>
+ *
+ * <p>
+ * The result is the gradient magnitude (edge strength) of each pixel.
+ * Optionally the gradient orientation can be quantised into four directions
+ * and shown as a colour, with the brightness of the colour giving the edge
+ * strength.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA
+ * 4.0</a>
+ * </p>
+ *
+ * @see EmbossClasses
+ * @author Tristan Kitto
+ * @version 1.0
+ */
+public class SobelGradient implements ImageOperation, java.io.Serializable {
+
+    /**
+     * The serialization version the filter was added with, so Sobel filters in
+     * .ops files saved before it could be limited to a selection still load.
+     */
+    private static final long serialVersionUID = -2106501125186085935L;
+
+    /**
+     * The colours used to show each quantised orientation: 0, 45, 90 and 135
+     * degrees respectively.
+     */
+    private static final int[] DIRECTION_COLOURS = { 0xFF0000, 0xFFFF00, 0x00FF00, 0x0080FF };
+
+    /** Whether to colour the result by the quantised gradient orientation. */
+    private boolean orientation;
+
+    /**
+     * <p>
+     * Construct a combined Sobel filter.
+     * </p>
+     *
+     * @param orientation True to colour edges by their quantised orientation,
+     *                    false to show the gradient magnitude only.
+     */
+    SobelGradient(boolean orientation) {
+        this.orientation = orientation;
+    }
+
+    /**
+     * <p>
+     * Construct a combined Sobel filter showing the gradient magnitude only.
+     * </p>
+     *
+     * @see SobelGradient(boolean)
+     */
+    SobelGradient() {
+        this(false);
+    }
+
+    /**
+     * <p>
+     * Apply the combined Sobel filter to an image.
+     * </p>
+     *
+     * @param input The image to apply the Sobel filter to.
+     * @return The resulting edge image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] pixels = input.getRGB(0, 0, width, height, null, 0, width);
+
+        int[] magnitude = new int[width * height];
+        byte[] direction = orientation ? new byte[width * height] : null;
+        gradients(pixels, width, height, magnitude, direction);
+
+        for (int i = 0; i < pixels.length; i++) {
+            int m = magnitude[i];
+            int rgb;
+            if (orientation) {
+                int colour = DIRECTION_COLOURS[direction[i]];
+                int r = ((colour >> 16) & 0xFF) * m / 255;
+                int g = ((colour >> 8) & 0xFF) * m / 255;
+                int b = (colour & 0xFF) * m / 255;
+                rgb = (r << 16) | (g << 8) | b;
+            } else {
+                rgb = (m << 16) | (m << 8) | m;
+            }
+            pixels[i] = (pixels[i] & 0xFF000000) | rgb;
+        }
+
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        output.setRGB(0, 0, width, height, pixels, 0, width);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Compute the Sobel gradient of every pixel in a packed ARGB array.
+     * </p>
+     *
+     * <p>
+     * Both the horizontal and vertical gradients are computed for each colour
+     * channel, and the channel with the strongest gradient determines the result
+     * for that pixel. Pixels beyond the edge of the image are treated as copies of
+     * the nearest edge pixel.
+     * The magnitude is scaled to match the half-weighted kernels used by
+     * {@link EmbossClasses.SobelHorizontal} and clamped to the range [0, 255].
+     * </p>
+     *
+     * <p>
+     * This is intended to be shared by any operation that needs edge
+     * information, so that the gradient computation is only done in one place.
+     * </p>
+     *
+     * @param argb      The packed ARGB pixels, in rows of {@code width}.
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param magnitude Array to receive the gradient magnitude of each pixel.
+     * @param direction Array to receive the quantised orientation of each pixel
+     *                  (0 to 3 for 0, 45, 90 and 135 degrees), or null if the
+     *                  orientation is not needed.
+     */
+    static void gradients(int[] argb, int width, int height, int[] magnitude, byte[] direction) {
+        for (int y = 0; y < height; y++) {
+            int above = Math.max(y - 1, 0) * width;
+            int row = y * width;
+            int below = Math.min(y + 1, height - 1) * width;
+
+            // The 3x3 neighbourhood as left, middle and right columns
+            int a0 = argb[above], a1 = argb[row], a2 = argb[below];
+            int b0 = a0, b1 = a1, b2 = a2;
+            int c0, c1, c2;
+
+            for (int x = 0; x < width; x++) {
+                int right = Math.min(x + 1, width - 1);
+                c0 = argb[above + right];
+                c1 = argb[row + right];
+                c2 = argb[below + right];
+
+                int bestSquared = -1;
+                int bestX = 0;
+                int bestY = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int gx = ((c0 >> shift) & 0xFF) + 2 * ((c1 >> shift) & 0xFF) + ((c2 >> shift) & 0xFF)
+                            - ((a0 >> shift) & 0xFF) - 2 * ((a1 >> shift) & 0xFF) - ((a2 >> shift) & 0xFF);
+                    int gy = ((a2 >> shift) & 0xFF) + 2 * ((b2 >> shift) & 0xFF) + ((c2 >> shift) & 0xFF)
+                            - ((a0 >> shift) & 0xFF) - 2 * ((b0 >> shift) & 0xFF) - ((c0 >> shift) & 0xFF);
+                    int squared = gx * gx + gy * gy;
+                    if (squared > bestSquared) {
+                        bestSquared = squared;
+                        bestX = gx;
+                        bestY = gy;
+                    }
+                }
+
+                magnitude[row + x] = Math.min((int) (Math.sqrt(bestSquared) / 2), 255);
+                if (direction != null) {
+                    direction[row + x] = quantise(bestX, bestY);
+                }
+
+                // Slide the neighbourhood one column to the right
+                a0 = b0;
+                a1 = b1;
+                a2 = b2;
+                b0 = c0;
+                b1 = c1;
+                b2 = c2;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Quantise a gradient into one of four orientations.
+     * </p>
+     *
+     * @param gx The horizontal gradient.
+     * @param gy The vertical gradient.
+     * @return 0, 1, 2 or 3 for gradients closest to 0, 45, 90 or 135 degrees.
+     */
+    private static byte quantise(int gx, int gy) {
+        int ax = Math.abs(gx);
+        int ay = Math.abs(gy);
+        // tan(22.5 degrees) is approximately 0.414
+        if (ay * 1000 <= ax * 414) {
+            return 0;
+        } else if (ax * 1000 <= ay * 414) {
+            return 2;
+        } else if ((gx ^ gy) >= 0) {
+            return 1;
+        } else {
+            return 3;
+        }
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * @return 1, as the Sobel kernels are 3x3.
+     */
+    public int getNeighbourhoodRadius() {
+        return 1;
+    }
+}
@@ -19,7 +19,14 @@ import java.awt.image.*;
  * @author Tristan Kitto
  * @version 1.0
  */
-public class SoftBlur implements ImageOperation, java.io.Serializable {
+public class SoftBlur implements HighPrecisionOperation, java.io.Serializable {
+
+    /**
+     * The serialization version of the original SoftBlur. It has no fields, so
+     * only this has to match for older saved blurs to load.
+     */
+    private static final long serialVersionUID = 6363648596663514396L;
+
     /**
      * <p>
      * Construct a Soft blur filter.
@@ -68,4 +75,35 @@ public class SoftBlur implements ImageOperation, java.io.Serializable {
         convOp.filter(paddedInput, output);
         return output;
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Apply a soft blur to a 16 bit image.
+     * </p>
+     * 
+     * @param input The image to apply the soft blur to.
+     * @return The resulting (blurred) image.
+     */
+    public HighPrecisionImage apply(HighPrecisionImage input) {
+        float[] array = { 0, 1 / 8.0f, 0,
+                1 / 8.0f, 1 / 2.0f, 1 / 8.0f,
+                0, 1 / 8.0f, 0 };
+        return input.convolve(array, 3, 1);
+    }
+
+    /**
+     * <p>
+     * Get how far from each pixel the operation reads.
+     * </p>
+     *
+     * <p>
+     * The 3x3 kernel is applied to a copy padded by one pixel, which moves
+     * the result one pixel down and to the right.
+     * </p>
+     *
+     * @return 2, the kernel's radius plus the shift.
+     */
+    public int getNeighbourhoodRadius() {
+        return 2;
+    }
+}
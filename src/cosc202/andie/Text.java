@@ -22,6 +22,12 @@ import java.awt.*;
  */
 public class Text implements ImageOperation, java.io.Serializable {
 
+    /**
+     * The serialization version from before text reported the area it changes,
+     * so text saved in older .ops files still loads.
+     */
+    private static final long serialVersionUID = -7365373246389886030L;
+
     /**
      * The coordinates of the text
      */
@@ -69,4 +75,31 @@ public class Text implements ImageOperation, java.io.Serializable {
 
         return input;
     }
+
+    /**
+     * <p>
+     * Get the part of an image the text covers.
+     * </p>
+     * 
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The bounds of the text, clipped to the image.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        // Measure with the same kind of graphics the text is drawn with
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        g.setFont(new Font(font, 0, fontSize));
+        FontMetrics fontM = g.getFontMetrics();
+        int baseline = startY + fontM.getHeight() / 2;
+
+        Rectangle region = fontM.getStringBounds(userText, g).getBounds();
+        region.translate(startX, baseline);
+        // Some glyphs reach past their advance, such as italic overhangs
+        region.add(g.getFont().createGlyphVector(g.getFontRenderContext(), userText)
+                .getPixelBounds(null, startX, baseline));
+        g.dispose();
+
+        region.grow(2, 2);
+        return region.intersection(new Rectangle(0, 0, width, height));
+    }
 }
@@ -124,7 +124,8 @@ public class ViewActions {
          * 
          * <p>
          * This method is called whenever the ZoomAction is triggered.
-         * It changes the zoom of the image from anywhere between 0% and 200%.
+         * It changes the zoom of the image from anywhere between 0% and
+         * {@link ImagePanel#MAX_ZOOM}.
          * </p>
          * 
          * @param e The event triggering this callback.
@@ -138,8 +139,9 @@ public class ViewActions {
             panel.setLayout(new GridLayout(2, 1));
 
             // Create a JSlider
-            JSlider slider = new JSlider(JSlider.HORIZONTAL, 0, 200, (int) originalZoom);
-            slider.setMajorTickSpacing(20);
+            JSlider slider = new JSlider(JSlider.HORIZONTAL, 0, (int) ImagePanel.MAX_ZOOM, (int) originalZoom);
+            slider.setMajorTickSpacing(200);
+            slider.setMinorTickSpacing(50);
             slider.setPaintTicks(true);
             slider.setPaintLabels(true);
             panel.add(new JLabel(bundle.getString("changeZoomMessage")));
@@ -476,8 +478,8 @@ public class ViewActions {
             EditableImage image = target.getImage();
 
             JPanel panel = new JPanel();
-            panel.setPreferredSize(new Dimension(350, 100));
-            panel.setLayout(new GridLayout(2, 1));
+            panel.setPreferredSize(new Dimension(350, 150));
+            panel.setLayout(new GridLayout(4, 1));
 
             // Create a JSlider
             JSlider slider = new JSlider(JSlider.HORIZONTAL, 0, 200, 100);
@@ -487,7 +489,16 @@ public class ViewActions {
             panel.add(new JLabel(bundle.getString("enterPercentageMessage")));
             panel.add(slider);
 
-            // Add a ChangeListener to the JSlider
+            // Create a JComboBox to choose the resampling filter
+            Resampler.Filter[] filters = Resampler.Filter.values();
+            String[] filterNames = { bundle.getString("resampleNearest"), bundle.getString("resampleBilinear"),
+                    bundle.getString("resampleBicubic"), bundle.getString("resampleLanczos") };
+            JComboBox<String> filterBox = new JComboBox<String>(filterNames);
+            filterBox.setSelectedIndex(Resampler.Filter.BICUBIC.ordinal());
+            panel.add(new JLabel(bundle.getString("resampleFilter")));
+            panel.add(filterBox);
+
+            // Preview the resize whenever the percentage or filter changes
             ChangeListener CL = new ChangeListener() {
                 @Override
                 public void stateChanged(ChangeEvent e) {
@@ -497,7 +508,8 @@ public class ViewActions {
                     percentage = slider.getValue();
                     // Update the image with the percentage value
                     try {
-                        target.getImage().tempApply(new Resize(percentage));
+                        target.getImage().tempApply(
+                                new Resize(percentage, filters[filterBox.getSelectedIndex()]));
                     } catch (Exception ex) {
                         Tools.errorMessage(ex, "fileApplyError");
                         Andie.frame.setCursor(Cursor.getDefaultCursor());
@@ -508,6 +520,7 @@ public class ViewActions {
             };
 
             slider.addChangeListener(CL);
+            filterBox.addActionListener(event -> CL.stateChanged(null));
 
             Object[] options = { bundle.getString("ok"), bundle.getString("cancel") };
             int option = JOptionPane.showOptionDialog(null,
@@ -521,7 +534,8 @@ public class ViewActions {
                 return;
             } else if (option == 0) {
                 target.setImage(image);
-                target.getImage().apply(new Resize(percentage));
+                percentage = slider.getValue();
+                target.getImage().apply(new Resize(percentage, filters[filterBox.getSelectedIndex()]));
                 target.repaint();
                 target.getParent().revalidate();
             }
@@ -574,17 +588,15 @@ public class ViewActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
+            image = target.getImage();
             if (isCropping || image.getCurrentImage() == null) {
                 return;
             }
             isCropping = true;
-            EditableImage imageCopy = EditableImage.copyImage(image);
 
             double scale = target.getZoom() / 100;
 
-            imageCopy.tempApply(new BrightnessContrast(-50, 0));
-            target.setImage(imageCopy);
-
+            // The image is dimmed by ImagePanel while cropping
             target.repaint();
 
             startX = 0;
@@ -598,6 +610,8 @@ public class ViewActions {
                     crop = true;
                     startX = e.getX();
                     startY = e.getY();
+                    endX = startX;
+                    endY = startY;
                 }
 
                 public void mouseReleased(MouseEvent e) {
@@ -608,6 +622,8 @@ public class ViewActions {
                     // Perform the crop operation
                     image.apply(new Crop((int) (startX / scale), (int) (startY / scale),
                             (int) (endX / scale), (int) (endY / scale)));
+                    // The selection is in the old image's coordinates
+                    target.setSelection(null);
                     stopCropping();
 
                 }
@@ -617,9 +633,13 @@ public class ViewActions {
 
             mouseMotionListener = new MouseMotionAdapter() {
                 public void mouseDragged(MouseEvent e) {
+                    // Only the area between the old and new rectangles changes
+                    Rectangle dirty = getBand();
                     endX = e.getX();
                     endY = e.getY();
-                    target.repaint();
+                    dirty.add(getBand());
+                    dirty.grow(1, 1);
+                    target.repaint(dirty);
                 }
             };
 
@@ -628,6 +648,7 @@ public class ViewActions {
             Action keyAction = new AbstractAction() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
+                    crop = false;
                     stopCropping();
                 }
             };
@@ -636,8 +657,19 @@ public class ViewActions {
             Andie.imagePanel.getActionMap().put("keyAction", keyAction);
         }
 
+        /**
+         * <p>
+         * Get the rectangle being dragged out.
+         * </p>
+         * 
+         * @return The crop rectangle in panel coordinates.
+         */
+        static Rectangle getBand() {
+            return new Rectangle(Math.min(startX, endX), Math.min(startY, endY), Math.abs(endX - startX),
+                    Math.abs(endY - startY));
+        }
+
         public static void stopCropping() {
-            target.setImage(image);
             target.repaint();
             target.getParent().revalidate();
             target.removeMouseListener(mouseListener);